@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.qihoo360.loader2.PluginContainers.ActivityState;
+import com.qihoo360.loader2.PluginContainers.StateBucket;
+import com.qihoo360.replugin.helper.HostConfigHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * 模拟一连串的Activity启动，对比坑位分配的两种方式： <p>
+ * 1、StateBucket：按目标索引查找，空白坑、空闲坑各一个队列（PluginContainers.allocLocked） <p>
+ * 2、原有方式：每次启动拼出坑位组的Key，再对组内所有坑做多遍线性扫描 <p>
+ * 坑位组覆盖所有 launchMode、透明/不透明、横竖屏，以及默认和各 taskAffinity 组，坑位数取 HostConfigHelper 的默认值。
+ * 每次“连发”在同一坑位组中启动多个Activity，目标从比坑位多的Activity集合中随机选取，因此命中、空白坑、复用空闲坑三种情况都会出现
+ *
+ * @author RePlugin Team
+ */
+public class ContainerAllocBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "RPBench";
+
+    private static final int[] LAUNCH_MODES = {0, 1, 2, 3};
+
+    private static final int PLUGINS = 4;
+
+    private static final int ACTIVITIES = 16;
+
+    private static final int BURST = 12;
+
+    private static final int BURSTS = 5000;
+
+    private final ArrayList<StateBucket> mBuckets = new ArrayList<>();
+
+    private final HashMap<String, HashMap<String, ActivityState>> mMaps = new HashMap<>();
+
+    /**
+     * 与mBuckets一一对应：{taskAffinity组, launchMode, 是否透明, 是否横屏}
+     */
+    private final ArrayList<int[]> mParams = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        int groups = 1 + HostConfigHelper.ACTIVITY_PIT_COUNT_TASK;
+        for (int g = 0; g < groups; g++) {
+            for (int mode : LAUNCH_MODES) {
+                for (int t = 0; t < 2; t++) {
+                    for (int l = 0; l < 2; l++) {
+                        addBucket(g, mode, t == 1, l == 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testLaunchBursts() {
+        // 预热
+        runBuckets(BURSTS / 10);
+        runScan(BURSTS / 10);
+
+        long start = System.nanoTime();
+        int bucketed = runBuckets(BURSTS);
+        long bucketTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int scanned = runScan(BURSTS);
+        long scanTime = System.nanoTime() - start;
+
+        assertEquals(bucketed, scanned);
+        int launches = BURSTS * BURST;
+        Log.i(TAG, "containers: buckets=" + mBuckets.size() + " launches=" + launches
+                + " bucket=" + (bucketTime / launches) + "ns/launch"
+                + " scan=" + (scanTime / launches) + "ns/launch"
+                + " speedup=" + String.format("%.1f", (double) scanTime / bucketTime) + "x");
+    }
+
+    private int runBuckets(int bursts) {
+        Random r = new Random(1);
+        int n = 0;
+        for (int b = 0; b < bursts; b++) {
+            int g = r.nextInt(mBuckets.size());
+            for (int i = 0; i < BURST; i++) {
+                String plugin = "plugin" + r.nextInt(PLUGINS);
+                String activity = "Activity" + r.nextInt(ACTIVITIES);
+                StateBucket bucket = mBuckets.get(g);
+                if (PluginContainers.allocLocked(null, bucket, plugin, activity, null) != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private int runScan(int bursts) {
+        Random r = new Random(1);
+        int n = 0;
+        for (int b = 0; b < bursts; b++) {
+            int g = r.nextInt(mBuckets.size());
+            for (int i = 0; i < BURST; i++) {
+                String plugin = "plugin" + r.nextInt(PLUGINS);
+                String activity = "Activity" + r.nextInt(ACTIVITIES);
+                // 原有方式每次都拼出坑位组的Key再查表
+                int[] p = mParams.get(g);
+                HashMap<String, ActivityState> map = mMaps.get(keyOf(p[0], p[1], p[2] == 1, p[3] == 1));
+                if (scanAlloc(map, plugin, activity) != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 原有的分配方式：找已登记的、找空白的、找最久未使用的，每一步都扫描整个坑位组
+     */
+    private static ActivityState scanAlloc(HashMap<String, ActivityState> map, String plugin, String activity) {
+        for (ActivityState state : map.values()) {
+            if (plugin.equals(state.plugin) && activity.equals(state.activity)) {
+                return state;
+            }
+        }
+        for (ActivityState state : map.values()) {
+            if (state.plugin == null) {
+                occupy(state, plugin, activity);
+                return state;
+            }
+        }
+        ActivityState found = null;
+        for (ActivityState state : map.values()) {
+            if (state.refs.isEmpty() && (found == null || state.timestamp < found.timestamp)) {
+                found = state;
+            }
+        }
+        if (found != null) {
+            occupy(found, plugin, activity);
+        }
+        return found;
+    }
+
+    private static void occupy(ActivityState state, String plugin, String activity) {
+        state.plugin = plugin;
+        state.activity = activity;
+        state.refs.clear();
+        state.timestamp = System.currentTimeMillis();
+        ContainerTable.put(state.container, plugin + ":" + activity + ":" + state.timestamp);
+    }
+
+    private void addBucket(int group, int mode, boolean translucent, boolean land) {
+        int count = count(mode, translucent, land);
+        if (count <= 0) {
+            return;
+        }
+        String key = keyOf(group, mode, translucent, land);
+        StateBucket bucket = new StateBucket();
+        HashMap<String, ActivityState> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String container = "com.qihoo360.replugin.sample.host.loader.a.Activity" + key + i;
+            bucket.add(new ActivityState(container, bucket));
+            map.put(container, new ActivityState(container, null));
+        }
+        mBuckets.add(bucket);
+        mMaps.put(key, map);
+        mParams.add(new int[]{group, mode, translucent ? 1 : 0, land ? 1 : 0});
+    }
+
+    private static String keyOf(int group, int mode, boolean translucent, boolean land) {
+        return "G" + group + "M" + mode + (translucent ? "TS" : "NTS") + (land ? "LAND" : "");
+    }
+
+    private static int count(int mode, boolean translucent, boolean land) {
+        switch (mode) {
+            case 1:
+                return translucent ? (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_TOP_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_TOP)
+                        : (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_TOP_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_TOP);
+            case 2:
+                return translucent ? (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_TASK_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_TASK)
+                        : (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_TASK_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_TASK);
+            case 3:
+                return translucent ? (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_INSTANCE_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_TS_SINGLE_INSTANCE)
+                        : (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_INSTANCE_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_SINGLE_INSTANCE);
+            default:
+                return translucent ? (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_TS_STANDARD_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_TS_STANDARD)
+                        : (land ? HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_STANDARD_LAND : HostConfigHelper.ACTIVITY_PIT_COUNT_NTS_STANDARD);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2.sp;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.IBinder;
+
+import java.util.HashMap;
+
+/**
+ * 基准测试用的IPref服务：放在独立进程中，与常驻进程里PrefImpl的Bundle方式一样在内存中读写，只为衡量跨进程调用本身的开销
+ *
+ * @author RePlugin Team
+ */
+public class BenchPrefService extends Service {
+
+    private final IPref.Stub mBinder = new IPref.Stub() {
+
+        private final HashMap<String, Bundle> mBundles = new HashMap<>();
+
+        private Bundle load(String category) {
+            Bundle bundle = mBundles.get(category);
+            if (bundle == null) {
+                bundle = new Bundle();
+                mBundles.put(category, bundle);
+            }
+            return bundle;
+        }
+
+        @Override
+        public synchronized String get(String category, String key, String defValue) {
+            Bundle bundle = load(category);
+            return bundle.containsKey(key) ? bundle.getString(key) : defValue;
+        }
+
+        @Override
+        public synchronized void set(String category, String key, String value) {
+            load(category).putString(key, value);
+        }
+
+        @Override
+        public synchronized Bundle getAll(String category) {
+            return new Bundle(load(category));
+        }
+    };
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2.sp;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比跨进程键值的两种方式：<p>
+ * 1、原有方式：每次get/set都通过Binder调用另一进程中的IPref（BenchPrefService，对应常驻进程的PrefImpl） <p>
+ * 2、MappedPref：本进程直接读写内存映射文件 <p>
+ * 每轮先写入 KEYS 个键，再读 READS_PER_KEY 遍。MappedPref 未开启 durable（与默认配置一致）
+ *
+ * @author RePlugin Team
+ */
+public class MappedPrefBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "RPBench";
+
+    private static final String CATEGORY = "bench";
+
+    private static final int KEYS = 50;
+
+    private static final int READS_PER_KEY = 10;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int ROUNDS = 10;
+
+    private ServiceConnection mConnection;
+
+    private IPref mRemote;
+
+    private File mFile;
+
+    private MappedPref mMapped;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mConnection = new ServiceConnection() {
+
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                mRemote = IPref.Stub.asInterface(service);
+                latch.countDown();
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+        Intent intent = new Intent(getContext(), BenchPrefService.class);
+        assertTrue(getContext().bindService(intent, mConnection, Context.BIND_AUTO_CREATE));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        mFile = new File(getContext().getCacheDir(), "bench_pref.map");
+        mFile.delete();
+        mMapped = MappedPref.open(mFile, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().unbindService(mConnection);
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testSameResult() throws Exception {
+        mRemote.set(CATEGORY, "k", "v");
+        mMapped.set("k", "v");
+        assertEquals(mRemote.get(CATEGORY, "k", "d"), mMapped.get("k", "d"));
+
+        // 与Bundle一致：set(null)后get返回null而不是默认值
+        mRemote.set(CATEGORY, "k", null);
+        mMapped.set("k", null);
+        assertNull(mRemote.get(CATEGORY, "k", "d"));
+        assertNull(mMapped.get("k", "d"));
+
+        mMapped.remove("k");
+        assertEquals("d", mMapped.get("k", "d"));
+    }
+
+    public void testBinderVsMapped() throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runBinder();
+            runMapped();
+        }
+
+        long binder = 0;
+        long mapped = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            binder += runBinder();
+            mapped += runMapped();
+        }
+
+        Log.i(TAG, "pref: keys=" + KEYS + " reads/key=" + READS_PER_KEY + " rounds=" + ROUNDS
+                + " binder=" + (binder / ROUNDS / 1000) + "us"
+                + " mapped=" + (mapped / ROUNDS / 1000) + "us"
+                + " speedup=" + String.format("%.1f", (double) binder / mapped) + "x");
+    }
+
+    private long runBinder() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < KEYS; i++) {
+            mRemote.set(CATEGORY, "key" + i, "value" + i);
+        }
+        for (int r = 0; r < READS_PER_KEY; r++) {
+            for (int i = 0; i < KEYS; i++) {
+                assertNotNull(mRemote.get(CATEGORY, "key" + i, null));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runMapped() {
+        long start = System.nanoTime();
+        for (int i = 0; i < KEYS; i++) {
+            mMapped.set("key" + i, "value" + i);
+        }
+        for (int r = 0; r < READS_PER_KEY; r++) {
+            for (int i = 0; i < KEYS; i++) {
+                assertNotNull(mMapped.get("key" + i, null));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
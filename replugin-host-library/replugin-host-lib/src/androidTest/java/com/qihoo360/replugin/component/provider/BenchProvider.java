@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.component.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.HashMap;
+
+/**
+ * 基准测试用的Provider：在内存中增删改，只为衡量跨进程调用本身的开销
+ *
+ * @author RePlugin Team
+ */
+public class BenchProvider extends ContentProvider {
+
+    static final String AUTHORITY = "com.qihoo360.replugin.bench.provider";
+
+    private final HashMap<Long, ContentValues> mRows = new HashMap<>();
+
+    private long mNextId;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public synchronized Uri insert(Uri uri, ContentValues values) {
+        long id = ++mNextId;
+        mRows.put(id, values);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+        return mRows.remove(ContentUris.parseId(uri)) != null ? 1 : 0;
+    }
+
+    @Override
+    public synchronized int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        long id = ContentUris.parseId(uri);
+        if (!mRows.containsKey(id)) {
+            return 0;
+        }
+        mRows.put(id, values);
+        return 1;
+    }
+}
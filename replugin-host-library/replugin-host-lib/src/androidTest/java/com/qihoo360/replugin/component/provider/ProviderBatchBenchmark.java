@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.component.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * 对比“每个操作一次跨进程调用”与“applyBatch一次调用完成整批”的吞吐 <p>
+ * 每轮执行 OPS 个操作（插入、更新、删除各占三分之一）。批量方式额外包含 PluginProviderHelper.withUri 改写Uri的开销，
+ * 与插件Provider经坑位转发时一致
+ *
+ * @author RePlugin Team
+ */
+public class ProviderBatchBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "RPBench";
+
+    private static final int OPS = 300;
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int ROUNDS = 10;
+
+    private static final Uri BASE = Uri.parse("content://" + BenchProvider.AUTHORITY + "/rows");
+
+    /**
+     * 插件内的Uri，批量方式中会被改写为BASE
+     */
+    private static final Uri PLUGIN_BASE = Uri.parse("content://com.qihoo360.replugin.bench.plugin/rows");
+
+    public void testPerOperationVsBatch() throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runPerOperation();
+            runBatch();
+        }
+
+        long perOp = 0;
+        long batch = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            perOp += runPerOperation();
+            batch += runBatch();
+        }
+
+        Log.i(TAG, "provider: ops/round=" + OPS + " rounds=" + ROUNDS
+                + " perOp=" + (perOp / ROUNDS / 1000) + "us"
+                + " batch=" + (batch / ROUNDS / 1000) + "us"
+                + " speedup=" + String.format("%.1f", (double) perOp / batch) + "x");
+    }
+
+    private long runPerOperation() {
+        ContentResolver cr = getContext().getContentResolver();
+        int n = OPS / 3;
+        long start = System.nanoTime();
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = ContentUris.parseId(cr.insert(BASE, values(i)));
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(1, cr.update(ContentUris.withAppendedId(BASE, ids[i]), values(-i), null, null));
+        }
+        for (int i = 0; i < n; i++) {
+            assertEquals(1, cr.delete(ContentUris.withAppendedId(BASE, ids[i]), null, null));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runBatch() throws Exception {
+        ContentResolver cr = getContext().getContentResolver();
+        int n = OPS / 3;
+        long start = System.nanoTime();
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ops.add(transfer(ContentProviderOperation.newInsert(PLUGIN_BASE).withValues(values(i)).build()));
+        }
+        ContentProviderResult[] inserted = cr.applyBatch(BenchProvider.AUTHORITY, ops);
+
+        ops = new ArrayList<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            Uri uri = pluginUri(inserted[i].uri);
+            ops.add(transfer(ContentProviderOperation.newUpdate(uri).withValues(values(-i)).withExpectedCount(1).build()));
+        }
+        for (int i = 0; i < n; i++) {
+            Uri uri = pluginUri(inserted[i].uri);
+            ops.add(transfer(ContentProviderOperation.newDelete(uri).withExpectedCount(1).build()));
+        }
+        cr.applyBatch(BenchProvider.AUTHORITY, ops);
+        return System.nanoTime() - start;
+    }
+
+    private static ContentProviderOperation transfer(ContentProviderOperation op) {
+        Uri uri = op.getUri();
+        Uri turi = BASE.buildUpon().path(uri.getPath()).build();
+        ContentProviderOperation top = PluginProviderHelper.withUri(op, turi);
+        assertNotNull(top);
+        return top;
+    }
+
+    private static Uri pluginUri(Uri uri) {
+        return PLUGIN_BASE.buildUpon().path(uri.getPath()).build();
+    }
+
+    private static ContentValues values(int i) {
+        ContentValues cv = new ContentValues();
+        cv.put("name", "row" + i);
+        cv.put("value", i);
+        return cv;
+    }
+}
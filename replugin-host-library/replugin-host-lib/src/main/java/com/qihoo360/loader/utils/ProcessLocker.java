@@ -26,9 +26,23 @@ import com.qihoo360.replugin.utils.FileUtils;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.MAIN_TAG;
 import static com.qihoo360.replugin.helper.LogRelease.LOGR;
 
@@ -41,6 +55,18 @@ public final class ProcessLocker {
 
     private static final String TAG = LogDebug.PLUGIN_TAG;
 
+    /**
+     * 各锁文件的等待统计。Key为锁文件路径
+     */
+    private static final ConcurrentHashMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * 执行阻塞式 FileChannel.lock() 的等待线程。只有发生竞争时才会用到，故按需创建、空闲回收
+     */
+    private static ExecutorService sWaiter;
+
+    private static final byte[] WAITER_LOCK = new byte[0];
+
     private final Context mContext;
 
     private FileOutputStream mFileOutputStream;
@@ -51,6 +77,13 @@ public final class ProcessLocker {
 
     private File mFile;
 
+    /**
+     * 正在进行中的阻塞等待，用于cancel
+     */
+    private volatile Future<FileLock> mPending;
+
+    private volatile boolean mCancelled;
+
     /**
      * @param context
      * @param filename
@@ -183,6 +216,119 @@ public final class ProcessLocker {
         return false;
     }
 
+    /**
+     * 加锁（阻塞方式） <p>
+     * 与 tryLockTimeWait 不同，这里不做“sleep轮询”：先 tryLock 一次，失败后在等待线程中调用 FileChannel.lock()，
+     * 持锁进程一释放就能立即拿到，最长等待 ms 毫秒。超时或调用 cancel 后放弃等待，并在统计中记录
+     *
+     * @param ms 最长等待时间，毫秒
+     * @return 是否加锁成功
+     */
+    public final synchronized boolean lockTimeWait(int ms) {
+        if (mFileChannel == null) {
+            return false;
+        }
+        // 自动修正到最小值，避免死锁
+        if (ms <= 0) {
+            ms = 1;
+        }
+        Stats stats = getStats(mFile.getPath());
+
+        // 无竞争时直接拿到，不切换线程
+        try {
+            mFileLock = mFileChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // 本进程内已有其它对象持有该锁，与 tryLockTimeWait 的处理保持一致
+            if (LOGR) {
+                LogRelease.w(TAG, "process lock overlapped: " + mFile);
+            }
+            return false;
+        } catch (IOException e) {
+            // 获取锁失败会抛异常，此处忽略
+        }
+        if (mFileLock != null) {
+            stats.onLocked(false, 0);
+            return true;
+        }
+
+        // 有竞争，交给等待线程阻塞等待
+        long start = System.currentTimeMillis();
+        Future<FileLock> future = getWaiter().submit(new Callable<FileLock>() {
+            @Override
+            public FileLock call() throws Exception {
+                FileLock fl = mFileChannel.lock();
+                if (mCancelled) {
+                    // 已放弃等待，立即释放
+                    fl.release();
+                    return null;
+                }
+                return fl;
+            }
+        });
+        mPending = future;
+        if (mCancelled) {
+            future.cancel(true);
+        }
+        try {
+            mFileLock = future.get(ms, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            stats.mTimeouts.incrementAndGet();
+            if (LOGR) {
+                LogRelease.w(TAG, "wait process lock timeout: " + mFile + " ms=" + ms);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(MAIN_TAG, e.getMessage(), e);
+            }
+        } finally {
+            mPending = null;
+            if (mFileLock == null) {
+                abort(future);
+            }
+        }
+        long waited = System.currentTimeMillis() - start;
+        if (mFileLock != null) {
+            stats.onLocked(true, waited);
+            if (LOG) {
+                LogDebug.d(TAG, "process lock acquired after wait: " + mFile + " waited=" + waited);
+            }
+            return true;
+        }
+        stats.mWaitMs.addAndGet(waited);
+        return false;
+    }
+
+    /**
+     * 放弃 lockTimeWait 中正在进行的等待。可在任意线程调用
+     */
+    public final void cancel() {
+        mCancelled = true;
+        Future<FileLock> f = mPending;
+        if (f != null) {
+            f.cancel(true);
+        }
+    }
+
+    /**
+     * 放弃等待。中断等待线程会关闭Channel，从而释放可能已拿到的锁
+     */
+    private void abort(Future<FileLock> future) {
+        mCancelled = true;
+        if (!future.cancel(true) && future.isDone()) {
+            // 在超时的同时拿到了锁
+            try {
+                FileLock fl = future.get();
+                if (fl != null) {
+                    fl.release();
+                }
+            } catch (Throwable e) {
+                // ignore
+            }
+        }
+    }
+
     /**
      * 加锁
      *
@@ -242,4 +388,122 @@ public final class ProcessLocker {
             mFile.delete();
         }
     }
+
+    private static ExecutorService getWaiter() {
+        synchronized (WAITER_LOCK) {
+            if (sWaiter == null) {
+                sWaiter = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "rp-plock-" + mCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            return sWaiter;
+        }
+    }
+
+    private static Stats getStats(String path) {
+        Stats stats = STATS.get(path);
+        if (stats == null) {
+            stats = new Stats();
+            Stats old = STATS.putIfAbsent(path, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 获取某锁文件的等待统计（只统计 lockTimeWait）
+     *
+     * @param path 锁文件路径
+     * @return 统计信息，若从未加过锁则返回null
+     */
+    public static Stats queryStats(String path) {
+        return STATS.get(path);
+    }
+
+    public static void dumpStats(PrintWriter writer) {
+        writer.println("--- process lock stats ---");
+        for (Map.Entry<String, Stats> e : STATS.entrySet()) {
+            writer.println(e.getKey() + ": " + e.getValue());
+        }
+    }
+
+    /**
+     * 单个锁文件的等待统计
+     */
+    public static final class Stats {
+
+        private final AtomicLong mLocks = new AtomicLong();
+
+        private final AtomicLong mContended = new AtomicLong();
+
+        private final AtomicLong mTimeouts = new AtomicLong();
+
+        private final AtomicLong mWaitMs = new AtomicLong();
+
+        private final AtomicLong mMaxWaitMs = new AtomicLong();
+
+        private void onLocked(boolean contended, long waited) {
+            mLocks.incrementAndGet();
+            if (!contended) {
+                return;
+            }
+            mContended.incrementAndGet();
+            mWaitMs.addAndGet(waited);
+            long max;
+            do {
+                max = mMaxWaitMs.get();
+            } while (waited > max && !mMaxWaitMs.compareAndSet(max, waited));
+        }
+
+        /**
+         * @return 加锁成功的次数
+         */
+        public long getLockCount() {
+            return mLocks.get();
+        }
+
+        /**
+         * @return 需要等待其它进程释放的次数
+         */
+        public long getContendedCount() {
+            return mContended.get();
+        }
+
+        /**
+         * @return 等待超时的次数
+         */
+        public long getTimeoutCount() {
+            return mTimeouts.get();
+        }
+
+        /**
+         * @return 累计等待时间，毫秒
+         */
+        public long getTotalWaitMs() {
+            return mWaitMs.get();
+        }
+
+        /**
+         * @return 单次最长等待时间，毫秒
+         */
+        public long getMaxWaitMs() {
+            return mMaxWaitMs.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{locks=" + mLocks + ", contended=" + mContended + ", timeouts=" + mTimeouts
+                    + ", waitMs=" + mWaitMs + ", maxWaitMs=" + mMaxWaitMs + "}";
+        }
+    }
 }
@@ -48,6 +48,11 @@ public class Constant {
      */
     public static final String LOCAL_PLUGIN_DATA_SUB_DIR = "plugins_v3_data";
 
+    /**
+     * 跨进程临时键值（MappedPref）的映射文件存放目录
+     */
+    public static final String LOCAL_PLUGIN_PREF_SUB_DIR = "plugins_v3_pref";
+
     /**
      * 插件Native（SO库）存放目录
      * Added by Jiongxuan Zhang
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import com.qihoo360.mobilesafe.api.Pref;
+import com.qihoo360.mobilesafe.api.Tasks;
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 坑位登记表（坑 -> plugin:activity:timestamp）的本进程镜像 <p>
+ * 读：首次访问时从 Pref（plugins_PACM）加载一次，之后都在内存中完成 <p>
+ * 写：先改内存，再合并到待写集合，由 Tasks 的后台线程批量写回 Pref；
+ * 后台线程正在写时新增的修改会合并到下一批，因此启动Activity的线程上不再有磁盘写 <p>
+ * 持久化的内容和格式不变，进程被杀后由 PluginContainers.loadFromPref 照旧恢复；
+ * 只有尚未写回的最后一批会丢失，与“核心进程数据丢失”的情况按相同流程处理
+ *
+ * @author RePlugin Team
+ */
+final class ContainerTable {
+
+    private static final byte[] LOCK = new byte[0];
+
+    /**
+     * 内存镜像，为null表示尚未加载
+     */
+    private static HashMap<String, String> sTable;
+
+    /**
+     * 待写回的修改
+     */
+    private static HashMap<String, String> sPending = new HashMap<>();
+
+    private static boolean sFlushPosted;
+
+    private static final Runnable FLUSH = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private ContainerTable() {
+        // Nothing
+    }
+
+    static String get(String container) {
+        synchronized (LOCK) {
+            return loadLocked().get(container);
+        }
+    }
+
+    static Map<String, String> getAll() {
+        synchronized (LOCK) {
+            return new HashMap<>(loadLocked());
+        }
+    }
+
+    static void put(String container, String value) {
+        synchronized (LOCK) {
+            loadLocked().put(container, value);
+            sPending.put(container, value);
+            if (sFlushPosted) {
+                return;
+            }
+            sFlushPosted = true;
+        }
+        Tasks.post2Thread(FLUSH);
+    }
+
+    private static HashMap<String, String> loadLocked() {
+        if (sTable == null) {
+            HashMap<String, String> table = new HashMap<>();
+            try {
+                for (Entry<String, ?> e : Pref.ipcGetAll().entrySet()) {
+                    if (e.getValue() != null) {
+                        table.put(e.getKey(), e.getValue().toString());
+                    }
+                }
+            } catch (Throwable e) {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "ct.l: " + e.getMessage(), e);
+                }
+            }
+            sTable = table;
+        }
+        return sTable;
+    }
+
+    private static void flush() {
+        HashMap<String, String> batch;
+        synchronized (LOCK) {
+            batch = sPending;
+            sPending = new HashMap<>();
+            sFlushPosted = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "ContainerTable.flush: size=" + batch.size());
+        }
+        try {
+            Pref.ipcSetAll(batch);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "ct.f: " + e.getMessage(), e);
+            }
+        }
+    }
+}
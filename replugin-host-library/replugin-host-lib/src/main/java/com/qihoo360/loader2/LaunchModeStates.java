@@ -20,11 +20,11 @@ import android.content.pm.ActivityInfo;
 import android.util.Log;
 
 import com.qihoo360.loader2.PluginContainers.ActivityState;
+import com.qihoo360.loader2.PluginContainers.StateBucket;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.helper.HostConfigHelper;
 import com.qihoo360.replugin.helper.LogDebug;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 
@@ -51,8 +51,10 @@ class LaunchModeStates {
      * 　　　　　　　<N1NRNTS2, ActivityState>
      * <p>
      * 其中：N1 表示当前为 UI 进程，NR 表示 launchMode 为 Standard，NTS 表示坑的 theme 为 Not Translucent。
+     * <p>
+     * 数组下标由 launchMode、是否透明、是否横屏直接算出（见 indexOf），分配时无需再拼接中缀符
      */
-    private Map<String, HashMap<String, ActivityState>> mStates = new HashMap<>();
+    private final StateBucket[] mStates = new StateBucket[16];
 
     /**
      * 初始化 LaunchMode 和 Theme 对应的坑位
@@ -65,11 +67,7 @@ class LaunchModeStates {
      */
     void addStates(Map<String, ActivityState> allStates, HashSet<String> containers, String prefix, int launchMode, boolean translucent, int count) {
         String infix = getInfix(launchMode, translucent);
-        HashMap<String, ActivityState> states = mStates.get(infix);
-        if (states == null) {
-            states = new HashMap<>();
-            mStates.put(infix, states);
-        }
+        StateBucket states = getOrCreate(indexOf(launchMode, translucent, false));
 
         for (int i = 0; i < count; i++) {
             String key = prefix + infix + i;
@@ -79,8 +77,8 @@ class LaunchModeStates {
                 Log.d(TAG, "LaunchModeStates.add(" + key + ")");
             }
 
-            ActivityState state = new ActivityState(key);
-            states.put(key, state);
+            ActivityState state = new ActivityState(key, states);
+            states.add(state);
             allStates.put(key, state);
             containers.add(key);
         }
@@ -101,11 +99,7 @@ class LaunchModeStates {
         }
         String infix = getInfix(launchMode, translucent);
         infix = "LAND" + infix;
-        HashMap<String, ActivityState> states = mStates.get(infix);
-        if (states == null) {
-            states = new HashMap<>();
-            mStates.put(infix, states);
-        }
+        StateBucket states = getOrCreate(indexOf(launchMode, translucent, true));
 
         for (int i = 0; i < count; i++) {
             String key = prefix + infix + i;
@@ -115,8 +109,8 @@ class LaunchModeStates {
                 LogDebug.d(TAG, "LaunchModeStates.add(" + key + ")");
             }
 
-            ActivityState state = new ActivityState(key);
-            states.put(key, state);
+            ActivityState state = new ActivityState(key, states);
+            states.add(state);
             allStates.put(key, state);
             containers.add(key);
         }
@@ -125,16 +119,36 @@ class LaunchModeStates {
     /**
      * 根据 launchMode 和 theme 获取对应的坑位集合
      */
-    HashMap<String, ActivityState> getStates(int screenOrientation, int launchMode, int theme) {
-        try {
-            String infix = getInfix(launchMode, isTranslucentTheme(theme));
-            if (HostConfigHelper.HOST_USE_OCCUPYLAND && screenOrientation == ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE) {
-                infix = "LAND" + infix;
-            }
-            return mStates.get(infix);
-        }catch (Exception e){
-            return null;
+    StateBucket getStates(int screenOrientation, int launchMode, int theme) {
+        boolean land = HostConfigHelper.HOST_USE_OCCUPYLAND && screenOrientation == ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE;
+        return mStates[indexOf(launchMode, isTranslucentTheme(theme), land)];
+    }
+
+    private StateBucket getOrCreate(int index) {
+        StateBucket states = mStates[index];
+        if (states == null) {
+            states = new StateBucket();
+            mStates[index] = states;
+        }
+        return states;
+    }
+
+    /**
+     * 与 getInfix 一一对应：未知的 launchMode 同 getLaunchModeInfix 一样按 Standard 处理
+     */
+    private static int indexOf(int launchMode, boolean translucent, boolean land) {
+        int mode;
+        switch (launchMode) {
+            case ActivityInfo.LAUNCH_SINGLE_TOP:
+            case ActivityInfo.LAUNCH_SINGLE_TASK:
+            case ActivityInfo.LAUNCH_SINGLE_INSTANCE:
+                mode = launchMode;
+                break;
+            default:
+                mode = ActivityInfo.LAUNCH_MULTIPLE;
+                break;
         }
+        return (land ? 8 : 0) | (mode << 1) | (translucent ? 1 : 0);
     }
 
     /**
@@ -35,6 +35,7 @@ import com.qihoo360.i.IModule;
 import com.qihoo360.i.IPlugin;
 import com.qihoo360.mobilesafe.core.BuildConfig;
 import com.qihoo360.mobilesafe.parser.manifest.ManifestParser;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.component.ComponentList;
@@ -43,13 +44,14 @@ import com.qihoo360.replugin.component.receiver.PluginReceiverProxy;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
 import com.qihoo360.replugin.model.PluginInfo;
+import com.qihoo360.replugin.model.PluginLoadTrace;
+import com.qihoo360.replugin.packages.PluginPackageSnapshot;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -79,6 +81,11 @@ class Loader {
 
     final Plugin mPluginObj;
 
+    /**
+     * 该插件在缓存中的一组产物。持有它以保证PackageInfo、Resources、ClassLoader等一起存活
+     */
+    PluginArtifactCache.Artifacts mArtifacts;
+
     PackageInfo mPackageInfo;
 
     Resources mPkgResources;
@@ -170,24 +177,52 @@ class Loader {
         return new PluginContext(newBase, android.R.style.Theme, mClassLoader, mPkgResources, mPluginName, this);
     }
 
-    final boolean loadDex(ClassLoader parent, int load) {
+    /**
+     * @param trace 本次加载的耗时记录
+     */
+    final boolean loadDex(ClassLoader parent, int load, PluginLoadTrace trace) {
         try {
             PackageManager pm = mContext.getPackageManager();
 
-            mPackageInfo = Plugin.queryCachedPackageInfo(mPath);
+            mArtifacts = PluginArtifactCache.obtain(mPath);
+            mPackageInfo = mArtifacts.mPackageInfo;
+            ManifestBean manifest = null;
             if (mPackageInfo == null) {
-                // PackageInfo
-                mPackageInfo = pm.getPackageArchiveInfo(mPath,
-                        PackageManager.GET_ACTIVITIES | PackageManager.GET_SERVICES | PackageManager.GET_PROVIDERS | PackageManager.GET_RECEIVERS | PackageManager.GET_META_DATA);
-                if (mPackageInfo == null || mPackageInfo.applicationInfo == null) {
+                // 优先使用安装时生成的快照，省去 getPackageArchiveInfo 和 Manifest 解析
+                long start = PluginLoadTrace.now();
+                PluginPackageSnapshot snapshot = PluginPackageSnapshot.read(mPath);
+                if (snapshot != null) {
+                    trace.record(PluginLoadTrace.STAGE_PACKAGE_INFO, start);
+                    mPackageInfo = snapshot.getPackageInfo();
+                    manifest = snapshot.getManifest();
                     if (LOG) {
-                        LogDebug.d(PLUGIN_TAG, "get package archive info null");
+                        LogDebug.d(PLUGIN_TAG, "get package info from snapshot, pi=" + mPackageInfo);
+                    }
+                } else {
+                    // PackageInfo
+                    mPackageInfo = pm.getPackageArchiveInfo(mPath, PluginPackageSnapshot.PACKAGE_FLAGS);
+                    trace.record(PluginLoadTrace.STAGE_PACKAGE_INFO, start);
+                    if (mPackageInfo == null || mPackageInfo.applicationInfo == null) {
+                        if (LOG) {
+                            LogDebug.d(PLUGIN_TAG, "get package archive info null");
+                        }
+                        mPackageInfo = null;
+                        return false;
+                    }
+                    if (LOG) {
+                        LogDebug.d(PLUGIN_TAG, "get package archive info, pi=" + mPackageInfo);
+                    }
+
+                    // 快照不存在或已过期（如内置插件、覆盖安装），在此补齐。必须在修改PackageInfo之前写入
+                    start = PluginLoadTrace.now();
+                    manifest = ComponentList.tryParseManifest(mPath);
+                    trace.record(PluginLoadTrace.STAGE_COMPONENTS, start);
+                    if (manifest != null) {
+                        PluginPackageSnapshot.write(mPath, mPackageInfo, manifest);
+                    } else {
+                        // 解析失败时不写快照，下次加载再重新解析
+                        manifest = new ManifestBean();
                     }
-                    mPackageInfo = null;
-                    return false;
-                }
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "get package archive info, pi=" + mPackageInfo);
                 }
                 mPackageInfo.applicationInfo.sourceDir = mPath;
                 mPackageInfo.applicationInfo.publicSourceDir = mPath;
@@ -220,9 +255,7 @@ class Loader {
                 }
 
                 // 缓存表: fileName -> PackageInfo
-                synchronized (Plugin.FILENAME_2_PACKAGE_INFO) {
-                    Plugin.FILENAME_2_PACKAGE_INFO.put(mPath, new WeakReference<PackageInfo>(mPackageInfo));
-                }
+                mArtifacts.mPackageInfo = mPackageInfo;
             }
 
             // TODO preload预加载虽然通知到常驻了(但pluginInfo是通过MP.getPlugin(name, true)完全clone出来的)，本进程的PluginInfo并没有得到更新
@@ -237,18 +270,18 @@ class Loader {
 
             // 创建或获取ComponentList表
             // Added by Jiongxuan Zhang
-            mComponents = Plugin.queryCachedComponentList(mPath);
+            mComponents = mArtifacts.mComponents;
             if (mComponents == null) {
                 // ComponentList
-                mComponents = new ComponentList(mPackageInfo, mPath, mPluginObj.mInfo);
+                long start = PluginLoadTrace.now();
+                mComponents = new ComponentList(mPackageInfo, mPath, mPluginObj.mInfo, manifest);
+                trace.record(PluginLoadTrace.STAGE_COMPONENTS, start);
 
                 // 动态注册插件中声明的 receiver
                 regReceivers();
 
                 // 缓存表：ComponentList
-                synchronized (Plugin.FILENAME_2_COMPONENT_LIST) {
-                    Plugin.FILENAME_2_COMPONENT_LIST.put(mPath, new WeakReference<>(mComponents));
-                }
+                mArtifacts.mComponents = mComponents;
 
                 /* 只调整一次 */
                 // 调整插件中组件的进程名称
@@ -262,10 +295,11 @@ class Loader {
                 return isPackageInfoLoaded();
             }
 
-            mPkgResources = Plugin.queryCachedResources(mPath);
+            mPkgResources = mArtifacts.mResources;
             // LOAD_RESOURCES和LOAD_ALL都会获取资源，但LOAD_INFO不可以（只允许获取PackageInfo）
             if (mPkgResources == null) {
                 // Resources
+                long start = PluginLoadTrace.now();
                 try {
                     if (BuildConfig.DEBUG) {
                         // 如果是Debug模式的话，防止与Instant Run冲突，资源重新New一个
@@ -290,16 +324,16 @@ class Loader {
                     LogDebug.d(PLUGIN_TAG, "get resources for app, r=" + mPkgResources);
                 }
 
+                trace.record(PluginLoadTrace.STAGE_RESOURCES, start);
+
                 // 缓存表: Resources
-                synchronized (Plugin.FILENAME_2_RESOURCES) {
-                    Plugin.FILENAME_2_RESOURCES.put(mPath, new WeakReference<>(mPkgResources));
-                }
+                mArtifacts.mResources = mPkgResources;
             }
             if (load == Plugin.LOAD_RESOURCES) {
                 return isResourcesLoaded();
             }
 
-            mClassLoader = Plugin.queryCachedClassLoader(mPath);
+            mClassLoader = mArtifacts.mClassLoader;
             if (mClassLoader == null) {
                 // ClassLoader
                 String out = mPluginObj.mInfo.getDexParentDir().getPath();
@@ -318,15 +352,13 @@ class Loader {
                 }
                 String soDir = mPackageInfo.applicationInfo.nativeLibraryDir;
 
-                long begin = 0;
+                long begin = System.currentTimeMillis();
+                long start = PluginLoadTrace.now();
                 boolean isDexExist = false;
 
-                if (LOG) {
-                    begin = System.currentTimeMillis();
-                    File dexFile = mPluginObj.mInfo.getDexFile();
-                    if (dexFile.exists() && dexFile.length() > 0) {
-                        isDexExist = true;
-                    }
+                File odexFile = mPluginObj.mInfo.getDexFile();
+                if (odexFile.exists() && odexFile.length() > 0) {
+                    isDexExist = true;
                 }
 
 
@@ -342,6 +374,9 @@ class Loader {
                     dexFile.setWritable(true);
                 }
 
+                // odex不存在时，创建ClassLoader的耗时主要在Dex优化上
+                trace.record(isDexExist ? PluginLoadTrace.STAGE_CLASSLOADER : PluginLoadTrace.STAGE_DEX_OPT, start);
+
                 if (mClassLoader == null) {
                     if (LOG) {
                         LogDebug.d(PLUGIN_TAG, "get dex null");
@@ -362,9 +397,7 @@ class Loader {
                 }
 
                 // 缓存表：ClassLoader
-                synchronized (Plugin.FILENAME_2_DEX) {
-                    Plugin.FILENAME_2_DEX.put(mPath, new WeakReference<>(mClassLoader));
-                }
+                mArtifacts.mClassLoader = mClassLoader;
             }
             if (load == Plugin.LOAD_DEX) {
                 return isDexLoaded();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.content.Context;
+
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+import com.qihoo360.replugin.utils.ReflectUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 本进程LocalBroadcast订阅表（监听了哪些Action）的上报 <p>
+ * 将LocalBroadcastManager内部的mActions替换为能感知增删的Map：某Action第一次有Receiver注册、或最后一个Receiver注销时，
+ * 通过RegistrationBatcher通知常驻进程。常驻进程据此只把Intent发给监听了该Action的进程 <p>
+ * 任何一步失败（如LocalBroadcastManager的实现不同）都不上报，常驻进程会把所有Intent照旧发给本进程
+ *
+ * @author RePlugin Team
+ */
+final class LocalBroadcastSubscriptions {
+
+    private static final String V4_MANAGER = "android.support.v4.content.LocalBroadcastManager";
+
+    private static final String ANDROIDX_MANAGER = "androidx.localbroadcastmanager.content.LocalBroadcastManager";
+
+    /**
+     * LocalBroadcastManager.mReceivers，其register/unregister均在此对象上加锁
+     */
+    private static Object sLock;
+
+    private static TrackingMap sActions;
+
+    private LocalBroadcastSubscriptions() {
+        // Nothing
+    }
+
+    /**
+     * 连接常驻进程（attachPluginProcess）后调用。首次调用时安装订阅跟踪，之后每次都上报全量订阅表
+     */
+    static void attach(Context context) {
+        try {
+            if (sActions == null && !install(context)) {
+                return;
+            }
+            synchronized (sLock) {
+                RegistrationBatcher.resetActions(new ArrayList<>(sActions.keySet()));
+            }
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "lbs.a: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean install(Context context) throws Exception {
+        Class<?> cls;
+        try {
+            cls = ReflectUtils.getClass(ANDROIDX_MANAGER);
+        } catch (ClassNotFoundException e) {
+            cls = ReflectUtils.getClass(V4_MANAGER);
+        }
+        Object manager = ReflectUtils.getMethod(cls, "getInstance", Context.class).invoke(null, context);
+        Object lock = ReflectUtils.readField(cls, manager, "mReceivers");
+        if (lock == null) {
+            return false;
+        }
+        synchronized (lock) {
+            Object actions = ReflectUtils.readField(cls, manager, "mActions");
+            if (!(actions instanceof HashMap)) {
+                return false;
+            }
+            TrackingMap map = new TrackingMap((Map<Object, Object>) actions);
+            ReflectUtils.writeField(cls, manager, "mActions", map);
+            sLock = lock;
+            sActions = map;
+        }
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "LocalBroadcastSubscriptions installed: " + sActions.keySet());
+        }
+        return true;
+    }
+
+    /**
+     * 只在Action的第一个Receiver注册（put新key）和最后一个Receiver注销（remove）时上报。
+     * LocalBroadcastManager对它的所有访问都在mReceivers锁内
+     */
+    private static final class TrackingMap extends HashMap<Object, Object> {
+
+        TrackingMap(Map<Object, Object> m) {
+            super(m);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            Object old = super.put(key, value);
+            if (old == null && key instanceof String) {
+                RegistrationBatcher.subscribeAction((String) key);
+            }
+            return old;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            Object old = super.remove(key);
+            if (old != null && key instanceof String) {
+                RegistrationBatcher.unsubscribeAction((String) key);
+            }
+            return old;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.qihoo360.loader.utils.ProcessLocker;
 import com.qihoo360.replugin.IHostBinderFetcher;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
 import com.qihoo360.replugin.model.PluginInfo;
@@ -61,6 +62,13 @@ public class MP {
      */
     static volatile HashMap<String, String> sBinderReasons;
 
+    /**
+     * 本进程已获取的插件Binder缓存，key见pluginBinderKey <p>
+     * 同一(插件, 进程, Binder名)重复fetch时复用缓存的Entry并增加引用计数，无需再走IPC；目标Binder死亡时自动移除 <p>
+     * 每次fetch都返回新的PluginBinder，各持有者分别release，重复release同一个PluginBinder只生效一次
+     */
+    private static final HashMap<String, PluginBinderEntry> sPluginBinders = new HashMap<>();
+
     /**
      * 仿插件对象，用来实现主程序提供binder给其他模块
      *
@@ -120,6 +128,19 @@ public class MP {
             LogDebug.d(PLUGIN_TAG, "MP.fetchPluginBinder ... plugin=" + plugin + " binder.name=" + binder);
         }
 
+        // 先看缓存。isBinderAlive是本地判断，不走IPC
+        String key = pluginBinderKey(plugin, process, binder);
+        synchronized (sPluginBinders) {
+            PluginBinderEntry entry = sPluginBinders.get(key);
+            if (entry != null && entry.binder.isBinderAlive()) {
+                entry.refs++;
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "MP.fetchPluginBinder hit cache ... refs=" + entry.refs);
+                }
+                return new PluginBinder(entry);
+            }
+        }
+
         // 若开启了“打印详情”则打印调用栈，便于观察
         if (RePlugin.getConfig().isPrintDetailLog()) {
             String reason = "";
@@ -158,7 +179,7 @@ public class MP {
             }
             // 增加计数器
             if (b != null) {
-                PluginProcessMain.getPluginHost().regPluginBinder(info, b);
+                RegistrationBatcher.regPluginBinder(info, b);
             }
         } catch (Throwable e) {
             if (LOGR) {
@@ -170,10 +191,33 @@ public class MP {
             return null;
         }
 
-        return new PluginBinder(plugin, binder, info.pid, b);
+        PluginBinderEntry entry = new PluginBinderEntry(plugin, binder, info.pid, b);
+        synchronized (sPluginBinders) {
+            PluginBinderEntry exist = sPluginBinders.get(key);
+            if (exist != null && exist.binder.isBinderAlive()) {
+                // 并发fetch，别的线程已放入缓存，则撤销本次登记，复用已有的
+                exist.refs++;
+                RegistrationBatcher.unregPluginBinder(info, b);
+                return new PluginBinder(exist);
+            }
+            entry.refs = 1;
+            try {
+                b.linkToDeath(entry, 0);
+                entry.key = key;
+                sPluginBinders.put(key, entry);
+            } catch (RemoteException e) {
+                // 已经死了，不缓存，交由调用方按原流程处理
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "MP.fetchPluginBinder binder died: " + key);
+                }
+            }
+        }
+        return new PluginBinder(entry);
     }
 
     /**
+     * 释放fetchPluginBinder返回的引用。同一个binder重复调用时只有第一次生效
+     *
      * @param binder
      */
     public static final void releasePluginBinder(PluginBinder binder) {
@@ -181,6 +225,28 @@ public class MP {
             LogDebug.d(PLUGIN_TAG, "MP.releasePluginBinder ... pid=" + binder.pid + " binder=" + binder.binder);
         }
 
+        synchronized (sPluginBinders) {
+            if (binder.released) {
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "MP.releasePluginBinder already released: " + binder.plugin + ":" + binder.name);
+                }
+                return;
+            }
+            binder.released = true;
+
+            // 仍有其它持有者，只减计数
+            PluginBinderEntry entry = binder.entry;
+            if (entry.refs > 1) {
+                entry.refs--;
+                return;
+            }
+            entry.refs = 0;
+            if (entry.key != null && sPluginBinders.get(entry.key) == entry) {
+                sPluginBinders.remove(entry.key);
+                entry.binder.unlinkToDeath(entry, 0);
+            }
+        }
+
         // 记录调用栈，便于观察：删除
         if (LOG) {
             if (sBinderReasons != null) {
@@ -190,13 +256,7 @@ public class MP {
 
         PluginBinderInfo info = new PluginBinderInfo(PluginBinderInfo.BINDER_REQUEST);
         info.pid = binder.pid;
-        try {
-            PluginProcessMain.getPluginHost().unregPluginBinder(info, binder.binder);
-        } catch (Throwable e) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "mp.r.p.b: " + e.getMessage(), e);
-            }
-        }
+        RegistrationBatcher.unregPluginBinder(info, binder.binder);
     }
 
     /**
@@ -384,6 +444,8 @@ public class MP {
             LogDebug.d(PLUGIN_TAG, "MP.sumBinders ... index=" + PluginManager.sPluginProcessIndex);
         }
         try {
+            // 先让之前登记的Binder生效
+            RegistrationBatcher.flush();
             return PluginProcessMain.getPluginHost().sumBinders(PluginManager.sPluginProcessIndex);
         } catch (Throwable e) {
             if (LOGR) {
@@ -431,7 +493,13 @@ public class MP {
      * @hide 内部框架使用
      */
     public static final IPluginClient startPluginProcess(String plugin, int process, PluginBinderInfo info) throws RemoteException {
-        return PluginProcessMain.getPluginHost().startPluginProcess(plugin, process, info);
+        // 进程分配依赖各进程的Activity、Service等登记情况
+        RegistrationBatcher.flush();
+        IPluginClient client = PluginProcessMain.getPluginHost().startPluginProcess(plugin, process, info);
+        if (client != null && BinderTracer.isEnabled()) {
+            client = IPluginClient.Stub.asInterface(BinderTracer.wrap(client.asBinder(), IPluginClient.Stub.class));
+        }
+        return client;
     }
 
     /**
@@ -444,6 +512,13 @@ public class MP {
         return PluginProcessMain.getPluginHost().getTaskAffinityGroupIndex(taskAffinity);
     }
 
+    private static String pluginBinderKey(String plugin, int process, String binder) {
+        return plugin + ":" + process + ":" + binder;
+    }
+
+    /**
+     * fetchPluginBinder返回给每个持有者的引用，须由该持有者通过releasePluginBinder释放
+     */
     public static final class PluginBinder {
 
         public final String plugin;
@@ -454,11 +529,63 @@ public class MP {
 
         public final IBinder binder;
 
-        PluginBinder(String plugin, String name, int pid, IBinder binder) {
+        final PluginBinderEntry entry;
+
+        /**
+         * 是否已release，受sPluginBinders锁保护
+         */
+        boolean released;
+
+        PluginBinder(PluginBinderEntry entry) {
+            this.plugin = entry.plugin;
+            this.name = entry.name;
+            this.binder = entry.binder;
+            this.pid = entry.pid;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * 缓存中的一项，由各持有者的PluginBinder共享
+     */
+    private static final class PluginBinderEntry implements IBinder.DeathRecipient {
+
+        final String plugin;
+
+        final String name;
+
+        final int pid;
+
+        final IBinder binder;
+
+        /**
+         * 缓存的key，为null表示未放入缓存
+         */
+        String key;
+
+        /**
+         * 引用计数（未release的PluginBinder个数），受sPluginBinders锁保护
+         */
+        int refs;
+
+        PluginBinderEntry(String plugin, String name, int pid, IBinder binder) {
             this.plugin = plugin;
             this.name = name;
             this.binder = binder;
             this.pid = pid;
         }
+
+        @Override
+        public void binderDied() {
+            if (LOG) {
+                LogDebug.d(PLUGIN_TAG, "MP.PluginBinder died: " + key);
+            }
+            // 只移出缓存，引用计数保留，持有者release时仍会向常驻进程撤销登记
+            synchronized (sPluginBinders) {
+                if (key != null && sPluginBinders.get(key) == this) {
+                    sPluginBinders.remove(key);
+                }
+            }
+        }
     }
 }
@@ -25,6 +25,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -38,6 +39,8 @@ import com.qihoo360.replugin.component.app.PluginApplicationClient;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
 import com.qihoo360.replugin.model.PluginInfo;
+import com.qihoo360.replugin.model.PluginLoadStats;
+import com.qihoo360.replugin.model.PluginLoadTrace;
 import com.qihoo360.replugin.packages.PluginManagerProxy;
 import com.qihoo360.replugin.utils.AssetsUtils;
 import com.qihoo360.replugin.utils.FileUtils;
@@ -46,7 +49,6 @@ import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -90,26 +92,6 @@ class Plugin {
      */
     static final HashMap<String, String> PLUGIN_NAME_2_FILENAME = new HashMap<>();
 
-    /**
-     *
-     */
-    static final HashMap<String, WeakReference<ClassLoader>> FILENAME_2_DEX = new HashMap<>();
-
-    /**
-     *
-     */
-    static final HashMap<String, WeakReference<Resources>> FILENAME_2_RESOURCES = new HashMap<>();
-
-    /**
-     *
-     */
-    static final HashMap<String, WeakReference<PackageInfo>> FILENAME_2_PACKAGE_INFO = new HashMap<>();
-
-    /**
-     *
-     */
-    static final HashMap<String, WeakReference<ComponentList>> FILENAME_2_COMPONENT_LIST = new HashMap<>();
-
     /**
      * 调试用
      */
@@ -151,6 +133,16 @@ class Plugin {
      */
    volatile boolean mInitialized;
 
+    /**
+     * 正在执行首次加载的线程（mInitialized已置位、但mLoader可能尚未就绪），加载结束后为null。由LOCK保护
+     */
+    private Thread mLoadingThread;
+
+    /**
+     * 其它线程等待首次加载结束的最长时间，超时后按原有逻辑返回（避免两个插件相互等待时卡死）
+     */
+    private static final long LOAD_WAIT_TIMEOUT = 5000;
+
 
     /**
      *
@@ -226,77 +218,37 @@ class Plugin {
     }
 
     static final ClassLoader queryCachedClassLoader(String filename) {
-        ClassLoader dex = null;
-        if (!TextUtils.isEmpty(filename)) {
-            synchronized (FILENAME_2_DEX) {
-                WeakReference<ClassLoader> ref = FILENAME_2_DEX.get(filename);
-                if (ref != null) {
-                    dex = ref.get();
-                    if (dex == null) {
-                        FILENAME_2_DEX.remove(filename);
-                    }
-                    if (LOG) {
-                        LogDebug.d(PLUGIN_TAG, "cached Dex " + filename + " -> " + dex);
-                    }
-                }
-            }
+        PluginArtifactCache.Artifacts a = PluginArtifactCache.get(filename);
+        ClassLoader dex = a != null ? a.mClassLoader : null;
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "cached Dex " + filename + " -> " + dex);
         }
         return dex;
     }
 
     static final Resources queryCachedResources(String filename) {
-        Resources resources = null;
-        if (!TextUtils.isEmpty(filename)) {
-            synchronized (FILENAME_2_RESOURCES) {
-                WeakReference<Resources> ref = FILENAME_2_RESOURCES.get(filename);
-                if (ref != null) {
-                    resources = ref.get();
-                    if (resources == null) {
-                        FILENAME_2_RESOURCES.remove(filename);
-                    }
-                    if (LOG) {
-                        LogDebug.d(PLUGIN_TAG, "cached Resources " + filename + " -> " + resources);
-                    }
-                }
-            }
+        PluginArtifactCache.Artifacts a = PluginArtifactCache.get(filename);
+        Resources resources = a != null ? a.mResources : null;
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "cached Resources " + filename + " -> " + resources);
         }
         return resources;
     }
 
     static final PackageInfo queryCachedPackageInfo(String filename) {
-        PackageInfo packageInfo = null;
-        if (!TextUtils.isEmpty(filename)) {
-            synchronized (FILENAME_2_PACKAGE_INFO) {
-                WeakReference<PackageInfo> ref = FILENAME_2_PACKAGE_INFO.get(filename);
-                if (ref != null) {
-                    packageInfo = ref.get();
-                    if (packageInfo == null) {
-                        FILENAME_2_PACKAGE_INFO.remove(filename);
-                    }
-                    if (LOG) {
-                        LogDebug.d(PLUGIN_TAG, "cached packageInfo " + filename + " -> " + packageInfo);
-                    }
-                }
-            }
+        PluginArtifactCache.Artifacts a = PluginArtifactCache.get(filename);
+        PackageInfo packageInfo = a != null ? a.mPackageInfo : null;
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "cached packageInfo " + filename + " -> " + packageInfo);
         }
         return packageInfo;
     }
 
     static final ComponentList queryCachedComponentList(String filename) {
-        ComponentList cl = null;
-        if (!TextUtils.isEmpty(filename)) {
-            synchronized (FILENAME_2_COMPONENT_LIST) {
-                WeakReference<ComponentList> ref = FILENAME_2_COMPONENT_LIST.get(filename);
-                if (ref != null) {
-                    cl = ref.get();
-                    if (cl == null) {
-                        FILENAME_2_COMPONENT_LIST.remove(filename);
-                    }
-                    if (LOG) {
-                        LogDebug.d(PLUGIN_TAG, "cached componentList " + filename + " -> " + cl);
-                    }
-                }
-            }
+        PluginArtifactCache.Artifacts a = PluginArtifactCache.get(filename);
+        ComponentList cl = a != null ? a.mComponents : null;
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "cached componentList " + filename + " -> " + cl);
         }
         return cl;
     }
@@ -305,55 +257,7 @@ class Plugin {
         if (TextUtils.isEmpty(filename)) {
             return;
         }
-
-        ClassLoader dex = null;
-        synchronized (FILENAME_2_DEX) {
-            WeakReference<ClassLoader> ref = FILENAME_2_DEX.get(filename);
-            if (ref != null) {
-                dex = ref.get();
-                FILENAME_2_DEX.remove(filename);
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "clear Cached Dex " + filename + " -> " + dex);
-                }
-            }
-        }
-
-        Resources resources = null;
-        synchronized (FILENAME_2_RESOURCES) {
-            WeakReference<Resources> ref = FILENAME_2_RESOURCES.get(filename);
-            if (ref != null) {
-                resources = ref.get();
-                FILENAME_2_RESOURCES.remove(filename);
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "clear Cached Resources " + filename + " -> " + resources);
-                }
-            }
-        }
-
-        PackageInfo packageInfo = null;
-        synchronized (FILENAME_2_PACKAGE_INFO) {
-            WeakReference<PackageInfo> ref = FILENAME_2_PACKAGE_INFO.get(filename);
-            if (ref != null) {
-                packageInfo = ref.get();
-                FILENAME_2_PACKAGE_INFO.remove(filename);
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "clear Cached packageInfo " + filename + " -> " + packageInfo);
-                }
-            }
-        }
-
-        ComponentList cl = null;
-        synchronized (FILENAME_2_COMPONENT_LIST) {
-            WeakReference<ComponentList> ref = FILENAME_2_COMPONENT_LIST.get(filename);
-            if (ref != null) {
-                cl = ref.get();
-                FILENAME_2_COMPONENT_LIST.remove(filename);
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "clear Cached componentList " + filename + " -> " + cl);
-                }
-            }
-        }
-
+        PluginArtifactCache.remove(filename);
     }
 
     static final void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
@@ -363,22 +267,10 @@ class Plugin {
             for (String name : PLUGIN_NAME_2_FILENAME.keySet()) {
                 writer.println(name + ": " + PLUGIN_NAME_2_FILENAME.get(name));
             }
-            writer.println("--- cached plugin Resources ---");
-            // 懒得锁了
-            for (String name : FILENAME_2_RESOURCES.keySet()) {
-                writer.println(name + ": " + FILENAME_2_RESOURCES.get(name));
-            }
-            writer.println("--- cached plugin PackageInfo ---");
-            // 懒得锁了
-            for (String name : FILENAME_2_PACKAGE_INFO.keySet()) {
-                writer.println(name + ": " + FILENAME_2_PACKAGE_INFO.get(name));
-            }
-            writer.println("--- cached plugin ComponentList ---");
-            // 懒得锁了
-            for (String name : FILENAME_2_COMPONENT_LIST.keySet()) {
-                writer.println(name + ": " + FILENAME_2_COMPONENT_LIST.get(name));
-            }
         }
+        PluginArtifactCache.dump(writer);
+        ProcessLocker.dumpStats(writer);
+        PluginLoadStats.dump(writer);
     }
 
     private Plugin(PluginInfo info) {
@@ -441,11 +333,36 @@ class Plugin {
      */
     final boolean load(int load, boolean useCache) {
         PluginInfo info = mInfo;
-        boolean rc = loadLocked(load, useCache);
+        PluginLoadTrace trace = null;
+        boolean rc;
+        Boolean loaded = checkLoaded(load);
+        if (loaded != null) {
+            // 已加载过，不记录耗时
+            rc = loaded;
+        } else {
+            // 只有首次真正加载时才记录耗时。trace只属于本次调用，沿调用链传给Loader等，不放在成员变量中
+            trace = new PluginLoadTrace(mInfo.getName(), load);
+            trace.markStarted();
+            try {
+                rc = loadLocked(load, useCache, trace);
+            } finally {
+                synchronized (LOCK) {
+                    mLoadingThread = null;
+                    LOCK.notifyAll();
+                }
+            }
+        }
         // 尝试在此处调用Application.onCreate方法
         // Added by Jiongxuan Zhang
         if (load == LOAD_APP && rc) {
+            long start = trace != null ? PluginLoadTrace.now() : 0;
             callApp();
+            if (trace != null) {
+                trace.record(PluginLoadTrace.STAGE_CALL_APP, start);
+            }
+        }
+        if (trace != null) {
+            finishTrace(trace, rc);
         }
         // 如果info改了，通知一下常驻
         // 只针对P-n的Type转化来处理，一定要通知，这样Framework_Version也会得到更新
@@ -456,6 +373,21 @@ class Plugin {
         return rc;
     }
 
+    private void finishTrace(PluginLoadTrace trace, boolean rc) {
+        trace.finish(rc);
+        PluginLoadStats.add(trace);
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "load trace: " + trace);
+        }
+        try {
+            RePlugin.getConfig().getEventCallbacks().onPluginLoaded(trace);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "p.lt: " + e.getMessage(), e);
+            }
+        }
+    }
+
     final void replaceInfo(PluginInfo info) {
         boolean rc = false;
         if (mInfo.canReplaceForPn(info)) {
@@ -473,65 +405,51 @@ class Plugin {
      * @return true: 缓存命中 false: 没有缓存
      */
     private boolean loadByCache(int load) {
-        if (load == LOAD_INFO) {
-            // 提取PackageInfo对象
-            String filename = queryCachedFilename(mInfo.getName());
-            PackageInfo pi = queryCachedPackageInfo(filename);
-            ComponentList cl = queryCachedComponentList(filename);
-            if (pi != null && cl != null) {
-                mLoader = new Loader(mContext, mInfo.getName(), null, this);
-                mLoader.mPackageInfo = pi;
-                mLoader.mComponents = cl;
-                if (LOG) {
-                    LogDebug.i(MAIN_TAG, "loadLocked(): Cached, pkgInfo loaded");
-                }
-                return true;
-            }
+        if (load == LOAD_APP) {
+            return false;
         }
-        if (load == LOAD_RESOURCES) {
-            // 提取PackageInfo和Resources对象
-            String filename = queryCachedFilename(mInfo.getName());
-            Resources r = queryCachedResources(filename);
-            PackageInfo pi = queryCachedPackageInfo(filename);
-            ComponentList cl = queryCachedComponentList(filename);
-            if (r != null && pi != null && cl != null) {
-                mLoader = new Loader(mContext, mInfo.getName(), null, this);
-                mLoader.mPkgResources = r;
-                mLoader.mPackageInfo = pi;
-                mLoader.mComponents = cl;
-                if (LOG) {
-                    LogDebug.i(MAIN_TAG, "loadLocked(): Cached, resource loaded");
-                }
-                return true;
-            }
+        // 四种产物作为一个整体缓存，只需查询一次
+        String filename = queryCachedFilename(mInfo.getName());
+        PluginArtifactCache.Artifacts a = PluginArtifactCache.get(filename);
+        if (a == null) {
+            return false;
         }
-        if (load == LOAD_DEX) {
-            // 提取PackageInfo、Resources和DexClassLoader对象
-            String filename = queryCachedFilename(mInfo.getName());
-            Resources r = queryCachedResources(filename);
-            PackageInfo pi = queryCachedPackageInfo(filename);
-            ComponentList cl = queryCachedComponentList(filename);
-            ClassLoader clzl = queryCachedClassLoader(filename);
-            if (r != null && pi != null && cl != null && clzl != null) {
-                mLoader = new Loader(mContext, mInfo.getName(), null, this);
-                mLoader.mPkgResources = r;
-                mLoader.mPackageInfo = pi;
-                mLoader.mComponents = cl;
-                mLoader.mClassLoader = clzl;
-                if (LOG) {
-                    LogDebug.i(MAIN_TAG, "loadLocked(): Cached, dex loaded");
-                }
-                return true;
-            }
+        PackageInfo pi = a.mPackageInfo;
+        ComponentList cl = a.mComponents;
+        Resources r = a.mResources;
+        ClassLoader clzl = a.mClassLoader;
+        if (pi == null || cl == null) {
+            return false;
+        }
+        if (load >= LOAD_RESOURCES && r == null) {
+            return false;
+        }
+        if (load >= LOAD_DEX && clzl == null) {
+            return false;
+        }
+        mLoader = new Loader(mContext, mInfo.getName(), null, this);
+        mLoader.mArtifacts = a;
+        mLoader.mPackageInfo = pi;
+        mLoader.mComponents = cl;
+        if (load >= LOAD_RESOURCES) {
+            mLoader.mPkgResources = r;
+        }
+        if (load >= LOAD_DEX) {
+            mLoader.mClassLoader = clzl;
         }
-        return false;
+        if (LOG) {
+            LogDebug.i(MAIN_TAG, "loadLocked(): Cached, load=" + load);
+        }
+        return true;
     }
 
     /**
-     * @param load
-     * @return
+     * 检查插件是否已加载过（或已被禁用）。若尚未加载，则标记为已开始加载，由调用方接着调用loadLocked
+     *
+     * @param load 加载类型
+     * @return 已加载过或被禁用时返回结果；需要加载时返回null
      */
-    private boolean loadLocked(int load, boolean useCache) {
+    private Boolean checkLoaded(int load) {
         // 若插件被“禁用”，则即便上次加载过（且进程一直活着），这次也不能再次使用了
         // Added by Jiongxuan Zhang
         int status = PluginStatusController.getStatus(mInfo.getName(), mInfo.getVersion());
@@ -542,6 +460,10 @@ class Plugin {
             return false;
         }
         synchronized (LOCK) {
+            if (mInitialized && mLoadingThread != null && mLoadingThread != Thread.currentThread()) {
+                // 其它线程（如PluginPreloader）正在首次加载，等它完成，否则这里会看到“已初始化但没有Loader”
+                waitLoadingLocked();
+            }
             if (mInitialized) {
                 if (mLoader == null) {
                     if (LOG) {
@@ -577,8 +499,35 @@ class Plugin {
                 return il;
             }
             mInitialized = true;
+            mLoadingThread = Thread.currentThread();
         }
+        return null;
+    }
 
+    private void waitLoadingLocked() {
+        long deadline = SystemClock.uptimeMillis() + LOAD_WAIT_TIMEOUT;
+        while (mLoadingThread != null) {
+            long left = deadline - SystemClock.uptimeMillis();
+            if (left <= 0) {
+                if (LOGR) {
+                    LogRelease.w(PLUGIN_TAG, "p.wl: wait loading timeout. pn=" + mInfo.getName());
+                }
+                return;
+            }
+            try {
+                LOCK.wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param load
+     * @return
+     */
+    private boolean loadLocked(int load, boolean useCache, PluginLoadTrace trace) {
         // 若开启了“打印详情”则打印调用栈，便于观察
         if (RePlugin.getConfig().isPrintDetailLog()) {
             String reason = "";
@@ -609,6 +558,7 @@ class Plugin {
             boolean result = loadByCache(load);
             // 如果缓存命中，则直接返回
             if (result) {
+                trace.markCacheHit();
                 return true;
             }
         }
@@ -624,7 +574,10 @@ class Plugin {
         if (LOG) {
             LogDebug.i(PLUGIN_TAG, "loadLocked(): Ready to lock! logtag = " + logTag + "; pn = " + mInfo.getName());
         }
-        if (!lock.tryLockTimeWait(5000, 10)) {
+        long lockStart = PluginLoadTrace.now();
+        boolean locked = lock.lockTimeWait(5000);
+        trace.record(PluginLoadTrace.STAGE_LOCK_WAIT, lockStart);
+        if (!locked) {
             // 此处仅仅打印错误
             if (LOGR) {
                 LogRelease.w(PLUGIN_TAG, logTag + ": failed to lock: can't wait plugin ready");
@@ -632,7 +585,7 @@ class Plugin {
         }
         //
         long t1 = System.currentTimeMillis();
-        boolean rc = doLoad(logTag, context, parent, manager, load);
+        boolean rc = doLoad(logTag, context, parent, manager, load, trace);
         if (LOG) {
             LogDebug.i(PLUGIN_TAG, "load " + mInfo.getPath() + " " + hashCode() + " c=" + load + " rc=" + rc + " delta=" + (System.currentTimeMillis() - t1));
         }
@@ -670,7 +623,10 @@ class Plugin {
         //
         logTag = "try2";
         lock = new ProcessLocker(context, lockFileName);
-        if (!lock.tryLockTimeWait(5000, 10)) {
+        lockStart = PluginLoadTrace.now();
+        locked = lock.lockTimeWait(5000);
+        trace.record(PluginLoadTrace.STAGE_LOCK_WAIT, lockStart);
+        if (!locked) {
             // 此处仅仅打印错误
             if (LOGR) {
                 LogRelease.w(PLUGIN_TAG, logTag + ": failed to lock: can't wait plugin ready");
@@ -700,7 +656,7 @@ class Plugin {
 
         t1 = System.currentTimeMillis();
         // 尝试再次加载该插件
-        rc = tryLoadAgain(logTag, context, parent, manager, load);
+        rc = tryLoadAgain(logTag, context, parent, manager, load, trace);
         if (LOG) {
             LogDebug.i(PLUGIN_TAG, "load2 " + mInfo.getPath() + " " + hashCode() + " c=" + load + " rc=" + rc + " delta=" + (System.currentTimeMillis() - t1));
         }
@@ -752,12 +708,12 @@ class Plugin {
     /**
      * 抽出方法
      */
-    private boolean tryLoadAgain(String tag, Context context, ClassLoader parent, PluginCommImpl manager, int load) {
+    private boolean tryLoadAgain(String tag, Context context, ClassLoader parent, PluginCommImpl manager, int load, PluginLoadTrace trace) {
         mLoader = null;
-        return doLoad(tag, context, parent, manager, load);
+        return doLoad(tag, context, parent, manager, load, trace);
     }
 
-    private final boolean doLoad(String tag, Context context, ClassLoader parent, PluginCommImpl manager, int load) {
+    private final boolean doLoad(String tag, Context context, ClassLoader parent, PluginCommImpl manager, int load, PluginLoadTrace trace) {
         if (mLoader == null) {
             // 试图释放文件
             PluginInfo info = null;
@@ -766,7 +722,9 @@ class Plugin {
                 File dir = new File(mInfo.getApkDir());
                 File dexdir = mInfo.getDexParentDir();
                 String dstName = mInfo.getApkFile().getName();
+                long start = PluginLoadTrace.now();
                 boolean rc = AssetsUtils.quickExtractTo(context, mInfo, dir.getAbsolutePath(), dstName, dexdir.getAbsolutePath());
+                trace.record(PluginLoadTrace.STAGE_EXTRACT, start);
                 if (!rc) {
                     // extract built-in plugin failed: plugin=
                     if (LOGR) {
@@ -800,7 +758,7 @@ class Plugin {
 
             //
             mLoader = new Loader(context, mInfo.getName(), mInfo.getPath(), this);
-            if (!mLoader.loadDex(parent, load)) {
+            if (!mLoader.loadDex(parent, load, trace)) {
                 //内置插件加载失败后，需要把释放的文件路径和类型写入到p.l中去。
                 try {
                     PluginManagerProxy.updateTP(mInfo.getName(), mInfo.getType(), mInfo.getPath());
@@ -829,7 +787,10 @@ class Plugin {
             // 若需要加载Dex，则还同时需要初始化插件里的Entry对象
             if (load == LOAD_APP) {
                 // NOTE Entry对象是可以在任何线程中被调用到
-                if (!loadEntryLocked(manager)) {
+                long start = PluginLoadTrace.now();
+                boolean rc = loadEntryLocked(manager);
+                trace.record(PluginLoadTrace.STAGE_ENTRY, start);
+                if (!rc) {
                     return false;
                 }
                 // NOTE 在此处调用则必须Post到UI，但此时有可能Activity已被加载
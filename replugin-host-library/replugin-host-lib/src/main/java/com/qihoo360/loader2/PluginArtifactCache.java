@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.content.pm.PackageInfo;
+import android.content.res.Resources;
+import android.text.TextUtils;
+
+import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.RePluginConfig;
+import com.qihoo360.replugin.component.ComponentList;
+import com.qihoo360.replugin.helper.LogDebug;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+
+/**
+ * 插件加载产物的统一缓存（APK路径 -> PackageInfo、ComponentList、Resources、ClassLoader） <p>
+ * 四种产物作为一个整体保存，要么一起存活，要么一起被回收，避免“只丢了其中一个”而导致整个插件重新加载 <p>
+ * 保留策略见 RePluginConfig.PLUGIN_CACHE_XXX：
+ * 1、WEAK：只要还有Loader在用，整组产物就不会被回收（默认，与原有行为一致） <p>
+ * 2、SOFT：内存紧张时才会被回收 <p>
+ * 3、STRONG：一直保留，直到插件被卸载 <p>
+ * 4、LRU：在“字节预算”内强引用，超出预算后将最久未使用的条目降级为弱引用
+ *
+ * @author RePlugin Team
+ */
+final class PluginArtifactCache {
+
+    /**
+     * 一组插件产物。Loader会强引用它，因此只要Loader存活，整组产物就存活
+     */
+    static final class Artifacts {
+
+        final String mPath;
+
+        /**
+         * 估算的占用大小，以APK文件大小近似
+         */
+        final long mBytes;
+
+        volatile PackageInfo mPackageInfo;
+
+        volatile ComponentList mComponents;
+
+        volatile Resources mResources;
+
+        volatile ClassLoader mClassLoader;
+
+        Artifacts(String path) {
+            mPath = path;
+            mBytes = new File(path).length();
+        }
+
+        @Override
+        public String toString() {
+            return "Artifacts{pi=" + mPackageInfo + ", cl=" + mComponents + ", r=" + mResources + ", dex=" + mClassLoader + ", b=" + mBytes + "}";
+        }
+    }
+
+    /**
+     * 缓存中的一个槽位。mStrong只在STRONG和LRU（预算内）策略下被设置
+     */
+    private static final class Slot {
+
+        final Reference<Artifacts> mRef;
+
+        volatile Artifacts mStrong;
+
+        volatile long mLastAccess;
+
+        Slot(Artifacts a, int policy) {
+            mRef = policy == RePluginConfig.PLUGIN_CACHE_SOFT ? new SoftReference<>(a) : new WeakReference<>(a);
+            if (policy == RePluginConfig.PLUGIN_CACHE_STRONG || policy == RePluginConfig.PLUGIN_CACHE_LRU) {
+                mStrong = a;
+            }
+        }
+
+        Artifacts get() {
+            Artifacts a = mStrong;
+            return a != null ? a : mRef.get();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Slot> SLOTS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong ACCESS_CLOCK = new AtomicLong();
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+
+    /**
+     * 创建和LRU淘汰时使用的锁。查询不加锁
+     */
+    private static final byte[] LOCK = new byte[0];
+
+    /**
+     * LRU策略下，当前被强引用的条目的字节数总和
+     */
+    private static long sStrongBytes;
+
+    private PluginArtifactCache() {
+        // Nothing
+    }
+
+    /**
+     * 查询缓存中的产物，并计入命中/未命中
+     *
+     * @param path APK路径
+     * @return 产物，若没有则返回null
+     */
+    static Artifacts get(String path) {
+        if (TextUtils.isEmpty(path)) {
+            return null;
+        }
+        Artifacts a = lookup(path);
+        if (a == null) {
+            MISSES.incrementAndGet();
+        } else {
+            HITS.incrementAndGet();
+        }
+        return a;
+    }
+
+    /**
+     * 查询缓存中的产物，不计入命中/未命中
+     */
+    private static Artifacts lookup(String path) {
+        Slot slot = SLOTS.get(path);
+        Artifacts a = slot != null ? slot.get() : null;
+        if (a == null) {
+            // 已被GC回收。只移除这个槽位：其它线程可能已在LOCK内放入了新的
+            if (slot != null && SLOTS.remove(path, slot)) {
+                EVICTIONS.incrementAndGet();
+            }
+            return null;
+        }
+        slot.mLastAccess = ACCESS_CLOCK.incrementAndGet();
+        if (slot.mStrong == null && RePlugin.getConfig().getPluginCacheRetention() == RePluginConfig.PLUGIN_CACHE_LRU) {
+            // 之前被降级、但仍存活的条目，再次使用时重新纳入预算
+            synchronized (LOCK) {
+                if (slot.mStrong == null && SLOTS.get(path) == slot) {
+                    slot.mStrong = a;
+                    sStrongBytes += a.mBytes;
+                    trimLocked(RePlugin.getConfig().getPluginCacheBudget());
+                }
+            }
+        }
+        return a;
+    }
+
+    /**
+     * 获取或创建一组产物，供Loader在加载过程中逐步填充。不计入命中/未命中（查询时已由get计入）
+     *
+     * @param path APK路径
+     * @return 产物，不会为null
+     */
+    static Artifacts obtain(String path) {
+        Artifacts a = lookup(path);
+        if (a != null) {
+            return a;
+        }
+        synchronized (LOCK) {
+            Slot slot = SLOTS.get(path);
+            if (slot != null) {
+                a = slot.get();
+                if (a != null) {
+                    return a;
+                }
+                SLOTS.remove(path, slot);
+            }
+            int policy = RePlugin.getConfig().getPluginCacheRetention();
+            a = new Artifacts(path);
+            slot = new Slot(a, policy);
+            slot.mLastAccess = ACCESS_CLOCK.incrementAndGet();
+            SLOTS.put(path, slot);
+            if (policy == RePluginConfig.PLUGIN_CACHE_LRU) {
+                sStrongBytes += a.mBytes;
+                trimLocked(RePlugin.getConfig().getPluginCacheBudget());
+            }
+            if (LOG) {
+                LogDebug.d(PLUGIN_TAG, "artifact cache: new entry " + path + " policy=" + policy);
+            }
+            return a;
+        }
+    }
+
+    /**
+     * 移除某APK的所有产物（通常在插件卸载时调用）
+     *
+     * @param path APK路径
+     */
+    static void remove(String path) {
+        if (TextUtils.isEmpty(path)) {
+            return;
+        }
+        synchronized (LOCK) {
+            Slot slot = SLOTS.remove(path);
+            if (slot != null) {
+                Artifacts a = slot.mStrong;
+                if (a != null && RePlugin.getConfig().getPluginCacheRetention() == RePluginConfig.PLUGIN_CACHE_LRU) {
+                    sStrongBytes -= a.mBytes;
+                }
+                EVICTIONS.incrementAndGet();
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "artifact cache: remove " + path + " -> " + slot.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * 超出预算时，把最久未使用的条目降级为弱引用。插件数量有限，线性查找即可
+     */
+    private static void trimLocked(long budget) {
+        while (sStrongBytes > budget) {
+            Slot oldest = null;
+            for (Slot slot : SLOTS.values()) {
+                if (slot.mStrong != null && (oldest == null || slot.mLastAccess < oldest.mLastAccess)) {
+                    oldest = slot;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            sStrongBytes -= oldest.mStrong.mBytes;
+            oldest.mStrong = null;
+            EVICTIONS.incrementAndGet();
+        }
+    }
+
+    static long getHitCount() {
+        return HITS.get();
+    }
+
+    static long getMissCount() {
+        return MISSES.get();
+    }
+
+    static long getEvictionCount() {
+        return EVICTIONS.get();
+    }
+
+    static void dump(PrintWriter writer) {
+        writer.println("--- plugin artifact cache ---");
+        writer.println("policy=" + RePlugin.getConfig().getPluginCacheRetention()
+                + " budget=" + RePlugin.getConfig().getPluginCacheBudget()
+                + " strongBytes=" + sStrongBytes);
+        writer.println("size=" + SLOTS.size() + " hit=" + HITS.get() + " miss=" + MISSES.get() + " eviction=" + EVICTIONS.get());
+        for (Map.Entry<String, Slot> e : SLOTS.entrySet()) {
+            Slot slot = e.getValue();
+            writer.println(e.getKey() + ": strong=" + (slot.mStrong != null) + " " + slot.get());
+        }
+    }
+}
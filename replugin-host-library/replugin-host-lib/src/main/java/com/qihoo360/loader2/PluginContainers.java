@@ -23,7 +23,6 @@ import android.content.pm.ActivityInfo;
 import android.text.TextUtils;
 
 import com.qihoo360.i.IPluginManager;
-import com.qihoo360.mobilesafe.api.Pref;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.component.process.PluginProcessHost;
 import com.qihoo360.replugin.helper.HostConfigHelper;
@@ -36,8 +35,12 @@ import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -146,12 +149,19 @@ a 流程完成
 
         final ArrayList<WeakReference<Activity>> refs;
 
-        ActivityState(String container) {
+        /**
+         * 所属的坑位组，状态变化时需同步其索引。拷贝出去的对象为null
+         */
+        final StateBucket bucket;
+
+        ActivityState(String container, StateBucket bucket) {
             this.container = container;
             this.refs = new ArrayList<WeakReference<Activity>>();
+            this.bucket = bucket;
         }
 
         public ActivityState(ActivityState state) {
+            this.bucket = null;
             this.container = state.container;
             this.state = state.state;
             this.plugin = state.plugin;
@@ -199,11 +209,13 @@ a 流程完成
                 return;
             }
 
+            unlink();
             this.state = STATE_OCCUPIED;
             this.plugin = plugin;
             this.activity = activity;
             cleanRefs();
             this.timestamp = System.currentTimeMillis();
+            link();
 
             //
             save2Pref(this.plugin, this.activity, this.container);
@@ -216,19 +228,35 @@ a 流程完成
                 }
                 return;
             }
+            unlink();
             this.state = STATE_RESTORED;
             this.plugin = plugin;
             this.activity = activity;
             cleanRefs();
             this.timestamp = timestamp;
+            link();
         }
 
         private final void recycle() {
+            unlink();
             this.state = STATE_NONE;
             this.plugin = null;
             this.activity = null;
             cleanRefs();
             this.timestamp = System.currentTimeMillis();
+            link();
+        }
+
+        private final void unlink() {
+            if (bucket != null) {
+                bucket.unlink(this);
+            }
+        }
+
+        private final void link() {
+            if (bucket != null) {
+                bucket.link(this);
+            }
         }
 
 
@@ -263,8 +291,10 @@ a 流程完成
                 return;
             }
 
+            unlink();
             addRef(activity);
             this.timestamp = System.currentTimeMillis();
+            link();
         }
 
         private final boolean hasRef() {
@@ -301,7 +331,9 @@ a 流程完成
             for (int i = refs.size() - 1; i >= 0; i--) {
                 WeakReference<Activity> ref = refs.get(i);
                 if (ref.get() == activity) {
+                    unlink();
                     refs.remove(i);
+                    link();
                     break;
                 }
             }
@@ -338,6 +370,152 @@ a 流程完成
         }
     }
 
+    /**
+     * 一组可互相替换的坑（同进程、同TaskAffinity组、同LaunchMode、同主题、同方向） <p>
+     * 按分配顺序维护：(plugin, activity)到坑的索引、空白坑、无实例的已登记坑、有实例的坑。
+     * 后两者按最近使用时间由旧到新排列，因此分配、恢复、回收都不需要遍历整组 <p>
+     * 每个坑只会处于其中一个集合，所有修改均在 PluginContainers.mLock 内进行
+     */
+    static final class StateBucket {
+
+        /**
+         * plugin -> (activity -> 坑)。同一目标可能同时登记在多个坑中（如forward时强制登记），按登记的先后排列
+         */
+        private final HashMap<String, HashMap<String, ArrayList<ActivityState>>> mTargets = new HashMap<>();
+
+        /**
+         * 空白坑（STATE_NONE）
+         */
+        private final LinkedHashSet<ActivityState> mFree = new LinkedHashSet<>();
+
+        /**
+         * 已登记或已恢复，但没有Activity实例的坑
+         */
+        private final LinkedHashSet<ActivityState> mIdle = new LinkedHashSet<>();
+
+        /**
+         * 有Activity实例的坑
+         */
+        private final LinkedHashSet<ActivityState> mBusy = new LinkedHashSet<>();
+
+        final void add(ActivityState state) {
+            link(state);
+        }
+
+        final ActivityState findTarget(String plugin, String activity) {
+            HashMap<String, ArrayList<ActivityState>> activities = mTargets.get(plugin);
+            if (activities == null) {
+                return null;
+            }
+            ArrayList<ActivityState> states = activities.get(activity);
+            return states != null ? states.get(0) : null;
+        }
+
+        final ActivityState firstFree() {
+            return first(mFree);
+        }
+
+        /**
+         * 最久未使用的、没有Activity实例的坑。
+         * 若没有，则将实例已被回收（未收到onDestroy）的坑从 mBusy 中挪回来再找一次
+         */
+        final ActivityState firstIdle() {
+            if (mIdle.isEmpty()) {
+                ArrayList<ActivityState> released = null;
+                for (ActivityState state : mBusy) {
+                    if (!state.hasRef()) {
+                        if (released == null) {
+                            released = new ArrayList<>();
+                        }
+                        released.add(state);
+                    }
+                }
+                if (released != null) {
+                    for (ActivityState state : released) {
+                        mBusy.remove(state);
+                        mIdle.add(state);
+                    }
+                }
+            }
+            return first(mIdle);
+        }
+
+        final ActivityState firstBusy() {
+            return first(mBusy);
+        }
+
+        /**
+         * 从持久化记录恢复后调用：恢复时的顺序是任意的，需按记录的时间重排一次
+         */
+        final void sortIdle() {
+            if (mIdle.size() <= 1) {
+                return;
+            }
+            ArrayList<ActivityState> list = new ArrayList<>(mIdle);
+            Collections.sort(list, new Comparator<ActivityState>() {
+                @Override
+                public int compare(ActivityState lhs, ActivityState rhs) {
+                    return lhs.timestamp < rhs.timestamp ? -1 : (lhs.timestamp == rhs.timestamp ? 0 : 1);
+                }
+            });
+            mIdle.clear();
+            mIdle.addAll(list);
+        }
+
+        private final void unlink(ActivityState state) {
+            if (!mFree.remove(state) && !mIdle.remove(state)) {
+                mBusy.remove(state);
+            }
+            if (state.plugin == null || state.activity == null) {
+                return;
+            }
+            HashMap<String, ArrayList<ActivityState>> activities = mTargets.get(state.plugin);
+            if (activities == null) {
+                return;
+            }
+            ArrayList<ActivityState> states = activities.get(state.activity);
+            if (states != null && states.remove(state) && states.isEmpty()) {
+                activities.remove(state.activity);
+                if (activities.isEmpty()) {
+                    mTargets.remove(state.plugin);
+                }
+            }
+        }
+
+        private final void link(ActivityState state) {
+            // 放到队尾，即“最近使用”
+            if (state.state == STATE_NONE) {
+                mFree.add(state);
+            } else if (state.hasRef()) {
+                mBusy.add(state);
+            } else {
+                mIdle.add(state);
+            }
+            if (state.plugin == null || state.activity == null) {
+                return;
+            }
+            HashMap<String, ArrayList<ActivityState>> activities = mTargets.get(state.plugin);
+            if (activities == null) {
+                activities = new HashMap<>();
+                mTargets.put(state.plugin, activities);
+            }
+            ArrayList<ActivityState> states = activities.get(state.activity);
+            if (states == null) {
+                states = new ArrayList<>(1);
+                activities.put(state.activity, states);
+            }
+            // 同一目标已有坑时，findTarget仍返回先登记的那个；它被回收后，其余的坑仍可被找到
+            if (!states.contains(state)) {
+                states.add(state);
+            }
+        }
+
+        private static ActivityState first(LinkedHashSet<ActivityState> set) {
+            Iterator<ActivityState> it = set.iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
     final void init(int process, HashSet<String> containers) {
         if (process != IPluginManager.PROCESS_UI
                 && !PluginProcessHost.isCustomPluginProcess(process)
@@ -450,15 +628,16 @@ a 流程完成
 
     private final void loadFromPref() {
         try {
-            Map<String, ?> a = Pref.ipcGetAll();
+            Map<String, String> a = ContainerTable.getAll();
+            HashSet<StateBucket> restored = new HashSet<>();
             if (LOG) {
                 LogDebug.d(PLUGIN_TAG, "PACM: restore table: size=" + a.size());
             }
-            for (Entry<String, ?> i : a.entrySet()) {
+            for (Entry<String, String> i : a.entrySet()) {
                 String k = i.getKey();
-                Object v = i.getValue();
+                String v = i.getValue();
                 ActivityState state = mStates.get(k);
-                String item[] = v.toString().split(":");
+                String item[] = v.split(":");
                 if (state != null && item != null && item.length == 3) {
                     String plugin = item[0];
                     String activity = item[1];
@@ -467,7 +646,10 @@ a 流程完成
                         LogDebug.d(PLUGIN_TAG, "PACM: restore table: " + " container=" + k + " plugin=" + plugin + " activity=" + activity);
                     }
                     if (!TextUtils.isEmpty(plugin) && !TextUtils.isEmpty(activity)) {
-                        state.restore(plugin, activity, timestamp);
+                        synchronized (mLock) {
+                            state.restore(plugin, activity, timestamp);
+                        }
+                        restored.add(state.bucket);
                     }
                 } else {
                     if (LOG) {
@@ -475,6 +657,11 @@ a 流程完成
                     }
                 }
             }
+            synchronized (mLock) {
+                for (StateBucket bucket : restored) {
+                    bucket.sortIdle();
+                }
+            }
         } catch (Throwable e) {
             if (LOGR) {
                 LogRelease.e(PLUGIN_TAG, "PACM: init e=" + e.getMessage(), e);
@@ -487,11 +674,11 @@ a 流程完成
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "PACM: save 2 pref: k=" + container + " v=" + v);
         }
-        Pref.ipcSet(container, v);
+        ContainerTable.put(container, v);
     }
 
     static final String[] resolvePluginActivity(String container) {
-        String v = Pref.ipcGet(container, "");
+        String v = ContainerTable.get(container);
         //String v = plugin + ":" + activity + ":" + System.currentTimeMillis();
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "PACM: load special pref: k=" + container + " v=" + v);
@@ -524,44 +711,46 @@ a 流程完成
             }
             return;
         }
-        // 检查
-        if (state.state == STATE_NONE) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "f.a fi: cc: ok, t.c empty, t.c=" + container);
-            }
-            // 重新登记
-            state.occupy(plugin, target);
-        } else if (!state.isTarget(plugin, target)) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "f.a fi: cc: fly, force, t.c=" + container);
-            }
-            // 如果已经有实例存在了，只能打打日志
-            if (state.hasRef()) {
+        // 检查，登记表的修改需与分配互斥
+        synchronized (mLock) {
+            if (state.state == STATE_NONE) {
                 if (LOGR) {
-                    LogRelease.e(PLUGIN_TAG, "f.a fi: cc: exists instances");
+                    LogRelease.e(PLUGIN_TAG, "f.a fi: cc: ok, t.c empty, t.c=" + container);
+                }
+                // 重新登记
+                state.occupy(plugin, target);
+            } else if (!state.isTarget(plugin, target)) {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "f.a fi: cc: fly, force, t.c=" + container);
+                }
+                // 如果已经有实例存在了，只能打打日志
+                if (state.hasRef()) {
+                    if (LOGR) {
+                        LogRelease.e(PLUGIN_TAG, "f.a fi: cc: exists instances");
+                    }
+                }
+                // 重新登记
+                state.occupy(plugin, target);
+            } else {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "f.a fi: cc: same, t.c=" + container);
                 }
             }
-            // 重新登记
-            state.occupy(plugin, target);
-        } else {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "f.a fi: cc: same, t.c=" + container);
-            }
-        }
-        if (so != state) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "f.a fi: t t.c=" + container);
-            }
-            if (LOG) {
-                LogDebug.i(PLUGIN_TAG, "forward fly: container=" + container + " plugin=" + plugin + " activity=" + target);
-            }
-            so.recycle();
-        } else {
-            if (LOGR) {
-                LogRelease.i(PLUGIN_TAG, "f.a fi: same t.c=" + container);
-            }
-            if (LOG) {
-                LogDebug.i(PLUGIN_TAG, "forward registered: container=" + container + " plugin=" + plugin + " activity=" + target);
+            if (so != state) {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "f.a fi: t t.c=" + container);
+                }
+                if (LOG) {
+                    LogDebug.i(PLUGIN_TAG, "forward fly: container=" + container + " plugin=" + plugin + " activity=" + target);
+                }
+                so.recycle();
+            } else {
+                if (LOGR) {
+                    LogRelease.i(PLUGIN_TAG, "f.a fi: same t.c=" + container);
+                }
+                if (LOG) {
+                    LogDebug.i(PLUGIN_TAG, "forward registered: container=" + container + " plugin=" + plugin + " activity=" + target);
+                }
             }
         }
         // 启动目标activity
@@ -615,57 +804,46 @@ a 流程完成
     }
 
     /**
+     * 在坑位组中分配坑位，只依赖坑位组本身（基准测试 ContainerAllocBenchmark 也直接调用）
+     *
      * @param ai
-     * @param map
+     * @param bucket
      * @param plugin
      * @param activity
      * @param intent
      * @return
      */
-    private final ActivityState allocLocked(ActivityInfo ai, HashMap<String, ActivityState> map,
-                                            String plugin, String activity, Intent intent) {
-        // 坑和状态的 map 为空
-        if (map == null) {
+    static final ActivityState allocLocked(ActivityInfo ai, StateBucket bucket,
+                                           String plugin, String activity, Intent intent) {
+        // 坑位组为空
+        if (bucket == null) {
             if (LOG) {
-                LogDebug.d(PLUGIN_TAG, "PACM: alloc fail, map is null");
+                LogDebug.d(PLUGIN_TAG, "PACM: alloc fail, bucket is null");
             }
             return null;
         }
 
         // 首先找上一个活的，或者已经注册的，避免多个坑到同一个activity的映射
-        for (ActivityState state : map.values()) {
-            if (state.isTarget(plugin, activity)) {
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "PACM: alloc registered container=" + state.container);
-                }
-                return state;
+        ActivityState found = bucket.findTarget(plugin, activity);
+        if (found != null) {
+            if (LOG) {
+                LogDebug.d(PLUGIN_TAG, "PACM: alloc registered container=" + found.container);
             }
+            return found;
         }
 
         // 新分配：找空白的，第一个
-        for (ActivityState state : map.values()) {
-            if (state.state == STATE_NONE) {
-                if (LOG) {
-                    LogDebug.d(PLUGIN_TAG, "PACM: alloc empty container=" + state.container);
-                }
-                state.occupy(plugin, activity);
-                return state;
+        found = bucket.firstFree();
+        if (found != null) {
+            if (LOG) {
+                LogDebug.d(PLUGIN_TAG, "PACM: alloc empty container=" + found.container);
             }
+            found.occupy(plugin, activity);
+            return found;
         }
 
-        ActivityState found;
-
         // 重用：则找最老的那个
-        found = null;
-        for (ActivityState state : map.values()) {
-            if (!state.hasRef()) {
-                if (found == null) {
-                    found = state;
-                } else if (state.timestamp < found.timestamp) {
-                    found = state;
-                }
-            }
-        }
+        found = bucket.firstIdle();
         if (found != null) {
             if (LOG) {
                 LogDebug.d(PLUGIN_TAG, "PACM: alloc recycled container=" + found.container);
@@ -675,14 +853,7 @@ a 流程完成
         }
 
         // 强挤：最后一招，挤掉：最老的那个
-        found = null;
-        for (ActivityState state : map.values()) {
-            if (found == null) {
-                found = state;
-            } else if (state.timestamp < found.timestamp) {
-                found = state;
-            }
-        }
+        found = bucket.firstBusy();
         if (found != null) {
             if (LOG) {
                 LogDebug.w(PLUGIN_TAG, "PACM: force alloc container=" + found.container);
@@ -519,13 +519,7 @@ public class PluginLibraryInternalProxy {
         mPluginMgr.mClient.mACM.handleCreate(state.plugin, activity, state.container);
 
         // 插件进程信息登记，用于插件进程管理（例如可能用于插件进程分配/回收）
-        try {
-            PluginProcessMain.getPluginHost().regActivity(PluginManager.sPluginProcessIndex, state.plugin, state.container, activity.getClass().getName());
-        } catch (Throwable e) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "a.c2: " + e.getMessage(), e);
-            }
-        }
+        RegistrationBatcher.regActivity(PluginManager.sPluginProcessIndex, state.plugin, state.container, activity.getClass().getName());
 
         //
         if (savedInstanceState != null) {
@@ -603,13 +597,7 @@ public class PluginLibraryInternalProxy {
 //        int pid = Process.myPid();
         String plugin = state.plugin;
         String container = state.container;
-        try {
-            PluginProcessMain.getPluginHost().unregActivity(PluginManager.sPluginProcessIndex, plugin, container, activity.getClass().getName());
-        } catch (Throwable e) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "ur.a: " + e.getMessage(), e);
-            }
-        }
+        RegistrationBatcher.unregActivity(PluginManager.sPluginProcessIndex, plugin, container, activity.getClass().getName());
 
         // 触发退出检测
         RePlugin.getConfig().getEventCallbacks().onActivityDestroyed(activity);
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.os.Process;
+
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 插件的并行分阶段预加载 <p>
+ * 将 Plugin.load 的 LOAD_INFO -> LOAD_RESOURCES -> LOAD_DEX -> LOAD_APP 拆成独立的阶段任务，放到有界线程池中流水线执行。
+ * 这样插件B的PackageInfo解析可以和插件A的ClassLoader创建同时进行 <p>
+ * 注意： <p>
+ * 1、同一插件的各阶段严格串行，只有上一阶段成功才会进入下一阶段 <p>
+ * 2、越靠后的阶段优先级越高，这样排在前面的插件能尽早可用 <p>
+ * 3、Task持有已加载出的产物（PackageInfo、Resources、ClassLoader等），调用方持有Task期间这些缓存不会被回收
+ *
+ * @author RePlugin Team
+ */
+public final class PluginPreloader {
+
+    private static final String TAG = "PluginPreloader";
+
+    /**
+     * 只加载PackageInfo和ComponentList
+     */
+    public static final int STAGE_INFO = Plugin.LOAD_INFO;
+
+    /**
+     * 加载到资源
+     */
+    public static final int STAGE_RESOURCES = Plugin.LOAD_RESOURCES;
+
+    /**
+     * 加载到Dex（创建ClassLoader）
+     */
+    public static final int STAGE_DEX = Plugin.LOAD_DEX;
+
+    /**
+     * 加载并运行Entry和Application
+     */
+    public static final int STAGE_APP = Plugin.LOAD_APP;
+
+    private static final int STAGE_COUNT = STAGE_APP + 1;
+
+    private static final int MAX_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private static final byte[] LOCK = new byte[0];
+
+    /**
+     * 预加载进度回调。注意：回调运行在预加载的工作线程中
+     */
+    public interface Callback {
+
+        /**
+         * 插件的某一阶段加载完成
+         *
+         * @param plugin  插件名
+         * @param stage   见STAGE_XXX
+         * @param success 是否成功。若失败则不会再继续后面的阶段
+         */
+        void onStageLoaded(String plugin, int stage, boolean success);
+
+        /**
+         * 插件的预加载已结束（成功、失败或被取消）
+         *
+         * @param plugin  插件名
+         * @param success 是否已加载到目标阶段
+         */
+        void onPreloadFinished(String plugin, boolean success);
+    }
+
+    /**
+     * 单个插件的预加载任务，可按“阶段”等待
+     */
+    public static final class Task {
+
+        private final String mPlugin;
+
+        private final int mTargetStage;
+
+        private final Callback mCallback;
+
+        private final CountDownLatch[] mLatches = new CountDownLatch[STAGE_COUNT];
+
+        private final boolean[] mResults = new boolean[STAGE_COUNT];
+
+        private volatile boolean mCancelled;
+
+        /**
+         * 持有最近一次加载成功的Plugin对象，防止其产物在阶段之间被GC回收
+         */
+        private volatile Plugin mLoaded;
+
+        Task(String plugin, int targetStage, Callback callback) {
+            mPlugin = plugin;
+            mTargetStage = targetStage;
+            mCallback = callback;
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                mLatches[i] = new CountDownLatch(1);
+            }
+        }
+
+        /**
+         * @return 插件名
+         */
+        public String getPluginName() {
+            return mPlugin;
+        }
+
+        /**
+         * @return 要加载到的阶段
+         */
+        public int getTargetStage() {
+            return mTargetStage;
+        }
+
+        /**
+         * @param stage 见STAGE_XXX
+         * @return 此阶段是否已结束（无论成功与否）
+         */
+        public boolean isStageDone(int stage) {
+            return stage >= 0 && stage < STAGE_COUNT && mLatches[stage].getCount() == 0;
+        }
+
+        /**
+         * 等待某一阶段结束
+         *
+         * @param stage     见STAGE_XXX，不能超过目标阶段
+         * @param timeoutMs 超时时间，小于等于0表示一直等待
+         * @return 此阶段是否加载成功。超时、失败、被取消均返回false
+         */
+        public boolean awaitStage(int stage, long timeoutMs) {
+            if (stage < 0 || stage > mTargetStage) {
+                return false;
+            }
+            try {
+                if (timeoutMs <= 0) {
+                    mLatches[stage].await();
+                } else if (!mLatches[stage].await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            synchronized (mResults) {
+                return mResults[stage];
+            }
+        }
+
+        /**
+         * 等待加载到目标阶段
+         *
+         * @param timeoutMs 超时时间，小于等于0表示一直等待
+         * @return 是否加载成功
+         */
+        public boolean await(long timeoutMs) {
+            return awaitStage(mTargetStage, timeoutMs);
+        }
+
+        /**
+         * 取消后续阶段。正在执行的阶段仍会执行完毕
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void finishStage(int stage, boolean success, Plugin p) {
+            if (success) {
+                mLoaded = p;
+            }
+            synchronized (mResults) {
+                mResults[stage] = success;
+            }
+            mLatches[stage].countDown();
+            if (mCallback != null) {
+                try {
+                    mCallback.onStageLoaded(mPlugin, stage, success);
+                } catch (Throwable e) {
+                    if (LOGR) {
+                        LogRelease.e(PLUGIN_TAG, "ppl.cb: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        private void finish(int lastStage) {
+            // 未执行到的阶段一律视为失败，唤醒所有等待者
+            for (int i = lastStage + 1; i < STAGE_COUNT; i++) {
+                mLatches[i].countDown();
+            }
+            if (mCallback != null) {
+                try {
+                    mCallback.onPreloadFinished(mPlugin, awaitStage(mTargetStage, 1));
+                } catch (Throwable e) {
+                    if (LOGR) {
+                        LogRelease.e(PLUGIN_TAG, "ppl.cb: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Task{p=" + mPlugin + ", t=" + mTargetStage + ", c=" + mCancelled + "}";
+        }
+    }
+
+    /**
+     * 某插件的某一阶段。阶段越靠后越优先，同阶段按提交顺序执行
+     */
+    private static final class StageRunnable implements Runnable, Comparable<StageRunnable> {
+
+        final PmBase mPm;
+
+        final Task mTask;
+
+        final int mStage;
+
+        final long mSeq;
+
+        StageRunnable(PmBase pm, Task task, int stage, long seq) {
+            mPm = pm;
+            mTask = task;
+            mStage = stage;
+            mSeq = seq;
+        }
+
+        @Override
+        public int compareTo(StageRunnable o) {
+            if (mStage != o.mStage) {
+                return mStage > o.mStage ? -1 : 1;
+            }
+            return mSeq < o.mSeq ? -1 : (mSeq == o.mSeq ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            if (mTask.mCancelled) {
+                mTask.finish(mStage - 1);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            Plugin p = null;
+            try {
+                p = loadStage(mPm, mTask.mPlugin, mStage);
+            } catch (Throwable e) {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "ppl.ls: " + e.getMessage(), e);
+                }
+            }
+            boolean rc = p != null;
+            if (LOG) {
+                LogDebug.d(TAG, "stage loaded: pn=" + mTask.mPlugin + " stage=" + mStage + " rc=" + rc + " delta=" + (System.currentTimeMillis() - start));
+            }
+            mTask.finishStage(mStage, rc, p);
+
+            if (rc && mStage < mTask.mTargetStage && !mTask.mCancelled) {
+                // 保持该插件原有的顺序号，使先提交的插件在同阶段中优先
+                getExecutor().execute(new StageRunnable(mPm, mTask, mStage + 1, mSeq));
+            } else {
+                mTask.finish(mStage);
+            }
+        }
+    }
+
+    private PluginPreloader() {
+        // Nothing
+    }
+
+    /**
+     * 批量预加载插件
+     *
+     * @param plugins 插件名列表，靠前的插件会被优先加载
+     * @param stage   要加载到的阶段，见STAGE_XXX
+     * @param cb      回调，可为null
+     * @return 每个插件对应的Task，顺序与plugins一致
+     */
+    public static List<Task> preload(List<String> plugins, int stage, Callback cb) {
+        if (stage < STAGE_INFO || stage > STAGE_APP) {
+            throw new IllegalArgumentException("invalid stage: " + stage);
+        }
+        List<Task> tasks = new ArrayList<>();
+        if (plugins == null || plugins.isEmpty()) {
+            return tasks;
+        }
+        PmBase pm = PMF.sPluginMgr;
+        ThreadPoolExecutor executor = getExecutor();
+        for (String name : plugins) {
+            Task task = new Task(name, stage, cb);
+            tasks.add(task);
+            if (pm == null || pm.getPlugin(name) == null) {
+                // 框架尚未初始化，或插件不存在，直接结束
+                if (LOG) {
+                    LogDebug.e(TAG, "preload: Plugin not found! pn=" + name + " pm=" + pm);
+                }
+                task.finishStage(STAGE_INFO, false, null);
+                task.finish(STAGE_INFO);
+                continue;
+            }
+            executor.execute(new StageRunnable(pm, task, STAGE_INFO, SEQUENCE.incrementAndGet()));
+        }
+        return tasks;
+    }
+
+    /**
+     * 执行某一阶段的加载。LOAD_APP以外的阶段均使用克隆出的Plugin对象，不影响已注册的插件
+     */
+    private static Plugin loadStage(PmBase pm, String plugin, int stage) {
+        switch (stage) {
+            case STAGE_INFO:
+                return pm.loadPackageInfoPlugin(plugin, pm.mLocal);
+            case STAGE_RESOURCES:
+                return pm.loadResourcePlugin(plugin, pm.mLocal);
+            case STAGE_DEX:
+                return pm.loadDexPlugin(plugin, pm.mLocal);
+            default:
+                return pm.loadAppPlugin(plugin);
+        }
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        synchronized (LOCK) {
+            if (sExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new PriorityBlockingQueue<Runnable>(), new PreloadThreadFactory());
+                executor.allowCoreThreadTimeOut(true);
+                sExecutor = executor;
+            }
+            return sExecutor;
+        }
+    }
+
+    private static final class PreloadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "rp-preload-" + mCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
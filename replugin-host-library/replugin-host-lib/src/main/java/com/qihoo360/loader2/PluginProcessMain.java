@@ -24,6 +24,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.qihoo360.i.IPluginManager;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.component.process.PluginProcessHost;
 import com.qihoo360.replugin.helper.LogDebug;
@@ -38,9 +39,17 @@ import org.json.JSONObject;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
@@ -83,6 +92,20 @@ public class PluginProcessMain {
      */
     private static long sPersisistCookie;
 
+    /**
+     * 同步发送Intent时，等待所有进程处理完成的最长时间（与LocalBroadcastHelper.sendBroadcastSyncUi一致）
+     */
+    private static final long SEND_INTENT_SYNC_TIMEOUT = 10 * 1000;
+
+    private static final int SEND_INTENT_THREADS = 4;
+
+    private static final byte[] SEND_INTENT_LOCK = new byte[0];
+
+    /**
+     * 并行同步发送Intent时使用的线程池，空闲时线程自动退出
+     */
+    private static ThreadPoolExecutor sSendIntentExecutor;
+
     /**
      * 进程记录，用于进程及进程列表管理 buyuntao
      */
@@ -93,16 +116,23 @@ public class PluginProcessMain {
         int pid;
         int index;
         IBinder binder;
-        IPluginClient client;
+        IPluginClient client; //原始的Client，可经AIDL返回给其它进程
+        IPluginClient traced; //常驻进程内调用时使用（开启Binder统计时经过包装，不能再传给其它进程）
         PluginManagerServer pluginManager; //单个进程的插件管理类
 
-        public ProcessClientRecord(String process, String plugin, int pid, int index, IBinder binder, IPluginClient client, PluginManagerServer pms) {
+        /**
+         * 该进程通过LocalBroadcastManager监听的Action。为null表示未知（进程未上报），此时所有Intent都会发给它
+         */
+        HashSet<String> actions;
+
+        public ProcessClientRecord(String process, String plugin, int pid, int index, IBinder binder, IPluginClient client, IPluginClient traced, PluginManagerServer pms) {
             this.name = process;
             this.plugin = plugin;
             this.pid = pid;
             this.index = index;
             this.binder = binder;
             this.client = client;
+            this.traced = traced;
             this.pluginManager = pms;
         }
 
@@ -120,7 +150,15 @@ public class PluginProcessMain {
         }
 
         public IPluginClient getClient() {
-            return client;
+            return traced;
+        }
+
+        /**
+         * 是否需要把此Intent发给该进程。须在PROCESS_CLIENT_LOCK内调用
+         */
+        boolean accepts(Intent intent) {
+            String action = intent.getAction();
+            return actions == null || action == null || actions.contains(action);
         }
     }
     static final String dump() {
@@ -199,6 +237,8 @@ public class PluginProcessMain {
             writer.println();
             StubProcessManager.dump(writer);
             writer.println();
+            RegistrationBatcher.dump(writer);
+            writer.println();
 //            writer.println("--- USED_PLUGINS.size = " + USED_PLUGINS.size() + " ---");
 //            for (ProcessPluginInfo r : USED_PLUGINS.values()) {
 //                writer.println(r);
@@ -272,6 +312,10 @@ public class PluginProcessMain {
                     }
                     sPluginHostRemote = null;
 
+                    // 进程表已失效，等待重新连接后的全量表
+                    ProcessTableCache.clear();
+                    RegistrationBatcher.reset();
+
                     // 断开和插件化管理器服务端的连接，因为已经失效
                     PluginManagerProxy.disconnect();
 
@@ -290,7 +334,7 @@ public class PluginProcessMain {
         }
 
         //
-        sPluginHostRemote = IPluginHost.Stub.asInterface(binder);
+        sPluginHostRemote = IPluginHost.Stub.asInterface(BinderTracer.wrap(binder, IPluginHost.Stub.class));
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "host binder.i = " + PluginProcessMain.sPluginHostRemote);
         }
@@ -436,7 +480,7 @@ public class PluginProcessMain {
      * @param target
      * @param intent
      */
-    static final void sendIntent2Process(final String target, Intent intent, boolean sync) {
+    static final void sendIntent2Process(final String target, final Intent intent, boolean sync) {
         final Map<String, ProcessClientRecord> map = readProcessClientLock(new Action<Map<String, ProcessClientRecord>>() {
             @Override
             public Map<String, ProcessClientRecord> call() {
@@ -449,6 +493,10 @@ public class PluginProcessMain {
                     } else {
                         continue;
                     }
+                    if (!r.accepts(intent)) {
+                        // 该进程没有监听此Action
+                        continue;
+                    }
                     map.put(r.name, r);
                 }
                 return map;
@@ -462,7 +510,7 @@ public class PluginProcessMain {
      * @param target
      * @param intent
      */
-    static final void sendIntent2Plugin(final String target, Intent intent, boolean sync) {
+    static final void sendIntent2Plugin(final String target, final Intent intent, boolean sync) {
         if (TextUtils.isEmpty(target)) {
             return;
         }
@@ -476,6 +524,10 @@ public class PluginProcessMain {
                     } else {
                         continue;
                     }
+                    if (!r.accepts(intent)) {
+                        // 该进程没有监听此Action
+                        continue;
+                    }
                     map.put(r.name, r);
                 }
                 return map;
@@ -484,29 +536,129 @@ public class PluginProcessMain {
         sendIntent2Client(map, intent, sync);
     }
     /**
-     * 发送intent给进程Client buyuntao
+     * 发送intent给进程Client buyuntao <p>
+     * 同步发送且目标有多个时，各进程并行处理，总共最多等待SEND_INTENT_SYNC_TIMEOUT
      * @param map
      * @param intent
      */
-    private static void sendIntent2Client(Map<String, ProcessClientRecord> map, Intent intent, boolean sync){
+    private static void sendIntent2Client(Map<String, ProcessClientRecord> map, final Intent intent, boolean sync){
+        final List<ProcessClientRecord> targets = new ArrayList<>(map.size());
         for (ProcessClientRecord r : map.values()) {
-            if (!isBinderAlive(r)) {
-                continue;
+            if (isBinderAlive(r)) {
+                targets.add(r);
             }
-            try {
-                if (sync) {
-                    r.client.sendIntentSync(intent);
-                } else {
-                    r.client.sendIntent(intent);
+        }
+        if (!sync || targets.size() <= 1) {
+            for (ProcessClientRecord r : targets) {
+                sendIntent2Client(r, intent, sync);
+            }
+            return;
+        }
+
+        // 第一个在当前线程发送，其余交给线程池
+        final CountDownLatch latch = new CountDownLatch(targets.size() - 1);
+        ThreadPoolExecutor executor = getSendIntentExecutor();
+        for (int i = 1; i < targets.size(); i++) {
+            final ProcessClientRecord r = targets.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendIntent2Client(r, intent, true);
+                    } finally {
+                        latch.countDown();
+                    }
                 }
-            } catch (Throwable e) {
+            });
+        }
+        long start = System.currentTimeMillis();
+        sendIntent2Client(targets.get(0), intent, true);
+        long left = SEND_INTENT_SYNC_TIMEOUT - (System.currentTimeMillis() - start);
+        try {
+            if (left <= 0 || !latch.await(left, TimeUnit.MILLISECONDS)) {
                 if (LOGR) {
-                    LogRelease.e(PLUGIN_TAG, "p.p sic e: " + e.getMessage(), e);
+                    LogRelease.w(PLUGIN_TAG, "p.p sic: timeout, left=" + latch.getCount() + " intent=" + intent);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sendIntent2Client(ProcessClientRecord r, Intent intent, boolean sync) {
+        try {
+            if (sync) {
+                r.traced.sendIntentSync(intent);
+            } else {
+                r.traced.sendIntent(intent);
+            }
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "p.p sic e: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor getSendIntentExecutor() {
+        synchronized (SEND_INTENT_LOCK) {
+            if (sSendIntentExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(SEND_INTENT_THREADS, SEND_INTENT_THREADS,
+                        30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "RePlugin-SendIntent-" + mCount.incrementAndGet());
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                sSendIntentExecutor = executor;
+            }
+            return sSendIntentExecutor;
         }
     }
 
+    /**
+     * 清空某进程的LocalBroadcast订阅表，此后只把它监听的Action发给它
+     *
+     * @param pid 进程PID
+     */
+    static final void resetActions(final int pid) {
+        updateActions(pid, null, 0);
+    }
+
+    static final void subscribeAction(final int pid, final String action) {
+        updateActions(pid, action, 1);
+    }
+
+    static final void unsubscribeAction(final int pid, final String action) {
+        updateActions(pid, action, -1);
+    }
+
+    private static void updateActions(final int pid, final String action, final int op) {
+        writeProcessClientLock(new Action<Void>() {
+            @Override
+            public Void call() {
+                for (ProcessClientRecord r : ALL.values()) {
+                    if (r.pid != pid) {
+                        continue;
+                    }
+                    if (op == 0) {
+                        r.actions = new HashSet<>();
+                    } else if (r.actions != null) {
+                        if (op > 0) {
+                            r.actions.add(action);
+                        } else {
+                            r.actions.remove(action);
+                        }
+                    }
+                    break;
+                }
+                return null;
+            }
+        });
+    }
+
     /**
      * 判断进程是否存活 buyuntao
      * @param name
@@ -540,7 +692,7 @@ public class PluginProcessMain {
                     }
                     int rc = 0;
                     try {
-                        rc = r.client.sumActivities();
+                        rc = r.traced.sumActivities();
                         if (rc == -1) {
                             return -1;
                         }
@@ -594,8 +746,9 @@ public class PluginProcessMain {
      * @return 进程的默认插件名称（非框架内的进程返回null）
      */
     static final String attachProcess(int pid, String process, int index, IBinder binder, IPluginClient client, String def, PluginManagerServer pms) {
-        final String plugin = getDefaultPluginName(pid, index, binder, client, def);
-        final ProcessClientRecord pr = new ProcessClientRecord(process, plugin, pid, index, binder, client, pms);
+        final IPluginClient traced = traceClient(binder, client);
+        final String plugin = getDefaultPluginName(pid, index, binder, traced, def);
+        final ProcessClientRecord pr = new ProcessClientRecord(process, plugin, pid, index, binder, client, traced, pms);
         try {
             pr.binder.linkToDeath(pr, 0);
         } catch (Throwable e) {
@@ -607,12 +760,69 @@ public class PluginProcessMain {
             @Override
             public Void call() {
                 ALL.put(pr.name, pr);
+
+                // 把进程表推送给各进程：新进程拿全量，其它进程只拿变化的这一项
+                // 在锁内发送（oneway，不会阻塞），保证各进程收到的顺序与实际变化顺序一致
+                final HashMap<String, Integer> all = new HashMap<>();
+                all.put(IPC.getCurrentProcessName(), IPC.getCurrentProcessId());
+                for (ProcessClientRecord r : ALL.values()) {
+                    all.put(r.name, r.pid);
+                }
+                final HashMap<String, Integer> delta = new HashMap<>();
+                delta.put(pr.name, pr.pid);
+                for (ProcessClientRecord r : ALL.values()) {
+                    pushProcessTableLocked(r, r == pr ? all : delta, r == pr);
+                }
                 return null;
             }
         });
         return plugin;
     }
 
+    /**
+     * 开启了Binder统计时，返回经BinderTracer包装的Client，仅用于常驻进程内的调用；否则返回client本身
+     */
+    private static IPluginClient traceClient(IBinder binder, IPluginClient client) {
+        if (!BinderTracer.isEnabled()) {
+            return client;
+        }
+        return IPluginClient.Stub.asInterface(BinderTracer.wrap(binder, IPluginClient.Stub.class));
+    }
+
+    /**
+     * 修改某进程的默认插件名（预热的空坑位进程被分配给插件时），使probePluginClient能按插件名找到它
+     *
+     * @param pid    进程PID
+     * @param plugin 插件名
+     */
+    static final void setProcessPlugin(final int pid, final String plugin) {
+        writeProcessClientLock(new Action<Void>() {
+            @Override
+            public Void call() {
+                for (ProcessClientRecord r : ALL.values()) {
+                    if (r.pid == pid) {
+                        r.plugin = plugin;
+                        break;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private static void pushProcessTableLocked(ProcessClientRecord r, Map<String, Integer> table, boolean reset) {
+        if (r.traced == null) {
+            return;
+        }
+        try {
+            r.traced.updateProcessTable(table, reset);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "p.p.t: " + e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @param pid
      * @param index
@@ -761,6 +971,13 @@ public class PluginProcessMain {
                 ProcessClientRecord r = ALL.get(p.name);
                 if (r == p){ //防止进程重启误判
                     ALL.remove(r.name);
+
+                    // 通知其它进程，此进程已退出
+                    final HashMap<String, Integer> delta = new HashMap<>();
+                    delta.put(r.name, -1);
+                    for (ProcessClientRecord other : ALL.values()) {
+                        pushProcessTableLocked(other, delta, false);
+                    }
                 }
                 return null;
             }
@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.os.IBinder;
+import android.os.Parcel;
 import android.os.RemoteException;
 import android.text.TextUtils;
 
@@ -29,6 +30,7 @@ import com.qihoo360.loader.utils.LocalBroadcastManager;
 import com.qihoo360.i.IPluginManager;
 import com.qihoo360.loader2.alc.ActivityController;
 import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.base.LocalBroadcastHelper;
 import com.qihoo360.replugin.component.dummy.ForwardActivity;
@@ -41,6 +43,8 @@ import com.qihoo360.replugin.helper.LogRelease;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
@@ -51,6 +55,19 @@ import static com.qihoo360.replugin.helper.LogRelease.LOGR;
  */
 class PluginProcessPer extends IPluginClient.Stub {
 
+    private final BinderTracer.SuperTransact mSuperTransact = new BinderTracer.SuperTransact() {
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            return PluginProcessPer.super.onTransact(code, data, reply, flags);
+        }
+    };
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact);
+    }
+
     private final Context mContext;
 
     private final PmBase mPluginMgr;
@@ -332,6 +349,19 @@ class PluginProcessPer extends IPluginClient.Stub {
         PluginReceiverHelper.onPluginReceiverReceived(plugin, receiver, mReceivers, intent);
     }
 
+    @Override
+    public void onReceiveBatch(List<String> plugins, List<String> receivers, Intent intent) {
+        for (int i = 0; i < plugins.size(); i++) {
+            PluginReceiverHelper.onPluginReceiverReceived(plugins.get(i), receivers.get(i), mReceivers, intent);
+        }
+    }
+
+    @Override
+    public void onReceiveBatchSync(List<String> plugins, List<String> receivers, Intent intent) {
+        onReceiveBatch(plugins, receivers, intent);
+        PluginReceiverHelper.waitReceiversOnUI();
+    }
+
     @Override
     public String dumpServices() {
         try {
@@ -352,6 +382,16 @@ class PluginProcessPer extends IPluginClient.Stub {
         return null;
     }
 
+    @Override
+    public void updateProcessTable(Map table, boolean reset) throws RemoteException {
+        ProcessTableCache.update(table, reset);
+    }
+
+    @Override
+    public boolean attachDefaultPlugin(String plugin) throws RemoteException {
+        return mPluginMgr.attachDefaultPlugin(plugin);
+    }
+
     @Override
     public String dumpActivities() {
         return mACM.dump();
@@ -27,6 +27,8 @@ import android.text.TextUtils;
 
 import com.qihoo360.loader2.sp.IPref;
 import com.qihoo360.loader2.sp.PrefImpl;
+import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.component.process.ProcessPitProviderBase;
 import com.qihoo360.replugin.component.process.ProcessPitProviderPersist;
@@ -217,21 +219,36 @@ public class PluginProviderStub {
             if (IPC.isPersistentProcess()) {
                 // 需要枷锁否？
                 initPref();
-            } else {
-                IBinder b = PluginProviderStub.proxyFetchHostPref(context);
-                b.linkToDeath(new DeathRecipient() {
+            } else if (RePlugin.getConfig().isMappedPrefEnabled()) {
+                // 使用内存映射文件时在本地读写，常驻进程只作为打开失败时的后备，届时才获取其Binder
+                // sPref是静态的，不要持有Activity等短生命周期的Context
+                final Context c = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                sPref = new PrefImpl(new PrefImpl.RemoteGetter() {
 
                     @Override
-                    public void binderDied() {
-                        sPref = null;
+                    public IPref get() throws RemoteException {
+                        return fetchRemotePref(c);
                     }
-                }, 0);
-                sPref = IPref.Stub.asInterface(b);
+                });
+            } else {
+                sPref = fetchRemotePref(context);
             }
         }
         return sPref;
     }
 
+    private static IPref fetchRemotePref(Context context) throws RemoteException {
+        IBinder b = PluginProviderStub.proxyFetchHostPref(context);
+        b.linkToDeath(new DeathRecipient() {
+
+            @Override
+            public void binderDied() {
+                sPref = null;
+            }
+        }, 0);
+        return IPref.Stub.asInterface(BinderTracer.wrap(b, IPref.Stub.class));
+    }
+
     static final void initPref() {
         if (sPrefImpl == null) {
             sPrefImpl = new PrefImpl();
@@ -24,9 +24,13 @@ import com.qihoo360.replugin.model.PluginInfo;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
@@ -41,6 +45,33 @@ class PluginTable {
      */
     static final HashMap<String, PluginInfo> PLUGINS = new HashMap<String, PluginInfo>();
 
+    /**
+     * Key（包名或别名） -> 最后一次变化时的版本号。已被移除的Key也会保留，以便告知客户端
+     */
+    private static final HashMap<String, Long> MODIFIED = new HashMap<>();
+
+    /**
+     * MODIFIED的反向索引：版本号 -> Key，按版本号排序，计算增量时只需遍历比客户端版本新的部分
+     */
+    private static final TreeMap<Long, String> CHANGES = new TreeMap<>();
+
+    /**
+     * 累计移除次数超过此值时，清理已移除的Key，此前的客户端只能全量同步
+     */
+    private static final int MAX_REMOVED = 128;
+
+    /**
+     * 插件表的版本号，每次变化加一。只在常驻进程中用于增量同步
+     */
+    private static long sVersion;
+
+    /**
+     * 版本号早于此值的客户端，无法再计算出增量
+     */
+    private static long sMinVersion;
+
+    private static int sRemovedCount;
+
     static final void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
         if (LogDebug.DUMP_ENABLED) {
             writer.println("--- PluginTable.size = " + PLUGINS.size() + " ---");
@@ -129,18 +160,81 @@ class PluginTable {
         return lst;
     }
 
+    /**
+     * 计算自某版本以来插件表的变化（常驻进程使用）
+     *
+     * @param cookie  客户端上次同步时的常驻进程Cookie
+     * @param version 客户端上次同步到的版本号
+     * @return 增量，或在无法计算增量时返回全量列表
+     */
+    static final PluginTableDelta buildDelta(long cookie, long version) {
+        final long current = PluginProcessMain.getPersistentCookie();
+        synchronized (PLUGINS) {
+            if (cookie != current || version < sMinVersion || version > sVersion) {
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "build delta: full. c=" + cookie + " v=" + version + " cur=" + current + " min=" + sMinVersion + " max=" + sVersion);
+                }
+                return new PluginTableDelta(current, sVersion, true, buildPlugins(), null);
+            }
+
+            // 包名和别名可能指向同一个PluginInfo，按对象去重
+            final Map<PluginInfo, Boolean> updated = new IdentityHashMap<>();
+            final List<String> removed = new ArrayList<>();
+            for (String key : CHANGES.tailMap(version, false).values()) {
+                final PluginInfo info = PLUGINS.get(key);
+                if (info != null) {
+                    updated.put(info, Boolean.TRUE);
+                } else {
+                    removed.add(key);
+                }
+            }
+            if (LOG) {
+                LogDebug.d(PLUGIN_TAG, "build delta: v=" + version + " -> " + sVersion + " u=" + updated.size() + " r=" + removed);
+            }
+            return new PluginTableDelta(current, sVersion, false, new ArrayList<>(updated.keySet()), removed);
+        }
+    }
+
     private static void putPluginInfo(PluginInfo info) {
         // 同时加入PackageName和Alias（如有）
         PLUGINS.put(info.getPackageName(), info);
+        markModified(info.getPackageName());
         if (!TextUtils.isEmpty(info.getAlias())) {
             // 即便Alias和包名相同也可以再Put一次，反正只是覆盖了相同Value而已
             PLUGINS.put(info.getAlias(), info);
+            markModified(info.getAlias());
         }
     }
 
     private static void removePluginInfo(PluginInfo info) {
         PLUGINS.remove(info.getPackageName());
+        markModified(info.getPackageName());
         PLUGINS.remove(info.getAlias());
+        markModified(info.getAlias());
+
+        if (++sRemovedCount > MAX_REMOVED) {
+            // 清理已移除的Key
+            Iterator<Map.Entry<String, Long>> it = MODIFIED.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                if (!PLUGINS.containsKey(e.getKey())) {
+                    CHANGES.remove(e.getValue());
+                    it.remove();
+                }
+            }
+            sRemovedCount = 0;
+            sMinVersion = sVersion;
+        }
+    }
+
+    private static void markModified(String key) {
+        if (key != null) {
+            Long old = MODIFIED.put(key, ++sVersion);
+            if (old != null) {
+                CHANGES.remove(old);
+            }
+            CHANGES.put(sVersion, key);
+        }
     }
 
 //    /**
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.qihoo360.replugin.model.PluginInfo;
+
+import java.util.List;
+
+/**
+ * 常驻进程插件表的变化（自某一版本号以来），用于其它进程增量同步插件列表 <p>
+ * 若常驻进程已重启（Cookie不同），或客户端的版本号过旧，则返回全量列表（full为true）
+ *
+ * @hide 内部框架使用
+ * @author RePlugin Team
+ */
+public final class PluginTableDelta implements Parcelable {
+
+    /**
+     * 常驻进程的Cookie，见PluginProcessMain.getPersistentCookie
+     */
+    public long cookie;
+
+    /**
+     * 此次同步后的版本号
+     */
+    public long version;
+
+    /**
+     * 是否为全量列表
+     */
+    public boolean full;
+
+    /**
+     * 新增或有变化的插件。若为全量，则为所有插件
+     */
+    public List<PluginInfo> updated;
+
+    /**
+     * 已从插件表中移除的Key（包名或别名）。全量时为空
+     */
+    public List<String> removed;
+
+    public static final Parcelable.Creator<PluginTableDelta> CREATOR = new Parcelable.Creator<PluginTableDelta>() {
+
+        @Override
+        public PluginTableDelta createFromParcel(Parcel source) {
+            return new PluginTableDelta(source);
+        }
+
+        @Override
+        public PluginTableDelta[] newArray(int size) {
+            return new PluginTableDelta[size];
+        }
+    };
+
+    PluginTableDelta(long cookie, long version, boolean full, List<PluginInfo> updated, List<String> removed) {
+        this.cookie = cookie;
+        this.version = version;
+        this.full = full;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    PluginTableDelta(Parcel source) {
+        cookie = source.readLong();
+        version = source.readLong();
+        full = source.readInt() != 0;
+        updated = source.createTypedArrayList(PluginInfo.CREATOR);
+        removed = source.createStringArrayList();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(cookie);
+        dest.writeLong(version);
+        dest.writeInt(full ? 1 : 0);
+        dest.writeTypedList(updated);
+        dest.writeStringList(removed);
+    }
+
+    @Override
+    public String toString() {
+        return "PluginTableDelta{c=" + cookie + ", v=" + version + ", full=" + full
+                + ", u=" + (updated != null ? updated.size() : 0) + ", r=" + removed + "}";
+    }
+}
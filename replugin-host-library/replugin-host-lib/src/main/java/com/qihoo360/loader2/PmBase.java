@@ -37,14 +37,17 @@ import com.qihoo360.i.IPluginManager;
 import com.qihoo360.mobilesafe.api.Tasks;
 import com.qihoo360.replugin.IHostBinderFetcher;
 import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.RePluginClassLoader;
 import com.qihoo360.replugin.RePluginConstants;
 import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.component.activity.DynamicClassProxyActivity;
 import com.qihoo360.replugin.component.dummy.DummyActivity;
 import com.qihoo360.replugin.component.dummy.DummyProvider;
 import com.qihoo360.replugin.component.dummy.DummyService;
 import com.qihoo360.replugin.component.process.PluginProcessHost;
+import com.qihoo360.replugin.component.provider.PluginProviderClient;
 import com.qihoo360.replugin.component.service.server.PluginPitService;
 import com.qihoo360.replugin.helper.HostConfigHelper;
 import com.qihoo360.replugin.helper.LogDebug;
@@ -141,6 +144,13 @@ class PmBase {
      */
     long mLocalCookie;
 
+    /**
+     * 上次从常驻进程同步插件表时的Cookie和版本号，用于增量同步（见PluginTable.buildDelta）
+     */
+    private long mTableCookie;
+
+    private long mTableVersion;
+
     /**
      * TODO init
      */
@@ -199,6 +209,9 @@ class PmBase {
                             pluginUninstalled(info);
                             break;
                     }
+
+                    // 顺带补上本进程可能漏掉的其它变化（如广播发出时本进程还未注册接收器）
+                    syncPluginsFromHostSvc();
                 }
             }
         }
@@ -312,6 +325,7 @@ class PmBase {
         mHostSvc = new PmHostSvc(mContext, this);
         PluginProcessMain.installHost(mHostSvc);
         StubProcessManager.schedulePluginProcessLoop(StubProcessManager.CHECK_STAGE1_DELAY);
+        StubProcessManager.initWarmPool(mContext);
 
         // 兼容即将废弃的p-n方案 by Jiongxuan Zhang
         mAll = new Builder.PxAll();
@@ -412,7 +426,13 @@ class PmBase {
     private void refreshPluginsFromHostSvc() {
         List<PluginInfo> plugins = null;
         try {
-            plugins = PluginProcessMain.getPluginHost().listPlugins();
+            // 全量获取，同时记下常驻进程的Cookie和版本号，此后由syncPluginsFromHostSvc增量同步
+            PluginTableDelta delta = PluginProcessMain.getPluginHost().listPluginsSince(0, 0);
+            if (delta != null) {
+                plugins = delta.updated;
+                mTableCookie = delta.cookie;
+                mTableVersion = delta.version;
+            }
         } catch (Throwable e) {
             if (LOGR) {
                 LogRelease.e(PLUGIN_TAG, "lst.p: " + e.getMessage(), e);
@@ -442,6 +462,71 @@ class PmBase {
         }
     }
 
+    /**
+     * 从常驻进程获取上次同步以来有变化的插件（见PluginTable.buildDelta），并应用到本进程 <p>
+     * 收到插件安装、卸载的广播时调用（主线程）。常驻进程重启后的全量同步由initForClient负责，这里不处理
+     */
+    private void syncPluginsFromHostSvc() {
+        if (IPC.isPersistentProcess() || mTableCookie == 0) {
+            return;
+        }
+        PluginTableDelta delta;
+        try {
+            delta = PluginProcessMain.getPluginHost().listPluginsSince(mTableCookie, mTableVersion);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "s.p: " + e.getMessage(), e);
+            }
+            return;
+        }
+        if (delta == null || delta.cookie != mTableCookie) {
+            return;
+        }
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "sync plugins: " + delta);
+        }
+        if (delta.updated != null) {
+            for (PluginInfo info : delta.updated) {
+                Plugin p = mPlugins.get(info.getName());
+                if (p != null && p.mInfo.getVersion() == info.getVersion() && TextUtils.equals(p.mInfo.getPath(), info.getPath())) {
+                    // 已通过广播得知
+                    continue;
+                }
+                PluginTable.updatePlugin(info);
+                insertNewPlugin(info);
+            }
+        }
+        if (delta.full) {
+            // 全量：本进程有、但列表中没有的插件，均已被卸载
+            HashSet<String> keys = new HashSet<>();
+            if (delta.updated != null) {
+                for (PluginInfo info : delta.updated) {
+                    keys.add(info.getPackageName());
+                    if (!TextUtils.isEmpty(info.getAlias())) {
+                        keys.add(info.getAlias());
+                    }
+                }
+            }
+            ArrayList<PluginInfo> removed = new ArrayList<>();
+            for (Plugin p : new ArrayList<>(mPlugins.values())) {
+                if (!keys.contains(p.mInfo.getPackageName()) && !removed.contains(p.mInfo)) {
+                    removed.add(p.mInfo);
+                }
+            }
+            for (PluginInfo info : removed) {
+                pluginUninstalled(info);
+            }
+        } else if (delta.removed != null) {
+            for (String key : delta.removed) {
+                Plugin p = mPlugins.get(key);
+                if (p != null) {
+                    pluginUninstalled(p.mInfo);
+                }
+            }
+        }
+        mTableVersion = delta.version;
+    }
+
     /**
      * 判断列表中是否有需要更新的插件
      *
@@ -451,7 +536,7 @@ class PmBase {
     private final boolean isNeedToUpdate(List<PluginInfo> plugins) {
         if (plugins != null) {
             for (PluginInfo info : plugins) {
-                if (info.getJSON().optJSONObject("upinfo") != null) {
+                if (info.getPendingUpdate() != null) {
                     return true;
                 }
             }
@@ -530,6 +615,9 @@ class PmBase {
                 LogRelease.e(PLUGIN_TAG, "c.n.a: " + e.getMessage(), e);
             }
         }
+
+        // 上报本进程监听的LocalBroadcast Action，常驻进程据此定向投递
+        LocalBroadcastSubscriptions.attach(mContext);
     }
 
     final void installBuiltinPlugin(String name, IHostBinderFetcher p) {
@@ -562,12 +650,43 @@ class PmBase {
                     if (rc) {
                         mDefaultPlugin = p;
                         mClient.init(p);
+                        RePluginClassLoader.clearResolutionCache();
                     }
                 }
             }
         }
     }
 
+    /**
+     * 预热的空坑位进程被分配给某插件时由常驻进程调用，相当于延后执行callAttach中的“加载默认插件”
+     *
+     * @param plugin 插件名
+     * @return 是否成功
+     */
+    final boolean attachDefaultPlugin(String plugin) {
+        if (!PluginManager.isPluginProcess()) {
+            return false;
+        }
+        synchronized (this) {
+            if (!TextUtils.isEmpty(mDefaultPluginName)) {
+                return TextUtils.equals(mDefaultPluginName, plugin) && mDefaultPlugin != null;
+            }
+            Plugin p = mPlugins.get(plugin);
+            if (p == null || !p.load(Plugin.LOAD_APP, true)) {
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "failed to attach default plugin=" + plugin);
+                }
+                return false;
+            }
+            mDefaultPluginName = plugin;
+            mDefaultPlugin = p;
+            mClient.init(p);
+            // 此前本进程按“无默认插件”解析过的类，结果已不再成立
+            RePluginClassLoader.clearResolutionCache();
+            return true;
+        }
+    }
+
     /**
      * @param name
      * @param modc
@@ -595,6 +714,7 @@ class PmBase {
         dc.className = target;
         dc.defClass = defClass;
         mDynamicClasses.put(className, dc);
+        RePluginClassLoader.clearResolutionCache();
         return true;
     }
 
@@ -617,6 +737,7 @@ class PmBase {
 
     final void removeDynamicClass(String className) {
         mDynamicClasses.remove(className);
+        RePluginClassLoader.clearResolutionCache();
     }
 
     /**
@@ -1117,6 +1238,9 @@ class PmBase {
             writer.println("--- plugins.cached objects ---");
             Plugin.dump(fd, writer, args);
             writer.println();
+
+            BinderTracer.dump(writer);
+            writer.println();
         }
     }
 
@@ -1221,6 +1345,9 @@ class PmBase {
 
             // 同时加入PackageName和Alias（如有）
             putPluginObject(info, plugin);
+
+            // 插件变化后，之前的类解析结果可能不再有效
+            RePluginClassLoader.clearResolutionCache();
         }
     }
 
@@ -1237,6 +1364,9 @@ class PmBase {
         // 清空插件的状态（解禁）
         PluginStatusController.setStatus(info.getName(), info.getVersion(), PluginStatusController.STATUS_OK);
 
+        // 插件的Provider可能有变化，清空路由表
+        PluginProviderClient.clearRouteCache();
+
         if (IPC.isPersistentProcess()) {
             persistNeedRestart = mNeedRestart;
         }
@@ -1269,6 +1399,12 @@ class PmBase {
 
         // 移除内存中插件的PackageInfo、Resources、ComponentList和DexClassLoader缓存对象
         Plugin.clearCachedPlugin(Plugin.queryCachedFilename(info.getName()));
+
+        // 清除类的解析缓存
+        RePluginClassLoader.clearResolutionCache();
+
+        // 清空Provider的路由表
+        PluginProviderClient.clearRouteCache();
     }
 
     final IPluginClient startPluginProcessLocked(String plugin, int process, PluginBinderInfo info) {
@@ -1358,13 +1494,7 @@ class PmBase {
 
     final void handleServiceCreated(Service service) {
 //      int pid = Process.myPid();
-        try {
-            PluginProcessMain.getPluginHost().regService(PluginManager.sPluginProcessIndex, mDefaultPlugin.mInfo.getName(), service.getClass().getName());
-        } catch (Throwable e) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "r.s: " + e.getMessage(), e);
-            }
-        }
+        RegistrationBatcher.regService(PluginManager.sPluginProcessIndex, mDefaultPlugin.mInfo.getName(), service.getClass().getName());
 
 //      // TODO 设置插件服务类的类加载器吗？
 //      Intent intent = service.getIntent();
@@ -1378,12 +1508,6 @@ class PmBase {
 
     final void handleServiceDestroyed(Service service) {
 //      int pid = Process.myPid();
-        try {
-            PluginProcessMain.getPluginHost().unregService(PluginManager.sPluginProcessIndex, mDefaultPlugin.mInfo.getName(), service.getClass().getName());
-        } catch (Throwable e) {
-            if (LOGR) {
-                LogRelease.e(PLUGIN_TAG, "ur.s: " + e.getMessage(), e);
-            }
-        }
+        RegistrationBatcher.unregService(PluginManager.sPluginProcessIndex, mDefaultPlugin.mInfo.getName(), service.getClass().getName());
     }
 }
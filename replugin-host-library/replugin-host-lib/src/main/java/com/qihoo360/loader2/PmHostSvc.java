@@ -24,8 +24,10 @@ import android.content.pm.ActivityInfo;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.qihoo360.loader.utils.LocalBroadcastManager;
@@ -35,6 +37,7 @@ import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.RePluginConstants;
 import com.qihoo360.replugin.RePluginEventCallbacks;
 import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.base.LocalBroadcastHelper;
 import com.qihoo360.replugin.component.ComponentList;
@@ -55,6 +58,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static com.qihoo360.loader2.TaskAffinityStates.TAG;
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
@@ -66,6 +70,19 @@ import static com.qihoo360.replugin.helper.LogRelease.LOGR;
  */
 class PmHostSvc extends IPluginHost.Stub {
 
+    private final BinderTracer.SuperTransact mSuperTransact = new BinderTracer.SuperTransact() {
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            return PmHostSvc.super.onTransact(code, data, reply, flags);
+        }
+    };
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact);
+    }
+
     /**
      *
      */
@@ -86,6 +103,22 @@ class PmHostSvc extends IPluginHost.Stub {
      */
     PluginManagerServer mManager;
 
+    /**
+     * 各客户端进程（PID）已执行到的登记批次序号，见RegistrationBatcher
+     */
+    private final HashMap<Integer, Integer> mRegistrationSeqs = new HashMap<>();
+
+    /**
+     * 各客户端进程先于前序批次到达的oneway批次：PID -> (序号 -> 批次)。客户端发送时不再加锁，批次可能乱序到达，
+     * 在此按序号重新排序。受mRegistrationSeqs保护
+     */
+    private final HashMap<Integer, TreeMap<Integer, RegistrationBatch>> mParkedRegistrations = new HashMap<>();
+
+    /**
+     * 同步批次等待此前的oneway批次的最长时间
+     */
+    private static final long REGISTRATION_WAIT_MS = 1000;
+
     /**
      *
      */
@@ -204,6 +237,11 @@ class PmHostSvc extends IPluginHost.Stub {
         return PluginTable.buildPlugins();
     }
 
+    @Override
+    public PluginTableDelta listPluginsSince(long cookie, long version) throws RemoteException {
+        return PluginTable.buildDelta(cookie, version);
+    }
+
     @Override
     public void regActivity(int index, String plugin, String container, String activity) throws RemoteException {
         int pid = Binder.getCallingPid();
@@ -247,6 +285,9 @@ class PmHostSvc extends IPluginHost.Stub {
         }
 
         // 通知释放
+        if (BinderTracer.isEnabled()) {
+            client = IPluginClient.Stub.asInterface(BinderTracer.wrap(client.asBinder(), IPluginClient.Stub.class));
+        }
         client.releaseBinder();
     }
 
@@ -314,6 +355,137 @@ class PmHostSvc extends IPluginHost.Stub {
         return PluginProcessMain.sumBinders(index);
     }
 
+    @Override
+    public void applyRegistrations(RegistrationBatch batch) throws RemoteException {
+        synchronized (mRegistrationSeqs) {
+            if (lastRegistrationSeqLocked(batch.pid) < batch.seq - 1) {
+                // 前序批次尚未到达，先暂存，待其执行后再执行
+                TreeMap<Integer, RegistrationBatch> parked = mParkedRegistrations.get(batch.pid);
+                if (parked == null) {
+                    parked = new TreeMap<>();
+                    mParkedRegistrations.put(batch.pid, parked);
+                }
+                parked.put(batch.seq, batch);
+                return;
+            }
+            applyRegistrationsInOrderLocked(batch);
+        }
+    }
+
+    @Override
+    public void applyRegistrationsSync(RegistrationBatch batch) throws RemoteException {
+        // 同步调用可能比之前发出的oneway调用先到，须等它们执行完
+        synchronized (mRegistrationSeqs) {
+            long deadline = SystemClock.uptimeMillis() + REGISTRATION_WAIT_MS;
+            while (true) {
+                int last = lastRegistrationSeqLocked(batch.pid);
+                if (last >= batch.seq - 1) {
+                    break;
+                }
+                long remain = deadline - SystemClock.uptimeMillis();
+                if (remain <= 0) {
+                    if (LOGR) {
+                        LogRelease.w(PLUGIN_TAG, "a.r.s: wait timeout. pid=" + batch.pid + " seq=" + batch.seq + " last=" + last);
+                    }
+                    break;
+                }
+                try {
+                    mRegistrationSeqs.wait(remain);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            applyRegistrationsInOrderLocked(batch);
+        }
+    }
+
+    private int lastRegistrationSeqLocked(int pid) {
+        Integer last = mRegistrationSeqs.get(pid);
+        return last != null ? last : 0;
+    }
+
+    /**
+     * 执行批次，然后执行已暂存的、紧随其后的批次。若同步批次等待超时（前序批次丢失），序号更小的暂存批次先执行
+     */
+    private void applyRegistrationsInOrderLocked(RegistrationBatch batch) {
+        TreeMap<Integer, RegistrationBatch> parked = mParkedRegistrations.get(batch.pid);
+        if (parked != null) {
+            while (!parked.isEmpty() && parked.firstKey() < batch.seq) {
+                applyRegistrationBatch(parked.remove(parked.firstKey()));
+            }
+        }
+        applyRegistrationBatch(batch);
+        if (parked != null) {
+            while (!parked.isEmpty() && parked.firstKey() <= batch.seq + 1) {
+                batch = parked.remove(parked.firstKey());
+                applyRegistrationBatch(batch);
+            }
+            if (parked.isEmpty()) {
+                mParkedRegistrations.remove(batch.pid);
+            }
+        }
+    }
+
+    private void applyRegistrationBatch(RegistrationBatch batch) {
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "apply registrations: " + batch);
+        }
+        for (RegistrationBatch.Op op : batch.ops) {
+            try {
+                applyRegistration(batch.pid, op);
+            } catch (Throwable e) {
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "a.r: " + op + " " + e.getMessage(), e);
+                }
+            }
+        }
+        synchronized (mRegistrationSeqs) {
+            mRegistrationSeqs.put(batch.pid, batch.seq);
+            mRegistrationSeqs.notifyAll();
+        }
+    }
+
+    private void applyRegistration(int pid, RegistrationBatch.Op op) throws RemoteException {
+        switch (op.type) {
+            case RegistrationBatch.REG_ACTIVITY:
+                PluginProcessMain.attachActivity(pid, op.index, op.plugin, op.name, op.container);
+                break;
+            case RegistrationBatch.UNREG_ACTIVITY:
+                PluginProcessMain.detachActivity(pid, op.index, op.plugin, op.name, op.container);
+                break;
+            case RegistrationBatch.REG_SERVICE:
+                PluginProcessMain.attachService(pid, op.index, op.plugin, op.name);
+                break;
+            case RegistrationBatch.UNREG_SERVICE:
+                PluginProcessMain.detachService(pid, op.index, op.plugin, op.name);
+                break;
+            case RegistrationBatch.REG_BINDER:
+            case RegistrationBatch.UNREG_BINDER: {
+                PluginBinderInfo info = new PluginBinderInfo(PluginBinderInfo.BINDER_REQUEST);
+                info.pid = op.binderPid;
+                info.index = op.index;
+                if (op.type == RegistrationBatch.REG_BINDER) {
+                    regPluginBinder(info, op.binder);
+                } else {
+                    unregPluginBinder(info, op.binder);
+                }
+                break;
+            }
+            case RegistrationBatch.ADD_RUNNING:
+                mManager.getService().addToRunningPlugins(op.name, pid, op.plugin);
+                break;
+            case RegistrationBatch.SUBSCRIBE_ACTION:
+                PluginProcessMain.subscribeAction(pid, op.name);
+                break;
+            case RegistrationBatch.UNSUBSCRIBE_ACTION:
+                PluginProcessMain.unsubscribeAction(pid, op.name);
+                break;
+            case RegistrationBatch.RESET_ACTIONS:
+                PluginProcessMain.resetActions(pid);
+                break;
+        }
+    }
+
     @Override
     public void updatePluginInfo(PluginInfo info) throws RemoteException {
         Plugin p = null;
@@ -563,26 +735,28 @@ class PmHostSvc extends IPluginHost.Stub {
      * 保存 action-plugin-receiver 的关系
      */
     private void saveAction(String action, String plugin, String receiver) {
+        // PluginReceiverProxy 在分发时也会在此锁内读取
+        synchronized (mActionPluginComponents) {
+            HashMap<String, List<String>> pluginReceivers = mActionPluginComponents.get(action);
+            if (pluginReceivers == null) {
+                pluginReceivers = new HashMap<>();
+                mActionPluginComponents.put(action, pluginReceivers);
+            }
 
-        HashMap<String, List<String>> pluginReceivers = mActionPluginComponents.get(action);
-        if (pluginReceivers == null) {
-            pluginReceivers = new HashMap<>();
-            mActionPluginComponents.put(action, pluginReceivers);
-        }
-
-        // 根据插件名称，取 Receiver 集合
-        List<String> receivers = pluginReceivers.get(plugin);
-        if (receivers == null) {
-            receivers = new ArrayList<>();
-            pluginReceivers.put(plugin, receivers);
-        }
+            // 根据插件名称，取 Receiver 集合
+            List<String> receivers = pluginReceivers.get(plugin);
+            if (receivers == null) {
+                receivers = new ArrayList<>();
+                pluginReceivers.put(plugin, receivers);
+            }
 
-        // 添加 Receiver 到 Receiver 集合
-        if (!receivers.contains(receiver)) {
-            receivers.add(receiver);
+            // 添加 Receiver 到 Receiver 集合
+            if (!receivers.contains(receiver)) {
+                receivers.add(receiver);
 
-            if (LOG) {
-                LogDebug.d(PluginReceiverProxy.TAG, String.format("保存 Receiver (%s, %s, %s)", action, plugin, receiver));
+                if (LOG) {
+                    LogDebug.d(PluginReceiverProxy.TAG, String.format("保存 Receiver (%s, %s, %s)", action, plugin, receiver));
+                }
             }
         }
     }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import com.qihoo360.replugin.helper.LogDebug;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+
+/**
+ * 非常驻进程中的“进程名 <-> PID”表，由常驻进程在进程启动（attachPluginProcess）和退出（binderDied）时推送过来 <p>
+ * 收到第一份全量表之前，查不到的情况仍需向常驻进程查询；之后所有查询都在本地完成
+ *
+ * @hide 内部框架使用
+ * @author RePlugin Team
+ */
+public final class ProcessTableCache {
+
+    private static final HashMap<String, Integer> PIDS = new HashMap<>();
+
+    private static final HashMap<Integer, String> NAMES = new HashMap<>();
+
+    private static final byte[] LOCK = new byte[0];
+
+    /**
+     * 是否已收到常驻进程推送的全量表
+     */
+    private static volatile boolean sComplete;
+
+    private ProcessTableCache() {
+        // Nothing
+    }
+
+    /**
+     * @return 是否已收到全量表。若为true，则查不到即表示进程不存在
+     */
+    public static boolean isComplete() {
+        return sComplete;
+    }
+
+    /**
+     * @param processName 进程名
+     * @return PID，若表中没有则返回-1
+     */
+    public static int getPid(String processName) {
+        synchronized (LOCK) {
+            Integer pid = PIDS.get(processName);
+            return pid != null ? pid : -1;
+        }
+    }
+
+    /**
+     * @param pid 进程PID
+     * @return 进程名，若表中没有则返回null
+     */
+    public static String getName(int pid) {
+        synchronized (LOCK) {
+            return NAMES.get(pid);
+        }
+    }
+
+    /**
+     * 更新进程表
+     *
+     * @param table 进程名 -> PID，PID为-1表示进程已退出
+     * @param reset 是否为全量表（会先清空原有内容）
+     */
+    static void update(Map<String, Integer> table, boolean reset) {
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "update process table: reset=" + reset + " t=" + table);
+        }
+        synchronized (LOCK) {
+            if (reset) {
+                PIDS.clear();
+                NAMES.clear();
+            }
+            if (table != null) {
+                for (Map.Entry<String, Integer> e : table.entrySet()) {
+                    final String name = e.getKey();
+                    final int pid = e.getValue() != null ? e.getValue() : -1;
+                    final Integer old = PIDS.remove(name);
+                    if (old != null && name.equals(NAMES.get(old))) {
+                        NAMES.remove(old);
+                    }
+                    if (pid > 0) {
+                        PIDS.put(name, pid);
+                        NAMES.put(pid, name);
+                    }
+                }
+            }
+            if (reset) {
+                sComplete = true;
+            }
+        }
+    }
+
+    /**
+     * 与常驻进程断开时调用，等待重新连接后的全量表
+     */
+    static void clear() {
+        synchronized (LOCK) {
+            sComplete = false;
+            PIDS.clear();
+            NAMES.clear();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+
+/**
+ * 一批发往常驻进程的登记操作（regActivity、regService、regPluginBinder、LocalBroadcast订阅等），按顺序执行 <p>
+ * 注意：oneway调用中无法通过Binder.getCallingPid获取调用方PID，因此由客户端自行填写
+ *
+ * @hide 内部框架使用
+ * @author RePlugin Team
+ */
+public final class RegistrationBatch implements Parcelable {
+
+    static final int REG_ACTIVITY = 1;
+
+    static final int UNREG_ACTIVITY = 2;
+
+    static final int REG_SERVICE = 3;
+
+    static final int UNREG_SERVICE = 4;
+
+    static final int REG_BINDER = 5;
+
+    static final int UNREG_BINDER = 6;
+
+    static final int ADD_RUNNING = 7;
+
+    static final int SUBSCRIBE_ACTION = 8;
+
+    static final int UNSUBSCRIBE_ACTION = 9;
+
+    /**
+     * 清空本进程的LocalBroadcast订阅表，并开始按订阅表投递。其后紧跟各SUBSCRIBE_ACTION
+     */
+    static final int RESET_ACTIONS = 10;
+
+    /**
+     * 单个登记操作。各字段的含义随type而定，未用到的为默认值
+     */
+    static final class Op {
+
+        int type;
+
+        int index;
+
+        String plugin;
+
+        String container;
+
+        /**
+         * Activity或Service的类名；ADD_RUNNING时为进程名；SUBSCRIBE_ACTION等为Action
+         */
+        String name;
+
+        IBinder binder;
+
+        /**
+         * PluginBinderInfo的pid（Binder所在进程）
+         */
+        int binderPid;
+
+        Op(int type) {
+            this.type = type;
+        }
+
+        /**
+         * @return 若op是与此操作相抵消的“反操作”（如先reg再unreg同一个Activity）则返回true
+         */
+        boolean cancels(Op op) {
+            if (type + 1 != op.type || (type != REG_ACTIVITY && type != REG_SERVICE && type != REG_BINDER && type != SUBSCRIBE_ACTION)) {
+                return false;
+            }
+            if (type == REG_BINDER) {
+                return binder == op.binder && binderPid == op.binderPid;
+            }
+            return index == op.index
+                    && equals(plugin, op.plugin)
+                    && equals(container, op.container)
+                    && equals(name, op.name);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public String toString() {
+            return "Op{t=" + type + ", i=" + index + ", p=" + plugin + ", c=" + container + ", n=" + name + ", bp=" + binderPid + "}";
+        }
+    }
+
+    /**
+     * 客户端进程内的批次序号，从1开始递增。常驻进程据此保证各批次按顺序执行
+     */
+    int seq;
+
+    /**
+     * 客户端进程的PID
+     */
+    int pid;
+
+    final ArrayList<Op> ops;
+
+    public static final Parcelable.Creator<RegistrationBatch> CREATOR = new Parcelable.Creator<RegistrationBatch>() {
+
+        @Override
+        public RegistrationBatch createFromParcel(Parcel source) {
+            return new RegistrationBatch(source);
+        }
+
+        @Override
+        public RegistrationBatch[] newArray(int size) {
+            return new RegistrationBatch[size];
+        }
+    };
+
+    RegistrationBatch(int seq, int pid, ArrayList<Op> ops) {
+        this.seq = seq;
+        this.pid = pid;
+        this.ops = ops;
+    }
+
+    RegistrationBatch(Parcel source) {
+        seq = source.readInt();
+        pid = source.readInt();
+        int n = source.readInt();
+        ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Op op = new Op(source.readInt());
+            op.index = source.readInt();
+            op.plugin = source.readString();
+            op.container = source.readString();
+            op.name = source.readString();
+            op.binder = source.readStrongBinder();
+            op.binderPid = source.readInt();
+            ops.add(op);
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(seq);
+        dest.writeInt(pid);
+        dest.writeInt(ops.size());
+        for (Op op : ops) {
+            dest.writeInt(op.type);
+            dest.writeInt(op.index);
+            dest.writeString(op.plugin);
+            dest.writeString(op.container);
+            dest.writeString(op.name);
+            dest.writeStrongBinder(op.binder);
+            dest.writeInt(op.binderPid);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RegistrationBatch{seq=" + seq + ", pid=" + pid + ", ops=" + ops + "}";
+    }
+}
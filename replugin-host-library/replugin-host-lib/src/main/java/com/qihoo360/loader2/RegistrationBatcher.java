@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2;
+
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+
+import com.qihoo360.loader2.RegistrationBatch.Op;
+import com.qihoo360.mobilesafe.api.Tasks;
+import com.qihoo360.replugin.base.IPC;
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 发往常驻进程的登记操作（regActivity、regService、regPluginBinder、addToRunningPlugins等）的批量通道 <p>
+ * 登记操作先在本地排队，在主线程的下一轮消息循环中合并为一次oneway调用发出；队列中可相互抵消的操作（如先reg再unreg）直接丢弃 <p>
+ * 依赖这些登记结果的查询（如sumBinders、isPluginRunning）在查询前须调用flush，它会以同步调用发出剩余操作，
+ * 常驻进程会等到此前的oneway批次都执行完后再执行它，以保证顺序。此前的批次都已被确认时，flush直接返回 <p>
+ * 发送时不持有任何锁（批次在锁内取出并编号），乱序到达的批次由常驻进程按序号重排 <p>
+ * LocalBroadcast订阅表的变化在LocalBroadcastManager的锁内产生，故只入队，由后台线程立即发出（不等主线程）；发送广播前同样须调用flush <p>
+ * 常驻进程自身的登记不经过队列，直接执行
+ *
+ * @hide 内部框架使用
+ * @author RePlugin Team
+ */
+public final class RegistrationBatcher {
+
+    private static final String TAG = "RegBatcher";
+
+    /**
+     * 队列中的操作数达到此值时立即发送，不再等待下一轮消息循环
+     */
+    private static final int MAX_PENDING = 64;
+
+    private static final byte[] LOCK = new byte[0];
+
+    private static ArrayList<Op> sPending = new ArrayList<>();
+
+    private static int sSeq;
+
+    /**
+     * 已确认执行的批次序号（同步调用返回后更新）。若与sSeq相同且队列为空，则flush无需再发
+     */
+    private static int sAckedSeq;
+
+    /**
+     * 每次reset加一，防止reset前发出的同步调用返回后改写新的sAckedSeq
+     */
+    private static int sGeneration;
+
+    private static boolean sScheduled;
+
+    /**
+     * 是否已在后台线程安排了发送，见enqueueAsync
+     */
+    private static boolean sThreadScheduled;
+
+    private static Handler sHandler;
+
+    private static final AtomicLong OPS = new AtomicLong();
+
+    private static final AtomicLong COALESCED = new AtomicLong();
+
+    private static final AtomicLong TRANSACTIONS = new AtomicLong();
+
+    private static final Runnable FLUSH = new Runnable() {
+        @Override
+        public void run() {
+            send(false);
+        }
+    };
+
+    private static final Runnable THREAD_FLUSH = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LOCK) {
+                sThreadScheduled = false;
+            }
+            send(false);
+        }
+    };
+
+    private RegistrationBatcher() {
+        // Nothing
+    }
+
+    public static void regActivity(int index, String plugin, String container, String activity) {
+        enqueue(newComponentOp(RegistrationBatch.REG_ACTIVITY, index, plugin, container, activity));
+    }
+
+    public static void unregActivity(int index, String plugin, String container, String activity) {
+        enqueue(newComponentOp(RegistrationBatch.UNREG_ACTIVITY, index, plugin, container, activity));
+    }
+
+    public static void regService(int index, String plugin, String service) {
+        enqueue(newComponentOp(RegistrationBatch.REG_SERVICE, index, plugin, null, service));
+    }
+
+    public static void unregService(int index, String plugin, String service) {
+        enqueue(newComponentOp(RegistrationBatch.UNREG_SERVICE, index, plugin, null, service));
+    }
+
+    static void regPluginBinder(PluginBinderInfo info, IBinder binder) {
+        enqueue(newBinderOp(RegistrationBatch.REG_BINDER, info, binder));
+    }
+
+    static void unregPluginBinder(PluginBinderInfo info, IBinder binder) {
+        enqueue(newBinderOp(RegistrationBatch.UNREG_BINDER, info, binder));
+    }
+
+    /**
+     * 通知常驻进程：本进程正在运行某插件
+     *
+     * @param processName 本进程名
+     * @param plugin      插件名
+     */
+    public static void addToRunningPlugins(String processName, String plugin) {
+        Op op = new Op(RegistrationBatch.ADD_RUNNING);
+        op.name = processName;
+        op.plugin = plugin;
+        enqueue(op);
+    }
+
+    /**
+     * 通知常驻进程：本进程开始监听某LocalBroadcast Action
+     */
+    static void subscribeAction(String action) {
+        Op op = new Op(RegistrationBatch.SUBSCRIBE_ACTION);
+        op.name = action;
+        enqueueAsync(op);
+    }
+
+    /**
+     * 通知常驻进程：本进程已不再监听某LocalBroadcast Action
+     */
+    static void unsubscribeAction(String action) {
+        Op op = new Op(RegistrationBatch.UNSUBSCRIBE_ACTION);
+        op.name = action;
+        enqueueAsync(op);
+    }
+
+    /**
+     * 用全量表替换常驻进程中本进程的LocalBroadcast订阅表
+     *
+     * @param actions 本进程当前监听的所有Action
+     */
+    static void resetActions(Collection<String> actions) {
+        enqueueAsync(new Op(RegistrationBatch.RESET_ACTIONS));
+        for (String action : actions) {
+            Op op = new Op(RegistrationBatch.SUBSCRIBE_ACTION);
+            op.name = action;
+            enqueueAsync(op);
+        }
+    }
+
+    /**
+     * 立即（同步）发出队列中的所有操作。须在依赖登记结果的查询之前调用
+     */
+    public static void flush() {
+        send(true);
+    }
+
+    /**
+     * 与常驻进程断开时调用。新的常驻进程从序号1开始计数
+     */
+    static void reset() {
+        synchronized (LOCK) {
+            sPending = new ArrayList<>();
+            sSeq = 0;
+            sAckedSeq = 0;
+            sGeneration++;
+        }
+    }
+
+    private static Op newComponentOp(int type, int index, String plugin, String container, String name) {
+        Op op = new Op(type);
+        op.index = index;
+        op.plugin = plugin;
+        op.container = container;
+        op.name = name;
+        return op;
+    }
+
+    private static Op newBinderOp(int type, PluginBinderInfo info, IBinder binder) {
+        Op op = new Op(type);
+        op.index = info.index;
+        op.binderPid = info.pid;
+        op.binder = binder;
+        return op;
+    }
+
+    /**
+     * 只入队，由后台线程立即发出。供在其它锁（如LocalBroadcastManager.mReceivers）内调用，调用方不会被发送阻塞
+     */
+    private static void enqueueAsync(Op op) {
+        OPS.incrementAndGet();
+        synchronized (LOCK) {
+            if (!coalesceLocked(op)) {
+                sPending.add(op);
+            }
+            if (!sThreadScheduled) {
+                sThreadScheduled = true;
+                Tasks.post2Thread(THREAD_FLUSH);
+            }
+        }
+    }
+
+    private static void enqueue(Op op) {
+        OPS.incrementAndGet();
+        boolean now = false;
+        synchronized (LOCK) {
+            if (!coalesceLocked(op)) {
+                sPending.add(op);
+            }
+
+            if (IPC.isPersistentProcess() || sPending.size() >= MAX_PENDING) {
+                now = true;
+            } else if (!sScheduled) {
+                sScheduled = true;
+                if (sHandler == null) {
+                    sHandler = new Handler(Looper.getMainLooper());
+                }
+                sHandler.post(FLUSH);
+            }
+        }
+        if (now) {
+            send(false);
+        }
+    }
+
+    /**
+     * 与队列中尚未发出的“正操作”相抵消，或与相同的操作合并
+     *
+     * @return 是否已被抵消或合并（无需再入队）
+     */
+    private static boolean coalesceLocked(Op op) {
+        for (int i = sPending.size() - 1; i >= 0; i--) {
+            Op prev = sPending.get(i);
+            if (prev.cancels(op)) {
+                sPending.remove(i);
+                COALESCED.addAndGet(2);
+                return true;
+            }
+            if (op.type == RegistrationBatch.ADD_RUNNING && prev.type == op.type
+                    && prev.plugin != null && prev.plugin.equals(op.plugin)) {
+                COALESCED.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void send(boolean sync) {
+        RegistrationBatch batch;
+        int generation;
+        synchronized (LOCK) {
+            sScheduled = false;
+            if (sPending.isEmpty() && (!sync || sAckedSeq == sSeq)) {
+                // 没有要发的；或此前发出的批次都已确认执行
+                return;
+            }
+            batch = new RegistrationBatch(++sSeq, Process.myPid(), sPending);
+            sPending = new ArrayList<>();
+            generation = sGeneration;
+        }
+        TRANSACTIONS.incrementAndGet();
+        if (LOG) {
+            LogDebug.d(TAG, "send: sync=" + sync + " " + batch);
+        }
+        try {
+            IPluginHost host = PluginProcessMain.getPluginHost();
+            if (sync) {
+                host.applyRegistrationsSync(batch);
+                synchronized (LOCK) {
+                    if (generation == sGeneration && batch.seq > sAckedSeq) {
+                        sAckedSeq = batch.seq;
+                    }
+                }
+            } else {
+                host.applyRegistrations(batch);
+            }
+        } catch (Throwable e) {
+            // 常驻进程出现问题，这批操作无法送达。常驻进程重启后会通过syncRunningPlugins等重新同步
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "rb.s: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return 登记操作的总数
+     */
+    public static long getOperationCount() {
+        return OPS.get();
+    }
+
+    /**
+     * @return 实际发出的Binder调用次数
+     */
+    public static long getTransactionCount() {
+        return TRANSACTIONS.get();
+    }
+
+    /**
+     * @return 相比“每个操作一次Binder调用”节省的调用次数
+     */
+    public static long getSavedTransactionCount() {
+        return OPS.get() - TRANSACTIONS.get();
+    }
+
+    static void dump(PrintWriter writer) {
+        writer.println("--- registration batcher ---");
+        writer.println("ops=" + OPS.get() + " transactions=" + TRANSACTIONS.get()
+                + " saved=" + getSavedTransactionCount() + " coalesced=" + COALESCED.get());
+    }
+}
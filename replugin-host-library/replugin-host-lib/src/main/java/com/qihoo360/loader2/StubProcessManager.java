@@ -1,18 +1,26 @@
 package com.qihoo360.loader2;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.qihoo360.i.IPluginManager;
 import com.qihoo360.mobilesafe.api.Tasks;
+import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.RePluginInternal;
 import com.qihoo360.replugin.base.AMSUtils;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
 
 import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
@@ -36,6 +44,49 @@ public class StubProcessManager {
         }
     };
 
+    /**
+     * 分配和预热坑位时使用，保证同一时刻只有一处在改变坑位的归属
+     */
+    private static final byte[] ALLOC_LOCK = new byte[0];
+
+    /**
+     * 预热：初始化后首次预热的延迟，避开启动高峰
+     */
+    private static final int WARM_INITIAL_DELAY = 10 * 1000;
+
+    /**
+     * 预热：坑位被用掉或进程退出后，再次补齐的延迟
+     */
+    private static final int WARM_DELAY = 5 * 1000;
+
+    /**
+     * 预热：内存紧张或预热进程被系统回收后，暂停预热的时长
+     */
+    private static final int WARM_SUSPEND = 60 * 1000;
+
+    private static final Runnable WARM = new Runnable() {
+        @Override
+        public void run() {
+            doWarmUp();
+        }
+    };
+
+    /**
+     * 本次运行中各插件被分配坑位的次数，用来预测接下来最可能用到的插件（受ALLOC_LOCK保护）
+     */
+    private static final HashMap<String, Integer> ALLOC_COUNTS = new HashMap<>();
+
+    private static volatile long sWarmSuspendUntil;
+
+    /**
+     * 预热统计：拉起的预热进程数、直接命中（已预加载该插件）、分配空的预热进程、未命中（冷启动）、因内存紧张结束的预热进程数
+     */
+    private static int sWarmSpawned;
+    private static int sWarmHits;
+    private static int sWarmAdopted;
+    private static int sWarmMisses;
+    private static int sWarmTrimmed;
+
     static {
         for (int i = 0; i < Constant.STUB_PROCESS_COUNT; i++) {
             ProcessRecord r = new ProcessRecord(i, StubProcessState.STATE_UNUSED);
@@ -49,6 +100,23 @@ public class StubProcessManager {
      * @return 进程index值
      */
     static final int allocProcess(String plugin) {
+        int index;
+        for (;;) {
+            synchronized (ALLOC_LOCK) {
+                index = allocProcessLocked(plugin);
+            }
+            // 分到的是预热进程时，让它加载插件（跨进程调用，不能在ALLOC_LOCK内进行）。失败则重新分配
+            if (index < 0 || finishWarmAttach(STUB_PROCESSES[index], plugin)) {
+                break;
+            }
+        }
+        if (isWarmEnabled()) {
+            scheduleWarmUp(WARM_DELAY);
+        }
+        return index;
+    }
+
+    private static int allocProcessLocked(String plugin) {
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "alloc plugin process: plugin=" + plugin);
         }
@@ -62,11 +130,17 @@ public class StubProcessManager {
             }
             return IPluginManager.PROCESS_AUTO;
         }
+        Integer count = ALLOC_COUNTS.get(plugin);
+        ALLOC_COUNTS.put(plugin, count != null ? count + 1 : 1);
         //根据优先级分配坑位进程
         int prevMatchPriority = -1; //临时变量，保存上一个ProcessRecord的进程分配优先级
         ProcessRecord selectRecord = null; //被选中的坑位进程
         for (ProcessRecord r : STUB_PROCESSES) {
             synchronized (r) {
+                if (r.attaching != null && !TextUtils.equals(r.plugin, plugin)) {
+                    // 正在加载其它插件的预热进程，不能回收
+                    continue;
+                }
                 if (r.calculateMatchPriority(plugin) > prevMatchPriority) {
                     prevMatchPriority = r.calculateMatchPriority(plugin);
                     selectRecord = r;
@@ -84,13 +158,107 @@ public class StubProcessManager {
             //插件已在分配进程中运行，直接返回
             if (selectRecord.calculateMatchPriority(plugin) == Integer.MAX_VALUE && (selectRecord.state == StubProcessState.STATE_ALLOCATED || selectRecord.state == StubProcessState.STATE_RUNNING))
             {
+                if (selectRecord.warm) {
+                    // 预热时已预加载了此插件
+                    selectRecord.warm = false;
+                    sWarmHits++;
+                }
                 return selectRecord.index;
             }
+        }
+        // 有空的预热进程？直接交给它，免去进程启动
+        int index = reserveWarmProcessLocked(plugin);
+        if (index >= 0) {
+            return index;
+        }
+        if (isWarmEnabled()) {
+            sWarmMisses++;
+        }
+        synchronized (selectRecord){
             selectRecord.resetAllocate(plugin, processes);
             return selectRecord.index;
         }
     }
 
+    /**
+     * 将一个已启动的空预热进程预留给插件（须在ALLOC_LOCK内调用）。加载插件由之后的finishWarmAttach在锁外完成
+     *
+     * @return 进程index值，没有可用的预热进程时返回-1
+     */
+    private static int reserveWarmProcessLocked(String plugin) {
+        for (ProcessRecord r : STUB_PROCESSES) {
+            synchronized (r) {
+                if (!r.warm || r.plugin != null || r.state != StubProcessState.STATE_RUNNING || r.client == null) {
+                    continue;
+                }
+                r.warm = false;
+                r.plugin = plugin;
+                r.mobified = System.currentTimeMillis();
+                r.attaching = Thread.currentThread();
+                return r.index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 若r是本线程刚预留的预热进程，则让它加载插件；若是其它线程正在为同一插件加载，则等其完成
+     *
+     * @return 是否可以使用r；返回false时r已回滚（进程被结束），应重新分配
+     */
+    private static boolean finishWarmAttach(ProcessRecord r, String plugin) {
+        IPluginClient client;
+        int pid;
+        synchronized (r) {
+            if (r.attaching == null) {
+                return true;
+            }
+            if (r.attaching != Thread.currentThread()) {
+                while (r.attaching != null) {
+                    try {
+                        r.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return r.state == StubProcessState.STATE_RUNNING && TextUtils.equals(r.plugin, plugin);
+            }
+            client = r.client;
+            pid = r.pid;
+        }
+        PluginProcessMain.setProcessPlugin(pid, plugin);
+        boolean rc = false;
+        try {
+            rc = client.attachDefaultPlugin(plugin);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "a.w.p: " + e.getMessage(), e);
+            }
+        }
+        if (!rc) {
+            // 失败则结束它，交由常规流程重新分配
+            android.os.Process.killProcess(pid);
+        }
+        synchronized (r) {
+            if (rc) {
+                if (LOG) {
+                    LogDebug.d(PLUGIN_TAG, "alloc plugin process: use warm process, plugin=" + plugin + " index=" + r.index);
+                }
+            } else if (r.pid == pid) {
+                r.setStoped();
+            }
+            r.attaching = null;
+            r.notifyAll();
+        }
+        if (rc) {
+            synchronized (ALLOC_LOCK) {
+                sWarmAdopted++;
+            }
+        }
+        return rc;
+    }
+
     private static final int lookupPluginProcess(List<ActivityManager.RunningAppProcessInfo> processes, int index) {
         for (ActivityManager.RunningAppProcessInfo pi : processes) {
             if (pi.uid != PluginManager.sUid) {
@@ -351,11 +519,177 @@ public class StubProcessManager {
         for (ProcessRecord r : STUB_PROCESSES) {
             synchronized (r) {
                 if (r.binder == binder) {
+                    if (r.warm) {
+                        // 尚未使用就被回收，多半是内存紧张，暂停预热
+                        sWarmSuspendUntil = SystemClock.elapsedRealtime() + WARM_SUSPEND;
+                    }
                     r.setStoped();
                     break;
                 }
             }
         }
+        if (isWarmEnabled()) {
+            scheduleWarmUp(WARM_DELAY);
+        }
+    }
+
+    /**
+     * 常驻进程初始化时调用。若开启了预热（RePluginConfig.setWarmStubProcessCount），则稍后开始预热，并监听内存紧张的通知
+     */
+    static final void initWarmPool(Context context) {
+        if (!isWarmEnabled()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= 14) {
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    // TRIM_MEMORY_UI_HIDDEN只是界面不可见，不算内存紧张
+                    if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+                        releaseWarmProcesses();
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                    releaseWarmProcesses();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            });
+        }
+        scheduleWarmUp(WARM_INITIAL_DELAY);
+    }
+
+    private static boolean isWarmEnabled() {
+        return RePlugin.getConfig().getWarmStubProcessCount() > 0;
+    }
+
+    private static void scheduleWarmUp(long delayMillis) {
+        Tasks.cancelThreadTask(WARM);
+        Tasks.postDelayed2Thread(WARM, delayMillis);
+    }
+
+    /**
+     * 补齐预热进程：每次最多拉起一个，成功后再安排下一次
+     */
+    private static void doWarmUp() {
+        int target = Math.min(RePlugin.getConfig().getWarmStubProcessCount(), STUB_PROCESSES.length);
+        if (target <= 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < sWarmSuspendUntil) {
+            scheduleWarmUp(sWarmSuspendUntil - now);
+            return;
+        }
+
+        ProcessRecord record = null;
+        String plugin = null;
+        synchronized (ALLOC_LOCK) {
+            int warm = 0;
+            for (ProcessRecord r : STUB_PROCESSES) {
+                synchronized (r) {
+                    if (r.warm) {
+                        warm++;
+                    } else if (record == null && (r.state == StubProcessState.STATE_UNUSED || r.state == StubProcessState.STATE_STOPED)) {
+                        record = r;
+                    }
+                }
+            }
+            if (warm >= target || record == null) {
+                return;
+            }
+            List<ActivityManager.RunningAppProcessInfo> processes = AMSUtils.getRunningAppProcessesNoThrows(RePluginInternal.getAppContext());
+            if (processes == null || processes.isEmpty()) {
+                return;
+            }
+            if (RePlugin.getConfig().isWarmStubProcessPreload()) {
+                plugin = predictPluginLocked();
+            }
+            synchronized (record) {
+                record.resetAllocate(plugin, processes);
+                record.warm = true;
+            }
+            sWarmSpawned++;
+        }
+
+        if (LOG) {
+            LogDebug.d(PLUGIN_TAG, "warm up stub process: index=" + record.index + " plugin=" + plugin);
+        }
+        boolean rc = false;
+        try {
+            rc = PluginProviderStub.proxyStartPluginProcess(RePluginInternal.getAppContext(), record.index);
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "w.u: " + e.getMessage(), e);
+            }
+        }
+        if (!rc) {
+            synchronized (record) {
+                if (record.warm && record.state == StubProcessState.STATE_ALLOCATED) {
+                    record.setStoped();
+                }
+            }
+            return;
+        }
+        scheduleWarmUp(WARM_DELAY);
+    }
+
+    /**
+     * 取本次运行中被分配次数最多、且当前没有占用坑位的插件
+     */
+    private static String predictPluginLocked() {
+        String best = null;
+        int bestCount = 0;
+        for (Map.Entry<String, Integer> e : ALLOC_COUNTS.entrySet()) {
+            if (e.getValue() <= bestCount || isPluginAllocated(e.getKey()) || PluginTable.getPluginInfo(e.getKey()) == null) {
+                continue;
+            }
+            best = e.getKey();
+            bestCount = e.getValue();
+        }
+        return best;
+    }
+
+    private static boolean isPluginAllocated(String plugin) {
+        for (ProcessRecord r : STUB_PROCESSES) {
+            synchronized (r) {
+                if (TextUtils.equals(r.plugin, plugin)
+                        && (r.state == StubProcessState.STATE_ALLOCATED || r.state == StubProcessState.STATE_RUNNING)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 内存紧张时结束所有尚未被使用的预热进程，并暂停预热一段时间
+     */
+    static final void releaseWarmProcesses() {
+        sWarmSuspendUntil = SystemClock.elapsedRealtime() + WARM_SUSPEND;
+        Tasks.cancelThreadTask(WARM);
+        synchronized (ALLOC_LOCK) {
+            for (ProcessRecord r : STUB_PROCESSES) {
+                synchronized (r) {
+                    if (!r.warm || r.activities > 0 || r.services > 0 || r.binders > 0) {
+                        continue;
+                    }
+                    if (LOGR) {
+                        LogRelease.i(PLUGIN_TAG, "t w p " + r.pid);
+                    }
+                    if (r.pid > 0) {
+                        android.os.Process.killProcess(r.pid);
+                    }
+                    r.setStoped();
+                    sWarmTrimmed++;
+                }
+            }
+        }
+        scheduleWarmUp(WARM_SUSPEND);
     }
 
     private static final void doPluginProcessLoop() {
@@ -377,6 +711,14 @@ public class StubProcessManager {
                     if (r.binders > 0) {
                         continue;
                     }
+                    if (r.warm) {
+                        // 预热的进程本就是空的，由releaseWarmProcesses负责回收
+                        continue;
+                    }
+                    if (r.attaching != null) {
+                        // 正在加载插件的预热进程
+                        continue;
+                    }
                     if (LOGR) {
                         // terminate empty process
                         LogRelease.i(PLUGIN_TAG, "t e p " + r.pid);
@@ -410,6 +752,12 @@ public class StubProcessManager {
                 writer.println(r);
             }
         }
+        if (isWarmEnabled()) {
+            synchronized (ALLOC_LOCK) {
+                writer.println("--- warm stub processes: spawned=" + sWarmSpawned + " hits=" + sWarmHits + " adopted=" + sWarmAdopted
+                        + " misses=" + sWarmMisses + " trimmed=" + sWarmTrimmed + " ---");
+            }
+        }
     }
 
     /**
@@ -447,6 +795,16 @@ public class StubProcessManager {
 
         int binders;
 
+        /**
+         * 是否为预热的进程（尚未被请求使用）
+         */
+        boolean warm;
+
+        /**
+         * 预热进程被预留给插件、正在跨进程加载该插件时，为执行加载的线程；否则为null
+         */
+        Thread attaching;
+
         ProcessRecord(int index, int state) {
             this.index = index;
             this.state = state;
@@ -462,6 +820,7 @@ public class StubProcessManager {
             this.activities = 0;
             this.services = 0;
             this.binders = 0;
+            this.warm = false;
         }
 
         void setRunning(int pid) {
@@ -479,6 +838,7 @@ public class StubProcessManager {
             this.pid = 0;
             this.binder = null;
             this.client = null;
+            this.warm = false;
         }
 
         /**
@@ -533,7 +893,7 @@ public class StubProcessManager {
         public String toString() {
             if (LOG) {
                 return super.toString() + " {index=" + index + " state=" + state + " mobified=" + mobified + " plugin=" + plugin + " pid=" + pid + " binder=" + binder + " client=" + client
-                        + " activities=" + activities + " services=" + services + " binders=" + binders + "}";
+                        + " activities=" + activities + " services=" + services + " binders=" + binders + " warm=" + warm + "}";
             }
             return super.toString();
         }
@@ -97,7 +97,7 @@ class TaskAffinityStates {
     /**
      * 根据插件 Activity 的信息，找到宿主对应的坑位集合
      */
-    HashMap<String, PluginContainers.ActivityState> getStates(ActivityInfo ai) {
+    PluginContainers.StateBucket getStates(ActivityInfo ai) {
         if (ai != null) {
 
             // 找到应该取第几个 TaskAffinity 中的坑
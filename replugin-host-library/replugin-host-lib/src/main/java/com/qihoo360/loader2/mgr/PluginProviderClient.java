@@ -18,17 +18,23 @@ package com.qihoo360.loader2.mgr;
 
 import android.annotation.TargetApi;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 
 /**
  * （该类仅为兼容360手机卫士的旧插件而存在，因涉及到反射而保留此类）
@@ -96,6 +102,22 @@ public class PluginProviderClient {
         return com.qihoo360.replugin.component.provider.PluginProviderClient.update(c, uri, values, selection, selectionArgs);
     }
 
+    /**
+     * @deprecated
+     */
+    public static ContentProviderResult[] applyBatch(Context c, String authority, ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        return com.qihoo360.replugin.component.provider.PluginProviderClient.applyBatch(c, authority, operations);
+    }
+
+    /**
+     * @deprecated
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Bundle call(Context c, Uri uri, String method, String arg, Bundle extras) {
+        return com.qihoo360.replugin.component.provider.PluginProviderClient.call(c, uri, method, arg, extras);
+    }
+
     /**
      * @deprecated
      */
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.loader2.sp;
+
+import android.content.Context;
+
+import com.qihoo360.loader2.Constant;
+import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+import com.qihoo360.replugin.utils.CloseableUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 基于内存映射文件的跨进程键值表，每个category一个文件 <p>
+ * 文件头：magic | seq | length | crc32，其后为整表的序列化内容（value可以为null，与Bundle一致） <p>
+ * 写：进程内加锁，并持有文件锁（FileLock），先将seq置为奇数，写入整表，再将seq置为下一个偶数 <p>
+ * 读：seq与本进程缓存的相同时直接读缓存；否则在seq为偶数且前后一致、crc校验通过时重新解析；
+ * 多次重试仍失败（如写入方在写入过程中被杀）时，改为持有文件锁读取 <p>
+ * 适合数据量较小的场景（每次写入都会重写整表）。文件打开失败时 get 返回null，调用方应回退到原有方式
+ *
+ * @author RePlugin Team
+ */
+public final class MappedPref {
+
+    private static final String TAG = "MappedPref";
+
+    /**
+     * 序列化格式变化时须修改，旧文件会被重置
+     */
+    private static final int MAGIC = 0x52504d51;
+
+    private static final int OFFSET_SEQ = 4;
+
+    private static final int OFFSET_LENGTH = 8;
+
+    private static final int OFFSET_CRC = 12;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    private static final int READ_RETRY = 8;
+
+    private static final HashMap<String, MappedPref> sPrefs = new HashMap<>();
+
+    /**
+     * 打开失败过的category，不再重试
+     */
+    private static final HashSet<String> sFailed = new HashSet<>();
+
+    private final RandomAccessFile mFile;
+
+    private final FileChannel mChannel;
+
+    /**
+     * 见RePluginConfig.setMappedPrefDurable
+     */
+    private final boolean mDurable;
+
+    private MappedByteBuffer mBuffer;
+
+    /**
+     * mCache 对应的seq
+     */
+    private int mSeq = -1;
+
+    private HashMap<String, String> mCache;
+
+    /**
+     * 获取category对应的映射表
+     *
+     * @return 未开启（见RePluginConfig.setMappedPrefEnabled）或打开失败时返回null
+     */
+    public static MappedPref get(String category) {
+        if (!RePlugin.getConfig().isMappedPrefEnabled()) {
+            return null;
+        }
+        synchronized (sPrefs) {
+            MappedPref pref = sPrefs.get(category);
+            if (pref != null || sFailed.contains(category)) {
+                return pref;
+            }
+            try {
+                pref = open(RePluginInternal.getAppContext(), category, RePlugin.getConfig().isMappedPrefDurable());
+                sPrefs.put(category, pref);
+                return pref;
+            } catch (Throwable e) {
+                sFailed.add(category);
+                if (LOGR) {
+                    LogRelease.e(PLUGIN_TAG, "mp.o: " + category + " " + e.getMessage(), e);
+                }
+                return null;
+            }
+        }
+    }
+
+    private static MappedPref open(Context context, String category, boolean durable) throws IOException {
+        File dir = context.getDir(Constant.LOCAL_PLUGIN_PREF_SUB_DIR, 0);
+        return open(new File(dir, category.replaceAll("[^A-Za-z0-9_.-]", "_") + ".map"), durable);
+    }
+
+    /**
+     * 直接打开指定文件，不经过RePluginConfig（供基准测试使用）
+     */
+    static MappedPref open(File f, boolean durable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            return new MappedPref(raf, durable);
+        } catch (IOException e) {
+            CloseableUtils.closeQuietly(raf);
+            throw e;
+        }
+    }
+
+    private MappedPref(RandomAccessFile file, boolean durable) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mDurable = durable;
+        FileLock lock = mChannel.lock();
+        try {
+            if (mFile.length() < INITIAL_SIZE) {
+                mFile.setLength(INITIAL_SIZE);
+            }
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mFile.length());
+            if (mBuffer.getInt(0) != MAGIC) {
+                writeLocked(new HashMap<String, String>());
+                mBuffer.putInt(0, MAGIC);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    public synchronized String get(String key, String defValue) {
+        HashMap<String, String> map = read();
+        if (map.containsKey(key)) {
+            return map.get(key);
+        }
+        return defValue;
+    }
+
+    public synchronized Map<String, String> getAll() {
+        return new HashMap<>(read());
+    }
+
+    /**
+     * 与Bundle.putString一致：value为null时保存null（之后get返回null而不是defValue）
+     */
+    public synchronized void set(String key, String value) {
+        HashMap<String, String> values = new HashMap<>(1);
+        values.put(key, value);
+        setAll(values, false);
+    }
+
+    public synchronized void remove(String key) {
+        HashMap<String, String> values = new HashMap<>(1);
+        values.put(key, null);
+        setAll(values, true);
+    }
+
+    /**
+     * 在一次写入中修改多项
+     *
+     * @param nullAsRemove 为true时value为null的项被删除（与SharedPreferences一致），否则保存null（与Bundle一致）
+     */
+    public synchronized void setAll(Map<String, String> values, boolean nullAsRemove) {
+        FileLock lock = null;
+        try {
+            lock = mChannel.lock();
+            HashMap<String, String> map = new HashMap<>(readLocked());
+            for (Map.Entry<String, String> e : values.entrySet()) {
+                if (e.getValue() == null && nullAsRemove) {
+                    map.remove(e.getKey());
+                } else {
+                    map.put(e.getKey(), e.getValue());
+                }
+            }
+            writeLocked(map);
+            if (mDurable) {
+                mBuffer.force();
+            }
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "mp.s: " + e.getMessage(), e);
+            }
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * 无锁读：seq未变化时直接返回缓存
+     */
+    private HashMap<String, String> read() {
+        for (int i = 0; i < READ_RETRY; i++) {
+            int seq = mBuffer.getInt(OFFSET_SEQ);
+            if (seq == mSeq && mCache != null) {
+                return mCache;
+            }
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            int length = mBuffer.getInt(OFFSET_LENGTH);
+            int crc = mBuffer.getInt(OFFSET_CRC);
+            if (length < 0 || HEADER_SIZE + length > mBuffer.capacity()) {
+                // 其它进程扩大了文件
+                if (!remap()) {
+                    break;
+                }
+                continue;
+            }
+            byte[] payload = copyPayload(length);
+            if (mBuffer.getInt(OFFSET_SEQ) != seq || crc(payload) != crc) {
+                continue;
+            }
+            HashMap<String, String> map = decode(payload);
+            if (map != null) {
+                mCache = map;
+                mSeq = seq;
+                return map;
+            }
+        }
+
+        if (LOG) {
+            LogDebug.d(TAG, "read: fallback to file lock");
+        }
+        FileLock lock = null;
+        try {
+            lock = mChannel.lock();
+            return readLocked();
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "mp.r: " + e.getMessage(), e);
+            }
+            return mCache != null ? mCache : new HashMap<String, String>();
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * 持有文件锁时读取。写入方中途被杀时seq会停在奇数，此时以crc为准并修正seq；crc也不对则重置为空表
+     */
+    private HashMap<String, String> readLocked() throws IOException {
+        int seq = mBuffer.getInt(OFFSET_SEQ);
+        if (seq == mSeq && mCache != null) {
+            return mCache;
+        }
+        int length = mBuffer.getInt(OFFSET_LENGTH);
+        if (length >= 0 && HEADER_SIZE + length > mBuffer.capacity()) {
+            remap();
+        }
+        HashMap<String, String> map = null;
+        if (length >= 0 && HEADER_SIZE + length <= mBuffer.capacity()) {
+            byte[] payload = copyPayload(length);
+            if (crc(payload) == mBuffer.getInt(OFFSET_CRC)) {
+                map = decode(payload);
+            }
+        }
+        if (map == null) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "mp.rl: corrupted, reset");
+            }
+            map = new HashMap<>();
+            writeLocked(map);
+            return map;
+        }
+        if ((seq & 1) != 0) {
+            seq++;
+            mBuffer.putInt(OFFSET_SEQ, seq);
+        }
+        mCache = map;
+        mSeq = seq;
+        return map;
+    }
+
+    private void writeLocked(HashMap<String, String> map) throws IOException {
+        byte[] payload = encode(map);
+        if (HEADER_SIZE + payload.length > mBuffer.capacity()) {
+            long size = mFile.length();
+            while (size < HEADER_SIZE + payload.length) {
+                size *= 2;
+            }
+            mFile.setLength(size);
+            remap();
+        }
+        int odd = mBuffer.getInt(OFFSET_SEQ) | 1;
+        mBuffer.putInt(OFFSET_SEQ, odd);
+        mBuffer.putInt(OFFSET_LENGTH, payload.length);
+        mBuffer.putInt(OFFSET_CRC, crc(payload));
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(HEADER_SIZE);
+        buffer.put(payload);
+        mBuffer.putInt(OFFSET_SEQ, odd + 1);
+        mCache = map;
+        mSeq = odd + 1;
+    }
+
+    private boolean remap() {
+        try {
+            long size = mFile.length();
+            if (size > mBuffer.capacity()) {
+                mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            return true;
+        } catch (IOException e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "mp.m: " + e.getMessage(), e);
+            }
+            return false;
+        }
+    }
+
+    private byte[] copyPayload(int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(HEADER_SIZE);
+        buffer.get(payload);
+        return payload;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(HashMap<String, String> map) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeBoolean(e.getValue() != null);
+            if (e.getValue() != null) {
+                out.writeUTF(e.getValue());
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static HashMap<String, String> decode(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            int count = in.readInt();
+            HashMap<String, String> map = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                map.put(key, in.readBoolean() ? in.readUTF() : null);
+            }
+            return map;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
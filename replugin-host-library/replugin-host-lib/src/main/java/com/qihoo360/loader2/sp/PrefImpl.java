@@ -17,20 +17,66 @@
 package com.qihoo360.loader2.sp;
 
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.RemoteException;
 
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.helper.LogDebug;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
 
 /**
+ * 开启 RePluginConfig.setMappedPrefEnabled 后，各category优先存放在内存映射文件（MappedPref）中。
+ * 此时非常驻进程也会使用本地的PrefImpl直接读写文件，只有文件打开失败时才通过RemoteGetter获取常驻进程的IPref并调用 <p>
+ * 常驻进程中RemoteGetter为null，文件打开失败时使用内存中的Bundle
+ *
  * @author RePlugin Team
  */
 public final class PrefImpl extends IPref.Stub {
 
+    /**
+     * 获取常驻进程中的IPref。只在内存映射文件打开失败、需要回退时才会调用
+     */
+    public interface RemoteGetter {
+        IPref get() throws RemoteException;
+    }
+
+    private final RemoteGetter mRemoteGetter;
+
+    private IPref mRemote;
+
+    public PrefImpl() {
+        this(null);
+    }
+
+    public PrefImpl(RemoteGetter remoteGetter) {
+        mRemoteGetter = remoteGetter;
+    }
+
+    private synchronized IPref getRemote() throws RemoteException {
+        if (mRemote == null && mRemoteGetter != null) {
+            mRemote = mRemoteGetter.get();
+        }
+        return mRemote;
+    }
+
+    private final BinderTracer.SuperTransact mSuperTransact = new BinderTracer.SuperTransact() {
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            return PrefImpl.super.onTransact(code, data, reply, flags);
+        }
+    };
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact);
+    }
+
     HashMap<String, Bundle> mBundles = new HashMap<String, Bundle>();
 
     private Bundle load(String category) {
@@ -46,6 +92,14 @@ public final class PrefImpl extends IPref.Stub {
 
     @Override
     public String get(String category, String key, String defValue) throws RemoteException {
+        MappedPref m = MappedPref.get(category);
+        if (m != null) {
+            return m.get(key, defValue);
+        }
+        IPref remote = getRemote();
+        if (remote != null) {
+            return remote.get(category, key, defValue);
+        }
         Bundle bundle = load(category);
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "get: category=" + category + " bundle=" + bundle + " key=" + key);
@@ -58,6 +112,16 @@ public final class PrefImpl extends IPref.Stub {
 
     @Override
     public void set(String category, String key, String value) throws RemoteException {
+        MappedPref m = MappedPref.get(category);
+        if (m != null) {
+            m.set(key, value);
+            return;
+        }
+        IPref remote = getRemote();
+        if (remote != null) {
+            remote.set(category, key, value);
+            return;
+        }
         Bundle bundle = load(category);
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "set: category=" + category + " bundle=" + bundle + " key=" + key + " value=" + value);
@@ -67,6 +131,18 @@ public final class PrefImpl extends IPref.Stub {
 
     @Override
     public Bundle getAll(String category) throws RemoteException {
+        MappedPref m = MappedPref.get(category);
+        if (m != null) {
+            Bundle bundle = new Bundle();
+            for (Map.Entry<String, String> e : m.getAll().entrySet()) {
+                bundle.putString(e.getKey(), e.getValue());
+            }
+            return bundle;
+        }
+        IPref remote = getRemote();
+        if (remote != null) {
+            return remote.getAll(category);
+        }
         Bundle bundle = load(category);
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "getAll: category=" + category + " bundle=" + bundle);
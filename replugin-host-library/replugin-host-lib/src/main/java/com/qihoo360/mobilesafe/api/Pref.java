@@ -19,6 +19,7 @@ package com.qihoo360.mobilesafe.api;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.qihoo360.loader2.sp.MappedPref;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.RePluginInternal;
 
@@ -48,18 +49,54 @@ public final class Pref {
 
     public static final String PREF_TEMP_FILE_PACM = "plugins_PACM";
 
+    // 开启 RePluginConfig.setMappedPrefEnabled 后，以下方法优先读写内存映射文件，打开失败时仍使用SharedPreferences
+
     public static String ipcGet(String key, String defValue) {
+        MappedPref m = MappedPref.get(PREF_TEMP_FILE_PACM);
+        if (m != null) {
+            return m.get(key, defValue);
+        }
         SharedPreferences x = getTempSharedPreferences(PREF_TEMP_FILE_PACM);
         String v = x.getString(key, defValue);
         return v;
     }
 
     public static void ipcSet(String key, String value) {
+        MappedPref m = MappedPref.get(PREF_TEMP_FILE_PACM);
+        if (m != null) {
+            // 与SharedPreferences一致：value为null时删除
+            if (value != null) {
+                m.set(key, value);
+            } else {
+                m.remove(key);
+            }
+            return;
+        }
         SharedPreferences x = Pref.getTempSharedPreferences(PREF_TEMP_FILE_PACM);
         x.edit().putString(key, value).commit();
     }
 
+    /**
+     * 一次提交多个键值，供后台线程批量写回
+     */
+    public static void ipcSetAll(Map<String, String> values) {
+        MappedPref m = MappedPref.get(PREF_TEMP_FILE_PACM);
+        if (m != null) {
+            m.setAll(values, true);
+            return;
+        }
+        SharedPreferences.Editor editor = Pref.getTempSharedPreferences(PREF_TEMP_FILE_PACM).edit();
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            editor.putString(e.getKey(), e.getValue());
+        }
+        editor.commit();
+    }
+
     public static Map<String, ?> ipcGetAll() {
+        MappedPref m = MappedPref.get(PREF_TEMP_FILE_PACM);
+        if (m != null) {
+            return m.getAll();
+        }
         SharedPreferences x = Pref.getTempSharedPreferences(PREF_TEMP_FILE_PACM);
         Map<String, ?> a = x.getAll();
         return a;
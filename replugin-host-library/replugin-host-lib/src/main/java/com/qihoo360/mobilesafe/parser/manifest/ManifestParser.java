@@ -20,12 +20,15 @@ import android.content.IntentFilter;
 import android.os.PatternMatcher;
 
 import com.qihoo360.mobilesafe.parser.manifest.bean.ComponentBean;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
+import com.qihoo360.replugin.ext.parser.AbstractApkParser;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.model.PluginInfo;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -72,19 +75,27 @@ public enum ManifestParser {
      * @param manifestStr AndroidManifest.xml 字符串
      */
     public void parse(PluginInfo pli, String manifestStr) {
-        XmlHandler handler = parseManifest(manifestStr);
+        parse(pli, parseManifestBean(manifestStr));
+    }
 
+    /**
+     * 使用已解析好的组件信息（如来自安装时生成的快照），生成组件与 IntentFilter 的对应关系
+     *
+     * @param pli      插件信息
+     * @param manifest 已解析好的组件信息
+     */
+    public void parse(PluginInfo pli, ManifestBean manifest) {
         Map<String, List<IntentFilter>> activityFilterMap = new HashMap<>();
         putToMap(mPluginActivityInfoMap, activityFilterMap, pli);
-        parseComponent(pli.getName(), activityFilterMap, handler.getActivities(), mActivityActionPluginsMap);
+        parseComponent(pli.getName(), activityFilterMap, manifest.activities, mActivityActionPluginsMap);
 
         Map<String, List<IntentFilter>> serviceFilterMap = new HashMap<>();
         putToMap(mPluginServiceInfoMap, serviceFilterMap, pli);
-        parseComponent(pli.getName(), serviceFilterMap, handler.getServices(), mServiceActionPluginsMap);
+        parseComponent(pli.getName(), serviceFilterMap, manifest.services, mServiceActionPluginsMap);
 
         Map<String, List<IntentFilter>> receiverFilterMap = new HashMap<>();
         putToMap(mPluginReceiverInfoMap, receiverFilterMap, pli);
-        parseComponent(pli.getName(), receiverFilterMap, handler.getReceivers(), null);
+        parseComponent(pli.getName(), receiverFilterMap, manifest.receivers, null);
 
         /* 打印日志 */
         if (LOG) {
@@ -186,6 +197,33 @@ public enum ManifestParser {
         return mPluginReceiverInfoMap.get(plugin);
     }
 
+    /**
+     * 解析 AndroidManifest，只取出带有 IntentFilter 的组件，不做任何注册
+     *
+     * @param manifestStr AndroidManifest 内容
+     * @return 组件信息
+     */
+    public ManifestBean parseManifestBean(String manifestStr) {
+        XmlHandler handler = parseManifest(manifestStr);
+        ManifestBean bean = new ManifestBean();
+        bean.activities = handler.getActivities();
+        bean.services = handler.getServices();
+        bean.receivers = handler.getReceivers();
+        return bean;
+    }
+
+    /**
+     * 直接从 APK 中的二进制 AndroidManifest 解析出带有 IntentFilter 的组件，不经过 XML 文本
+     *
+     * @param parser APK 解析器
+     * @return 组件信息
+     */
+    public ManifestBean parseManifestBean(AbstractApkParser parser) throws IOException {
+        ManifestStreamer streamer = new ManifestStreamer();
+        parser.streamManifestXml(streamer);
+        return streamer.getManifest();
+    }
+
     /**
      * 将 manifest 中的数据存储在 XmlHandler 中
      *
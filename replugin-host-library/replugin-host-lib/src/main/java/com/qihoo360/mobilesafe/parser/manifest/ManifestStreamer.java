@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.mobilesafe.parser.manifest;
+
+import android.content.IntentFilter;
+
+import com.qihoo360.mobilesafe.parser.manifest.bean.ComponentBean;
+import com.qihoo360.mobilesafe.parser.manifest.bean.DataBean;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
+import com.qihoo360.replugin.ext.parser.parser.XmlStreamer;
+import com.qihoo360.replugin.ext.parser.struct.xml.Attribute;
+import com.qihoo360.replugin.ext.parser.struct.xml.Attributes;
+import com.qihoo360.replugin.ext.parser.struct.xml.XmlNamespaceEndTag;
+import com.qihoo360.replugin.ext.parser.struct.xml.XmlNamespaceStartTag;
+import com.qihoo360.replugin.ext.parser.struct.xml.XmlNodeEndTag;
+import com.qihoo360.replugin.ext.parser.struct.xml.XmlNodeStartTag;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直接由二进制 AndroidManifest 的解析事件生成组件信息 <p>
+ * 与 XmlHandler 的处理逻辑一致，但省去了“二进制 -> XML 文本 -> SAX 解析”的中间过程
+ *
+ * @author RePlugin Team
+ */
+class ManifestStreamer implements XmlStreamer {
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private final ManifestBean manifest = new ManifestBean();
+
+    private String pkg;
+    private ComponentBean curComponent;
+    private IntentFilter curFilter;
+    private List<DataBean> curDataBeans;
+
+    ManifestBean getManifest() {
+        return manifest;
+    }
+
+    @Override
+    public void onStartTag(XmlNodeStartTag tag) {
+        Attributes attrs = tag.getAttributes();
+        switch (tag.getName()) {
+            case "manifest":
+                pkg = getAttr(attrs, null, "package");
+                break;
+
+            case "activity":
+                if (manifest.activities == null) {
+                    manifest.activities = new ArrayList<>();
+                }
+                startComponent(attrs);
+                break;
+
+            case "service":
+                if (manifest.services == null) {
+                    manifest.services = new ArrayList<>();
+                }
+                startComponent(attrs);
+                break;
+
+            case "receiver":
+                if (manifest.receivers == null) {
+                    manifest.receivers = new ArrayList<>();
+                }
+                startComponent(attrs);
+                break;
+
+            case "intent-filter":
+                if (curComponent != null) {
+                    curFilter = new IntentFilter();
+                    curComponent.intentFilters.add(curFilter);
+                }
+                break;
+
+            case "action":
+                // action、category 与添加顺序无关，直接添加到当前 filter 中
+                if (curFilter != null) {
+                    curFilter.addAction(getAttr(attrs, ANDROID_NS, "name"));
+                }
+                break;
+
+            case "category":
+                if (curFilter != null) {
+                    curFilter.addCategory(getAttr(attrs, ANDROID_NS, "name"));
+                }
+                break;
+
+            case "data":
+                if (curDataBeans == null) {
+                    curDataBeans = new ArrayList<>();
+                }
+                DataBean bean = new DataBean();
+                bean.scheme = getAttr(attrs, ANDROID_NS, "scheme");
+                bean.mimeType = getAttr(attrs, ANDROID_NS, "mimeType");
+                bean.host = getAttr(attrs, ANDROID_NS, "host");
+                bean.port = getAttr(attrs, ANDROID_NS, "port");
+                bean.path = getAttr(attrs, ANDROID_NS, "path");
+                bean.pathPattern = getAttr(attrs, ANDROID_NS, "pathPattern");
+                bean.pathPrefix = getAttr(attrs, ANDROID_NS, "pathPrefix");
+
+                curDataBeans.add(bean);
+                break;
+        }
+    }
+
+    @Override
+    public void onEndTag(XmlNodeEndTag tag) {
+        switch (tag.getName()) {
+            case "intent-filter":
+                // data 需在 scheme、authority、path 全部读完后按顺序添加，故仍放到最后统一处理
+                if (curFilter != null && curDataBeans != null) {
+                    for (DataBean bean : curDataBeans) {
+                        XmlHandler.addData(curFilter, bean);
+                    }
+                }
+                curFilter = null;
+                curDataBeans = null;
+                break;
+            case "activity":
+                endComponent(manifest.activities);
+                break;
+            case "service":
+                endComponent(manifest.services);
+                break;
+            case "receiver":
+                endComponent(manifest.receivers);
+                break;
+        }
+    }
+
+    @Override
+    public void onNamespaceStart(XmlNamespaceStartTag tag) {
+        // 按 URI 匹配属性，无需维护前缀
+    }
+
+    @Override
+    public void onNamespaceEnd(XmlNamespaceEndTag tag) {
+        // 同上
+    }
+
+    private void startComponent(Attributes attrs) {
+        curComponent = new ComponentBean();
+        curComponent.intentFilters = new ArrayList<>();
+        curComponent.name = repairAttrName(getAttr(attrs, ANDROID_NS, "name"));
+    }
+
+    private void endComponent(List<ComponentBean> list) {
+        if (curComponent != null) {
+            list.add(curComponent);
+            curComponent = null;
+        }
+    }
+
+    /**
+     * 按命名空间和属性名查找属性值 <p>
+     * 部分加固或处理过的 APK，属性名来自资源表而没有命名空间，此时只按属性名匹配
+     *
+     * @param ns   命名空间 URI，为 null 表示不带命名空间的属性（如 package）
+     * @param name 属性名
+     */
+    private static String getAttr(Attributes attrs, String ns, String name) {
+        if (attrs == null) {
+            return null;
+        }
+        for (Attribute attr : attrs.value()) {
+            if (attr == null || !name.equals(attr.getName())) {
+                continue;
+            }
+            String attrNs = attr.getNamespace();
+            if (attrNs == null || attrNs.equals(ns)) {
+                return attr.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 如果 android:name 中未包含 pkg，则添加 pkg
+     */
+    private String repairAttrName(String val) {
+        if (val == null || !val.startsWith(".")) {
+            return val;
+        } else {
+            return (pkg + val).intern();
+        }
+    }
+}
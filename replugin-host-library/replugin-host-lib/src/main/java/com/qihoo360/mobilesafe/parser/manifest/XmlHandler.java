@@ -153,25 +153,7 @@ class XmlHandler extends DefaultHandler {
 
                 if (curDataBeans != null) {
                     for (DataBean bean : curDataBeans) {
-                        if (!TextUtils.isEmpty(bean.scheme)) {
-                            curFilter.addDataScheme(bean.scheme);
-                        }
-
-                        if (!TextUtils.isEmpty(bean.host) && !TextUtils.isEmpty(bean.port)) {
-                            curFilter.addDataAuthority(bean.host, bean.port);
-                        }
-
-                        if (!TextUtils.isEmpty(bean.path)) {
-                            curFilter.addDataPath(bean.path, bean.getPatternMatcherType());
-                        }
-
-                        try {
-                            if (!TextUtils.isEmpty(bean.mimeType)) {
-                                curFilter.addDataType(bean.mimeType);
-                            }
-                        } catch (IntentFilter.MalformedMimeTypeException e) {
-                            e.printStackTrace();
-                        }
+                        addData(curFilter, bean);
                     }
                 }
 
@@ -191,6 +173,31 @@ class XmlHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * 将 data 标签的内容添加到 IntentFilter 中
+     */
+    static void addData(IntentFilter filter, DataBean bean) {
+        if (!TextUtils.isEmpty(bean.scheme)) {
+            filter.addDataScheme(bean.scheme);
+        }
+
+        if (!TextUtils.isEmpty(bean.host) && !TextUtils.isEmpty(bean.port)) {
+            filter.addDataAuthority(bean.host, bean.port);
+        }
+
+        if (!TextUtils.isEmpty(bean.path)) {
+            filter.addDataPath(bean.path, bean.getPatternMatcherType());
+        }
+
+        try {
+            if (!TextUtils.isEmpty(bean.mimeType)) {
+                filter.addDataType(bean.mimeType);
+            }
+        } catch (IntentFilter.MalformedMimeTypeException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 如果 android:name 中未包含 pkg，则添加 pkg
      *
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.mobilesafe.parser.manifest.bean;
+
+import java.util.List;
+
+/**
+ * AndroidManifest 中解析出的、带有 IntentFilter 的组件
+ *
+ * @author RePlugin Team
+ */
+public class ManifestBean {
+
+    public List<ComponentBean> activities;
+    public List<ComponentBean> services;
+    public List<ComponentBean> receivers;
+
+    @Override
+    public String toString() {
+        return String.format("{activities:%s, services:%s, receivers:%s}", activities, services, receivers);
+    }
+}
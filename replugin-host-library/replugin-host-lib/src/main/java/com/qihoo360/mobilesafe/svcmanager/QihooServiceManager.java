@@ -30,10 +30,7 @@ import com.qihoo360.mobilesafe.core.BuildConfig;
 import com.qihoo360.replugin.IBinderGetter;
 import com.qihoo360.replugin.base.IPC;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
 
 /**
  * 方便的以同步调用的方式获取一个服务实现的接口类
@@ -48,16 +45,16 @@ public final class QihooServiceManager {
 
     private static Uri sServiceChannelUri = null;
 
-    private static IServiceChannel sServerChannel;
+    private static volatile IServiceChannel sServerChannel;
 
-    private static Map<String, SoftReference<IBinder>> sCache;
+    /**
+     * 已获取过的服务缓存 <p>
+     * 强引用持有，远程Binder通过linkToDeath在对端死亡时自动移除，因此命中缓存时无需再pingBinder（一次完整的IPC）
+     */
+    private static final HashMap<String, CacheEntry> sCache = new HashMap<>();
 
     private static final IBinder PROCESS_DEATH_AGENT = new Binder();
 
-    static {
-        sCache = Collections.synchronizedMap(new HashMap<String, SoftReference<IBinder>>());
-    }
-
     /**
      * 获取已注册服务的IBinder对象，前提是该服务是静态服务，即默认一直存在，或者自己已经启动并且向我们注册过；
      * 注意不能通过此借口获取一个插件的服务，除非明确知道该插件的服务已经主动注册过，否则使用getPluginService()
@@ -74,22 +71,18 @@ public final class QihooServiceManager {
         IBinder service = null;
 
         /**
-         * 先考虑本地缓存
+         * 先考虑本地缓存。死亡的Binder已由CacheEntry.binderDied移除，故这里只需查表
          */
-        SoftReference<IBinder> ref = sCache.get(serviceName);
-        if (ref != null) {
-            service = ref.get();
-            if (service != null) {
-                if (service.isBinderAlive() && service.pingBinder()) {
-                    if (DEBUG) {
-                        Log.d(TAG, "[getService] Found service from cache: " + serviceName);
-                        Log.d(TAG, "[getService] end = " + SystemClock.elapsedRealtime());
-                    }
-                    return service;
-                } else {
-                    sCache.remove(serviceName);
-                }
+        CacheEntry entry;
+        synchronized (sCache) {
+            entry = sCache.get(serviceName);
+        }
+        if (entry != null) {
+            if (DEBUG) {
+                Log.d(TAG, "[getService] Found service from cache: " + serviceName);
+                Log.d(TAG, "[getService] end = " + SystemClock.elapsedRealtime());
             }
+            return entry.service;
         }
 
         IServiceChannel serviceChannel = getServerChannel(context);
@@ -104,8 +97,7 @@ public final class QihooServiceManager {
                 if (DEBUG) {
                     Log.d(TAG, "[getService] Found service from remote service channel: " + serviceName);
                 }
-                service = ServiceWrapper.factory(context, serviceName, service);
-                sCache.put(serviceName, new SoftReference<IBinder>(service));
+                service = putCache(context, serviceName, service);
             }
         } catch (RemoteException e) {
             if (DEBUG) {
@@ -133,6 +125,7 @@ public final class QihooServiceManager {
             return false;
         }
 
+        evictService(serviceName);
         try {
             serviceChannel.addService(serviceName, service);
         } catch (RemoteException e) {
@@ -156,6 +149,7 @@ public final class QihooServiceManager {
             return false;
         }
 
+        evictService(serviceName);
         try {
             serviceChannel.addServiceDelayed(serviceName, getter);
         } catch (RemoteException e) {
@@ -179,6 +173,7 @@ public final class QihooServiceManager {
             return false;
         }
 
+        evictService(serviceName);
         try {
             serviceChannel.removeService(serviceName);
         } catch (RemoteException e) {
@@ -189,6 +184,56 @@ public final class QihooServiceManager {
         return true;
     }
 
+    /**
+     * 从本地缓存中移除某个服务，下次getService时会重新向常驻进程获取 <p>
+     * 远程服务死亡时会自动移除，通常只有在服务被替换（如重新addService）时才需要主动调用
+     *
+     * @param serviceName 要移除的service名称
+     * @since 3.1.0
+     */
+    public static void evictService(String serviceName) {
+        CacheEntry entry;
+        synchronized (sCache) {
+            entry = sCache.remove(serviceName);
+        }
+        if (entry != null) {
+            entry.unlink();
+        }
+    }
+
+    /**
+     * 清空本地的服务缓存
+     *
+     * @since 3.1.0
+     */
+    public static void evictAllServices() {
+        CacheEntry[] entries;
+        synchronized (sCache) {
+            entries = sCache.values().toArray(new CacheEntry[sCache.size()]);
+            sCache.clear();
+        }
+        for (CacheEntry entry : entries) {
+            entry.unlink();
+        }
+    }
+
+    private static IBinder putCache(Context context, String serviceName, IBinder binder) {
+        IBinder service = ServiceWrapper.factory(context, serviceName, binder);
+        CacheEntry entry = new CacheEntry(serviceName, binder, service);
+        if (!entry.link()) {
+            // 已经死了，不缓存
+            return service;
+        }
+        CacheEntry old;
+        synchronized (sCache) {
+            old = sCache.put(serviceName, entry);
+        }
+        if (old != null) {
+            old.unlink();
+        }
+        return service;
+    }
+
     /**
      * 请求一个由plugin实现的service的实现对象，如果需要的话会启动该plugin的进程。
      * 请求的过程由于可能初始化新的插件进程可能会比较耗时，因此不要再UI线程调用。
@@ -233,8 +278,10 @@ public final class QihooServiceManager {
             Log.d(TAG, "[getServerChannel] begin = " + SystemClock.elapsedRealtime());
         }
 
-        if (sServerChannel != null && sServerChannel.asBinder().isBinderAlive() && sServerChannel.asBinder().pingBinder()) {
-            return sServerChannel;
+        // 常驻进程死亡时由SERVER_CHANNEL_DEATH置空，故无需每次pingBinder
+        IServiceChannel channel = sServerChannel;
+        if (channel != null) {
+            return channel;
         }
 
         /*
@@ -256,7 +303,10 @@ public final class QihooServiceManager {
             cursor = context.getContentResolver().query(getServiceChannelUri(), null, null, null, null);
             IBinder binder = ServiceChannelCursor.getBinder(cursor);
             serviceChannel = IServiceChannel.Stub.asInterface(binder);
-            sServerChannel = serviceChannel;
+            if (binder != null) {
+                binder.linkToDeath(SERVER_CHANNEL_DEATH, 0);
+                sServerChannel = serviceChannel;
+            }
         } catch (Exception e) {
             if (DEBUG) {
                 Log.e(TAG, "Error fetching service manager binder object using provider: ", e);
@@ -300,4 +350,65 @@ public final class QihooServiceManager {
             }
         }
     }
+
+    private static final IBinder.DeathRecipient SERVER_CHANNEL_DEATH = new IBinder.DeathRecipient() {
+        @Override
+        public void binderDied() {
+            if (DEBUG) {
+                Log.d(TAG, "[binderDied] server channel");
+            }
+            sServerChannel = null;
+        }
+    };
+
+    /**
+     * 缓存项。监听原始Binder的死亡，死亡时只移除自己（避免误删已被替换的新缓存项）
+     */
+    private static final class CacheEntry implements IBinder.DeathRecipient {
+
+        final String name;
+
+        final IBinder binder;
+
+        final IBinder service;
+
+        CacheEntry(String name, IBinder binder, IBinder service) {
+            this.name = name;
+            this.binder = binder;
+            this.service = service;
+        }
+
+        boolean link() {
+            try {
+                // 本进程的Binder不会单独死亡，linkToDeath为空实现
+                binder.linkToDeath(this, 0);
+                return true;
+            } catch (RemoteException e) {
+                if (DEBUG) {
+                    Log.d(TAG, "[link] service already dead: " + name, e);
+                }
+                return false;
+            }
+        }
+
+        void unlink() {
+            try {
+                binder.unlinkToDeath(this, 0);
+            } catch (Throwable e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public void binderDied() {
+            if (DEBUG) {
+                Log.d(TAG, "[binderDied] " + name);
+            }
+            synchronized (sCache) {
+                if (sCache.get(name) == this) {
+                    sCache.remove(name);
+                }
+            }
+        }
+    }
 }
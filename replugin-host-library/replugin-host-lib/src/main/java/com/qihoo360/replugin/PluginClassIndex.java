@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin;
+
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.utils.CloseableUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 插件的类索引，由 replugin-plugin-gradle 在编译时生成并打入APK <p>
+ * 内容为插件中所有类名的 String.hashCode()，排好序后二分查找。有哈希冲突时只会“多认”，不会“漏认”： <p>
+ * 1、不在索引中的类，一定不是插件自己的类，可直接交给宿主 <p>
+ * 2、在索引中的类，很可能是插件自己的类，可直接在插件Dex中查找，找不到再走原有流程 <p>
+ * 文件格式（大端）：[MAGIC][VERSION][COUNT][hash * COUNT]，须与 gradle 插件中的 ClassIndexWriter 保持一致
+ *
+ * @author RePlugin Team
+ */
+final class PluginClassIndex {
+
+    private static final String TAG = "PluginClassIndex";
+
+    /**
+     * 索引在APK中的位置
+     */
+    static final String ENTRY_NAME = "replugin/class_index";
+
+    private static final int MAGIC = 0x52504349; // "RPCI"
+
+    private static final int VERSION = 1;
+
+    /**
+     * 由BootClassLoader提供的类的前缀。这些类即便插件中也有，也必须以系统的为准，故不走“直接查插件Dex”的捷径
+     */
+    private static final String[] PLATFORM_PREFIXES = {
+            "java.", "javax.", "dalvik.", "android.", "org.json.", "org.apache.http.", "org.w3c.", "org.xml.", "org.xmlpull."
+    };
+
+    private final int[] mHashes;
+
+    private PluginClassIndex(int[] hashes) {
+        mHashes = hashes;
+    }
+
+    /**
+     * 从插件APK中读取类索引
+     *
+     * @param apkPath 插件APK路径
+     * @return 类索引。若插件没有索引（如旧版gradle插件编译）或读取失败，则返回null
+     */
+    static PluginClassIndex read(String apkPath) {
+        ZipFile zip = null;
+        DataInputStream in = null;
+        try {
+            zip = new ZipFile(apkPath);
+            ZipEntry entry = zip.getEntry(ENTRY_NAME);
+            if (entry == null) {
+                return null;
+            }
+            in = new DataInputStream(new BufferedInputStream(zip.getInputStream(entry)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            int[] hashes = new int[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = in.readInt();
+            }
+            if (LogDebug.LOG) {
+                LogDebug.d(TAG, "read: count=" + count + "; apk=" + apkPath);
+            }
+            return new PluginClassIndex(hashes);
+        } catch (Throwable e) {
+            if (LogDebug.LOG) {
+                LogDebug.e(TAG, "read: fail. apk=" + apkPath, e);
+            }
+            return null;
+        } finally {
+            CloseableUtils.closeQuietly(in);
+            CloseableUtils.closeQuietly(zip);
+        }
+    }
+
+    /**
+     * @param className 类名，如 a.b.C$D
+     * @return 是否可能是插件自己的类。返回false时，一定不是
+     */
+    boolean mightContain(String className) {
+        return Arrays.binarySearch(mHashes, className.hashCode()) >= 0;
+    }
+
+    /**
+     * 是否为系统（BootClassLoader）提供的类
+     */
+    static boolean isPlatformClass(String className) {
+        for (String prefix : PLATFORM_PREFIXES) {
+            if (className.startsWith(prefix) && !className.startsWith("android.support.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -56,6 +56,11 @@ public class PluginDexClassLoader extends DexClassLoader {
 
     private String mPluginName;
 
+    /**
+     * 编译时生成的插件类索引，可能为null（旧插件没有索引）
+     */
+    private final PluginClassIndex mClassIndex;
+
     /**
      * 初始化插件的DexClassLoader的构造函数。插件化框架会调用此函数。
      *
@@ -86,6 +91,8 @@ public class PluginDexClassLoader extends DexClassLoader {
         }
 
         initMethods(mHostClassLoader);
+
+        mClassIndex = PluginClassIndex.read(dexPath);
     }
 
     private static void initMethods(ClassLoader cl) {
@@ -100,6 +107,14 @@ public class PluginDexClassLoader extends DexClassLoader {
 
     @Override
     protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+        // 有类索引时，先按索引直接分流，省去“先查插件、失败后再查宿主”所抛出的异常
+        if (mClassIndex != null) {
+            Class<?> c = loadClassByIndex(className, resolve);
+            if (c != null) {
+                return c;
+            }
+        }
+
         // 插件自己的Class。从自己开始一直到BootClassLoader，采用正常的双亲委派模型流程，读到了就直接返回
         Class<?> pc = null;
         ClassNotFoundException cnfException = null;
@@ -152,6 +167,34 @@ public class PluginDexClassLoader extends DexClassLoader {
         return null;
     }
 
+    /**
+     * 根据类索引直接分流：索引命中的类直接在插件Dex中查找 <p>
+     * 系统类仍走双亲委派；未命中或分流失败时返回null，由调用方走原有流程（先插件、后宿主）
+     */
+    private Class<?> loadClassByIndex(String className, boolean resolve) {
+        if (PluginClassIndex.isPlatformClass(className)) {
+            return null;
+        }
+        if (mClassIndex.mightContain(className)) {
+            Class<?> c = findLoadedClass(className);
+            if (c == null) {
+                try {
+                    c = findClass(className);
+                } catch (ClassNotFoundException e) {
+                    // 哈希冲突，实际不在插件中
+                    return null;
+                }
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+        // 未命中：索引由混淆/Dex化之前的产物生成，可能与最终Dex中的类名不一致（如混淆后与宿主类重名）
+        // 因此不能据此直接交给宿主，仍需走原有流程，先查插件Dex，再按开关决定是否查宿主
+        return null;
+    }
+
     private Class<?> loadClassFromHost(String className, boolean resolve) throws ClassNotFoundException {
         Class<?> c;
         try {
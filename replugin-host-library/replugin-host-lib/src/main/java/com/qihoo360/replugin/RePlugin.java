@@ -44,6 +44,7 @@ import com.qihoo360.loader2.CertUtils;
 import com.qihoo360.loader2.DumpUtils;
 import com.qihoo360.loader2.MP;
 import com.qihoo360.loader2.PMF;
+import com.qihoo360.loader2.PluginPreloader;
 import com.qihoo360.loader2.PluginStatusController;
 import com.qihoo360.mobilesafe.api.AppVar;
 import com.qihoo360.mobilesafe.api.Tasks;
@@ -210,6 +211,26 @@ public class RePlugin {
         return PluginFastInstallProviderProxy.install(RePluginInternal.getAppContext(), pi);
     }
 
+    /**
+     * 在当前进程中并行、分阶段地预加载多个插件 <p>
+     * 各插件的 Info -> Resources -> Dex -> App 阶段会在有界线程池中流水线执行，
+     * 可通过返回的Task只等待“真正需要”的插件和阶段 <p>
+     * 注意： <p>
+     * 1、该方法为【异步】调用，会立即返回 <p>
+     * 2、若stage为PluginPreloader.STAGE_APP，则会运行插件的Entry和Application，与直接使用插件无异 <p>
+     * 3、STAGE_APP以下的阶段不会影响已注册的插件对象，只负责提前准备好缓存
+     *
+     * @param pluginNames 要加载的插件名列表，靠前的插件会被优先加载
+     * @param stage       要加载到的阶段，见PluginPreloader.STAGE_XXX
+     * @param cb          回调（运行在工作线程），可为null
+     * @return 每个插件对应的Task，顺序与pluginNames一致
+     * @see PluginPreloader
+     * @since 3.1.0
+     */
+    public static List<PluginPreloader.Task> preloadAsync(List<String> pluginNames, int stage, PluginPreloader.Callback cb) {
+        return PluginPreloader.preload(pluginNames, stage, cb);
+    }
+
     /**
      * 是否启用调试器,Debug阶段建议开启,Release阶段建议关闭,默认为关闭状态
      *
@@ -30,6 +30,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import dalvik.system.PathClassLoader;
 
@@ -49,6 +53,32 @@ public class RePluginClassLoader extends PathClassLoader {
 
     private static final String TAG = "RePluginClassLoader";
 
+    /**
+     * “已知不存在”的类最多记录多少个
+     */
+    private static final int MAX_MISSING_CLASSES = 256;
+
+    /**
+     * 已解析过的宿主类（PMF.loadClass未处理、由宿主自身加载的类）：类名 -> Class <p>
+     * 坑位类、动态类等不会放入此表，因为它们的解析结果会随插件状态变化
+     */
+    private static final Map<String, Class<?>> RESOLVED_CLASSES = new ConcurrentHashMap<>();
+
+    /**
+     * 已知找不到的类（LRU），避免每次都在宿主ClassLoader中抛出并吞掉ClassNotFoundException
+     */
+    private static final Map<String, Boolean> MISSING_CLASSES = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_MISSING_CLASSES;
+        }
+    };
+
+    /**
+     * 缓存的“代数”。每次清空缓存时加1，防止清空前开始的查找把旧结果写回来
+     */
+    private static final AtomicInteger CACHE_GENERATION = new AtomicInteger();
+
     private final ClassLoader mOrig;
 
     /**
@@ -146,8 +176,16 @@ public class RePluginClassLoader extends PathClassLoader {
 
     @Override
     protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+        // 先查缓存，命中则无需再走坑位、动态类的判断，也无需再抛一次异常
+        Class<?> c = RESOLVED_CLASSES.get(className);
+        if (c != null) {
+            return c;
+        }
+        if (isMissingClass(className)) {
+            throw new ClassNotFoundException(className);
+        }
+        int gen = CACHE_GENERATION.get();
         //
-        Class<?> c = null;
         c = PMF.loadClass(className, resolve);
         if (c != null) {
             return c;
@@ -159,12 +197,51 @@ public class RePluginClassLoader extends PathClassLoader {
             if (LogDebug.LOG && RePlugin.getConfig().isPrintDetailLog()) {
                 LogDebug.d(TAG, "loadClass: load other class, cn=" + className);
             }
+            putResolvedClass(gen, className, c);
             return c;
         } catch (Throwable e) {
             //
         }
         //
-        return super.loadClass(className, resolve);
+        try {
+            c = super.loadClass(className, resolve);
+            putResolvedClass(gen, className, c);
+            return c;
+        } catch (ClassNotFoundException e) {
+            putMissingClass(gen, className);
+            throw e;
+        }
+    }
+
+    /**
+     * 清空类的解析缓存。在插件安装/卸载、动态类注册/反注册时调用，框架内部使用
+     */
+    public static void clearResolutionCache() {
+        CACHE_GENERATION.incrementAndGet();
+        RESOLVED_CLASSES.clear();
+        synchronized (MISSING_CLASSES) {
+            MISSING_CLASSES.clear();
+        }
+    }
+
+    private static boolean isMissingClass(String className) {
+        synchronized (MISSING_CLASSES) {
+            return MISSING_CLASSES.get(className) != null;
+        }
+    }
+
+    private static void putResolvedClass(int gen, String className, Class<?> c) {
+        if (c != null && gen == CACHE_GENERATION.get()) {
+            RESOLVED_CLASSES.put(className, c);
+        }
+    }
+
+    private static void putMissingClass(int gen, String className) {
+        synchronized (MISSING_CLASSES) {
+            if (gen == CACHE_GENERATION.get()) {
+                MISSING_CLASSES.put(className, Boolean.TRUE);
+            }
+        }
     }
 
     @Override
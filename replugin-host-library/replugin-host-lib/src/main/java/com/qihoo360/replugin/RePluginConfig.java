@@ -36,6 +36,26 @@ import java.io.File;
 
 public final class RePluginConfig {
 
+    /**
+     * 插件产物缓存策略：只要还有插件在使用就保留（默认）
+     */
+    public static final int PLUGIN_CACHE_WEAK = 0;
+
+    /**
+     * 插件产物缓存策略：内存紧张时才回收
+     */
+    public static final int PLUGIN_CACHE_SOFT = 1;
+
+    /**
+     * 插件产物缓存策略：一直保留，直到插件被卸载
+     */
+    public static final int PLUGIN_CACHE_STRONG = 2;
+
+    /**
+     * 插件产物缓存策略：在字节预算内一直保留，超出后淘汰最久未使用的
+     */
+    public static final int PLUGIN_CACHE_LRU = 3;
+
     private RePluginCallbacks callbacks;
     private RePluginEventCallbacks eventCallbacks;
 
@@ -53,6 +73,14 @@ public final class RePluginConfig {
 
     private boolean optimizeArtLoadDex = false;
 
+    private int pluginCacheRetention = PLUGIN_CACHE_WEAK;
+    private long pluginCacheBudget = 32 * 1024 * 1024;
+    private boolean binderTraceEnabled = false;
+    private int warmStubProcessCount = 0;
+    private boolean warmStubProcessPreload = false;
+    private boolean mappedPrefEnabled = false;
+    private boolean mappedPrefDurable = false;
+
     /**
      * 获取插件回调方法。通常无需调用此方法。
      *
@@ -362,4 +390,176 @@ public final class RePluginConfig {
         this.optimizeArtLoadDex = optimizeArtLoadDex;
         return this;
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取插件产物（PackageInfo、Resources、ClassLoader等）的缓存策略
+     *
+     * @return 见PLUGIN_CACHE_XXX
+     * @since 3.1.0
+     */
+    public int getPluginCacheRetention() {
+        return pluginCacheRetention;
+    }
+
+    /**
+     * 获取LRU缓存策略下的字节预算（以插件APK大小估算）
+     *
+     * @return 字节数
+     * @since 3.1.0
+     */
+    public long getPluginCacheBudget() {
+        return pluginCacheBudget;
+    }
+
+    /**
+     * 设置插件产物（PackageInfo、Resources、ClassLoader等）的缓存策略。默认为PLUGIN_CACHE_WEAK
+     *
+     * @param retention 见PLUGIN_CACHE_XXX
+     * @param budget    仅对PLUGIN_CACHE_LRU有效，为强引用产物的字节预算（以插件APK大小估算）
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setPluginCacheRetention(int retention, long budget) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.pluginCacheRetention = retention;
+        this.pluginCacheBudget = budget;
+        return this;
+    }
+
+    /**
+     * 是否开启了框架内跨进程调用的统计
+     *
+     * @return 是否开启
+     * @since 3.1.0
+     */
+    public boolean isBinderTraceEnabled() {
+        return binderTraceEnabled;
+    }
+
+    /**
+     * 设置是否统计框架内跨进程调用（调用次数、耗时分布、Parcel大小等），结果见BinderTracer。默认为false <p>
+     * 注意：需在各进程中一致设置，且只在调试、性能分析时开启
+     *
+     * @param enabled 是否开启
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setBinderTraceEnabled(boolean enabled) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.binderTraceEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * 获取常驻进程保持预热（已启动并初始化完框架、尚未分配给插件）的坑位进程数
+     *
+     * @return 预热的坑位进程数，0表示不预热
+     * @since 3.1.0
+     */
+    public int getWarmStubProcessCount() {
+        return warmStubProcessCount;
+    }
+
+    /**
+     * 设置预热的坑位进程数。默认为0（不预热）<p>
+     * 开启后，常驻进程会提前拉起空闲的坑位进程，首次打开运行在坑位进程中的插件时无需再等待进程启动。
+     * 系统内存紧张（onTrimMemory/onLowMemory）时会自动结束空闲的预热进程，并暂停预热一段时间 <p>
+     * 注意：每个预热进程都会占用一定内存，且数量不会超过坑位进程总数
+     *
+     * @param count 预热的坑位进程数
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setWarmStubProcessCount(int count) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.warmStubProcessCount = count;
+        return this;
+    }
+
+    /**
+     * 预热坑位进程时是否同时预加载最可能被用到的插件
+     *
+     * @return 是否预加载
+     * @since 3.1.0
+     */
+    public boolean isWarmStubProcessPreload() {
+        return warmStubProcessPreload;
+    }
+
+    /**
+     * 设置预热坑位进程时是否同时预加载插件。默认为false <p>
+     * 开启后，预热的进程会按本次运行中各插件被分配到坑位进程的次数，选择次数最多且当前未运行的插件，并在进程启动时直接加载它
+     *
+     * @param preload 是否预加载
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setWarmStubProcessPreload(boolean preload) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.warmStubProcessPreload = preload;
+        return this;
+    }
+
+    /**
+     * 是否使用内存映射文件保存跨进程的临时键值（Pref.ipcXXX、IPref）
+     *
+     * @return 是否使用
+     * @since 3.1.0
+     */
+    public boolean isMappedPrefEnabled() {
+        return mappedPrefEnabled;
+    }
+
+    /**
+     * 设置是否使用内存映射文件保存跨进程的临时键值。默认为false <p>
+     * 开启后，各进程直接读写同一个映射文件，不再经过常驻进程的Binder调用，数据在进程重启后也会保留；
+     * 文件打开失败时自动回退到原有方式 <p>
+     * 注意：需在各进程中一致设置
+     *
+     * @param enabled 是否使用
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setMappedPrefEnabled(boolean enabled) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.mappedPrefEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * 内存映射文件是否每次写入后都同步到磁盘
+     *
+     * @return 是否同步
+     * @since 3.1.0
+     */
+    public boolean isMappedPrefDurable() {
+        return mappedPrefDurable;
+    }
+
+    /**
+     * 设置内存映射文件是否每次写入后都同步到磁盘。默认为false <p>
+     * 不同步时，写入的内容在进程被杀后依然保留（由系统择机写回），但断电或系统崩溃时可能丢失最近的修改；
+     * 同步时可避免这种情况，但每次写入都会有一次磁盘IO
+     *
+     * @param durable 是否同步
+     * @return RePluginConfig自己。这样可以连环调用set方法
+     * @since 3.1.0
+     */
+    public RePluginConfig setMappedPrefDurable(boolean durable) {
+        if (!checkAllowModify()) {
+            return this;
+        }
+        this.mappedPrefDurable = durable;
+        return this;
+    }
+}
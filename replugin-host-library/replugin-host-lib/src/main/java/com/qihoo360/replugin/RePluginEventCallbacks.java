@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.qihoo360.replugin.model.PluginInfo;
+import com.qihoo360.replugin.model.PluginLoadTrace;
 
 /**
  * 插件化框架对外事件回调接口集
@@ -103,6 +104,17 @@ public class RePluginEventCallbacks {
         // Nothing
     }
 
+    /**
+     * 插件加载完成（无论成功与否），可用于上报各阶段的加载耗时 <p>
+     * 注意：在执行加载的线程中回调，请勿做耗时操作。本进程内的汇总数据见 PluginLoadStats
+     *
+     * @param trace 本次加载的分阶段耗时
+     * @since 3.1.0
+     */
+    public void onPluginLoaded(PluginLoadTrace trace) {
+        // Nothing
+    }
+
     /**
      * 插件安装结果值
      */
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.base;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.RePluginConfig;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 框架内跨进程调用（IPluginHost、IPluginClient、IPluginManagerServer、IPluginServiceServer、IPref）的统计 <p>
+ * 按“接口 + 方法 + 调用方/服务方”分别记录调用次数、主线程调用次数、耗时分布和Parcel大小 <p>
+ * 需通过 RePluginConfig.setBinderTraceEnabled 开启。未开启时，客户端不会包装Binder，服务端只多一次判断
+ *
+ * @author RePlugin Team
+ * @since 3.1.0
+ */
+public final class BinderTracer {
+
+    /**
+     * 调用方（Proxy）
+     */
+    public static final int SIDE_CLIENT = 0;
+
+    /**
+     * 服务方（Stub）
+     */
+    public static final int SIDE_SERVER = 1;
+
+    /**
+     * 耗时分布的各区间上限（毫秒），最后一个区间为“大于等于128ms”
+     */
+    private static final long[] BUCKET_LIMITS_MS = {1, 2, 4, 8, 16, 32, 64, 128};
+
+    public static final int BUCKET_COUNT = BUCKET_LIMITS_MS.length + 1;
+
+    private static final ConcurrentHashMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Stub类 -> (transaction code -> 方法名)
+     */
+    private static final ConcurrentHashMap<Class<?>, Map<Integer, String>> METHOD_NAMES = new ConcurrentHashMap<>();
+
+    private BinderTracer() {
+        // Nothing
+    }
+
+    /**
+     * @return 是否开启了统计
+     */
+    public static boolean isEnabled() {
+        RePluginConfig c = RePlugin.getConfig();
+        return c != null && c.isBinderTraceEnabled();
+    }
+
+    /**
+     * 若开启了统计，则包装远端Binder，使经由它的每次调用都被记录。本地Binder和未开启时原样返回 <p>
+     * 注意：包装后的Binder只能用于调用，不能再通过Parcel传给其它进程
+     *
+     * @param binder    远端Binder
+     * @param stubClass 对应的AIDL Stub类，如IPluginHost.Stub.class
+     * @return 包装后的Binder，或binder本身
+     */
+    public static IBinder wrap(IBinder binder, Class<? extends Binder> stubClass) {
+        if (binder == null || binder instanceof Binder || binder instanceof TracingBinder || !isEnabled()) {
+            return binder;
+        }
+        return new TracingBinder(binder, stubClass);
+    }
+
+    /**
+     * 服务方调用父类（AIDL Stub）的onTransact
+     */
+    public interface SuperTransact {
+        boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException;
+    }
+
+    /**
+     * 服务方在onTransact中调用，用法：<p>
+     * return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact); <p>
+     * 其中mSuperTransact中调用 Xxx.super.onTransact。未开启统计时直接调用superCall
+     *
+     * @param stub AIDL Stub的子类实例，统计时按其Stub类归类
+     */
+    public static boolean onTransact(Binder stub, int code, Parcel data, Parcel reply, int flags, SuperTransact superCall) throws RemoteException {
+        long start = begin();
+        if (start == 0) {
+            return superCall.onTransact(code, data, reply, flags);
+        }
+        int requestBytes = data.dataSize();
+        try {
+            return superCall.onTransact(code, data, reply, flags);
+        } finally {
+            end(getStubClass(stub.getClass()), SIDE_SERVER, code, start, requestBytes, reply);
+        }
+    }
+
+    /**
+     * @return 起始时间；未开启统计时返回0
+     */
+    public static long begin() {
+        return isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记录一次调用。start为0（未开启）时什么也不做
+     *
+     * @param requestBytes 请求数据的大小
+     */
+    public static void end(Class<?> stubClass, int side, int code, long start, int requestBytes, Parcel reply) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        int replyBytes = reply != null ? reply.dataSize() : 0;
+        String method = getMethodName(stubClass, code);
+        String key = side + ":" + stubClass.getName() + "#" + method;
+        Counter c = COUNTERS.get(key);
+        if (c == null) {
+            c = new Counter(getInterfaceName(stubClass), method, side);
+            Counter old = COUNTERS.putIfAbsent(key, c);
+            if (old != null) {
+                c = old;
+            }
+        }
+        c.add(nanos, requestBytes, replyBytes, Looper.myLooper() == Looper.getMainLooper());
+    }
+
+    /**
+     * @return 当前统计数据的快照，按调用次数从多到少排列
+     */
+    public static List<MethodStats> snapshot() {
+        List<MethodStats> list = new ArrayList<>(COUNTERS.size());
+        for (Counter c : COUNTERS.values()) {
+            list.add(c.snapshot());
+        }
+        Collections.sort(list, new Comparator<MethodStats>() {
+            @Override
+            public int compare(MethodStats a, MethodStats b) {
+                return a.calls < b.calls ? 1 : (a.calls == b.calls ? 0 : -1);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("--- binder trace (enabled=" + isEnabled() + ") ---");
+        for (MethodStats s : snapshot()) {
+            writer.println(s);
+        }
+    }
+
+    /**
+     * AIDL生成的Stub类直接继承Binder，沿父类向上找到它
+     */
+    private static Class<?> getStubClass(Class<?> clazz) {
+        while (clazz.getSuperclass() != null && clazz.getSuperclass() != Binder.class) {
+            clazz = clazz.getSuperclass();
+        }
+        return clazz;
+    }
+
+    private static String getInterfaceName(Class<?> stubClass) {
+        Class<?> outer = stubClass.getEnclosingClass();
+        return outer != null ? outer.getSimpleName() : stubClass.getSimpleName();
+    }
+
+    /**
+     * 从AIDL生成的Stub类中的TRANSACTION_xxx常量反查方法名，每个Stub类只反射一次
+     */
+    private static String getMethodName(Class<?> stubClass, int code) {
+        Map<Integer, String> names = METHOD_NAMES.get(stubClass);
+        if (names == null) {
+            names = new HashMap<>();
+            for (Field f : stubClass.getDeclaredFields()) {
+                if (f.getType() == int.class && Modifier.isStatic(f.getModifiers()) && f.getName().startsWith("TRANSACTION_")) {
+                    try {
+                        f.setAccessible(true);
+                        names.put(f.getInt(null), f.getName().substring("TRANSACTION_".length()));
+                    } catch (Throwable e) {
+                        // ignore
+                    }
+                }
+            }
+            METHOD_NAMES.put(stubClass, names);
+        }
+        String name = names.get(code);
+        return name != null ? name : String.valueOf(code);
+    }
+
+    /**
+     * 某个方法的统计数据（只读）
+     */
+    public static final class MethodStats {
+
+        public final String interfaceName;
+
+        public final String method;
+
+        /**
+         * 见SIDE_XXX
+         */
+        public final int side;
+
+        public final long calls;
+
+        /**
+         * 在主线程发起（或执行）的次数
+         */
+        public final long mainThreadCalls;
+
+        public final long totalMicros;
+
+        public final long maxMicros;
+
+        public final long requestBytes;
+
+        public final long replyBytes;
+
+        /**
+         * 耗时分布：<1ms、<2ms、<4ms ... <128ms、>=128ms
+         */
+        public final long[] histogram;
+
+        MethodStats(Counter c) {
+            interfaceName = c.mInterface;
+            method = c.mMethod;
+            side = c.mSide;
+            calls = c.mCalls.get();
+            mainThreadCalls = c.mMainCalls.get();
+            totalMicros = c.mTotalNanos.get() / 1000;
+            maxMicros = c.mMaxNanos.get() / 1000;
+            requestBytes = c.mRequestBytes.get();
+            replyBytes = c.mReplyBytes.get();
+            histogram = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                histogram[i] = c.mHistogram.get(i);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append(side == SIDE_CLIENT ? "C " : "S ").append(interfaceName).append('.').append(method)
+                    .append(": n=").append(calls)
+                    .append(" main=").append(mainThreadCalls)
+                    .append(" avg=").append(calls > 0 ? totalMicros / calls : 0).append("us")
+                    .append(" max=").append(maxMicros).append("us")
+                    .append(" in=").append(requestBytes).append("B")
+                    .append(" out=").append(replyBytes).append("B")
+                    .append(" hist=[");
+            for (int i = 0; i < histogram.length; i++) {
+                if (i > 0) {
+                    b.append(',');
+                }
+                b.append(histogram[i]);
+            }
+            return b.append(']').toString();
+        }
+    }
+
+    private static final class Counter {
+
+        final String mInterface;
+
+        final String mMethod;
+
+        final int mSide;
+
+        final AtomicLong mCalls = new AtomicLong();
+
+        final AtomicLong mMainCalls = new AtomicLong();
+
+        final AtomicLong mTotalNanos = new AtomicLong();
+
+        final AtomicLong mMaxNanos = new AtomicLong();
+
+        final AtomicLong mRequestBytes = new AtomicLong();
+
+        final AtomicLong mReplyBytes = new AtomicLong();
+
+        final AtomicLongArray mHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+        Counter(String iface, String method, int side) {
+            mInterface = iface;
+            mMethod = method;
+            mSide = side;
+        }
+
+        void add(long nanos, int requestBytes, int replyBytes, boolean main) {
+            mCalls.incrementAndGet();
+            if (main) {
+                mMainCalls.incrementAndGet();
+            }
+            mTotalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = mMaxNanos.get())) {
+                if (mMaxNanos.compareAndSet(max, nanos)) {
+                    break;
+                }
+            }
+            mRequestBytes.addAndGet(requestBytes);
+            mReplyBytes.addAndGet(replyBytes);
+            long ms = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS_MS.length && ms >= BUCKET_LIMITS_MS[bucket]) {
+                bucket++;
+            }
+            mHistogram.incrementAndGet(bucket);
+        }
+
+        MethodStats snapshot() {
+            return new MethodStats(this);
+        }
+    }
+
+    /**
+     * 包装远端Binder，在transact前后计时
+     */
+    private static final class TracingBinder implements IBinder {
+
+        private final IBinder mRemote;
+
+        private final Class<? extends Binder> mStubClass;
+
+        TracingBinder(IBinder remote, Class<? extends Binder> stubClass) {
+            mRemote = remote;
+            mStubClass = stubClass;
+        }
+
+        @Override
+        public boolean transact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            long start = begin();
+            int requestBytes = data != null ? data.dataSize() : 0;
+            try {
+                return mRemote.transact(code, data, reply, flags);
+            } finally {
+                end(mStubClass, SIDE_CLIENT, code, start, requestBytes, reply);
+            }
+        }
+
+        @Override
+        public String getInterfaceDescriptor() throws RemoteException {
+            return mRemote.getInterfaceDescriptor();
+        }
+
+        @Override
+        public boolean pingBinder() {
+            return mRemote.pingBinder();
+        }
+
+        @Override
+        public boolean isBinderAlive() {
+            return mRemote.isBinderAlive();
+        }
+
+        @Override
+        public IInterface queryLocalInterface(String descriptor) {
+            // 远端Binder本来就没有本地接口，返回null使asInterface创建Proxy
+            return null;
+        }
+
+        @Override
+        public void dump(FileDescriptor fd, String[] args) throws RemoteException {
+            mRemote.dump(fd, args);
+        }
+
+        @Override
+        public void dumpAsync(FileDescriptor fd, String[] args) throws RemoteException {
+            mRemote.dumpAsync(fd, args);
+        }
+
+        @Override
+        public void linkToDeath(DeathRecipient recipient, int flags) throws RemoteException {
+            mRemote.linkToDeath(recipient, flags);
+        }
+
+        @Override
+        public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+            return mRemote.unlinkToDeath(recipient, flags);
+        }
+
+        @Override
+        public int hashCode() {
+            return mRemote.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || (o instanceof TracingBinder ? mRemote.equals(((TracingBinder) o).mRemote) : mRemote.equals(o));
+        }
+    }
+}
@@ -24,6 +24,8 @@ import android.text.TextUtils;
 
 import com.qihoo360.loader.utils.SysUtils;
 import com.qihoo360.loader2.PluginProcessMain;
+import com.qihoo360.loader2.ProcessTableCache;
+import com.qihoo360.loader2.RegistrationBatcher;
 import com.qihoo360.replugin.helper.HostConfigHelper;
 import com.qihoo360.replugin.helper.LogDebug;
 
@@ -166,6 +168,13 @@ public class IPC {
             return getCurrentProcessId();
         }
 
+        // 常驻进程推送过来的进程表中有？直接返回即可
+        final boolean complete = ProcessTableCache.isComplete();
+        final int pid = ProcessTableCache.getPid(processName);
+        if (pid > 0 || complete) {
+            return pid;
+        }
+
         // 向常驻服务索要
         try {
             return PluginProcessMain.getPluginHost().getPidByProcessName(processName);
@@ -193,6 +202,12 @@ public class IPC {
             return getCurrentProcessName();
         }
 
+        final boolean complete = ProcessTableCache.isComplete();
+        final String name = ProcessTableCache.getName(pid);
+        if (name != null || complete) {
+            return name;
+        }
+
         try {
             return PluginProcessMain.getPluginHost().getProcessNameByPid(pid);
         } catch (RemoteException e) {
@@ -227,6 +242,7 @@ public class IPC {
             return false;
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2Plugin(target, intent);
             return true;
         } catch (RemoteException e) {
@@ -255,6 +271,7 @@ public class IPC {
             return false;
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2Process(target, intent);
             return true;
         } catch (RemoteException e) {
@@ -279,6 +296,7 @@ public class IPC {
             LogDebug.d(TAG, "sendLocalBroadcast2All: intent=" + intent);
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2Process(null, intent);
             return true;
         } catch (RemoteException e) {
@@ -309,6 +327,7 @@ public class IPC {
             return false;
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2PluginSync(target, intent);
             return true;
         } catch (RemoteException e) {
@@ -339,6 +358,7 @@ public class IPC {
             return false;
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2ProcessSync(target, intent);
             return true;
         } catch (RemoteException e) {
@@ -365,6 +385,7 @@ public class IPC {
             LogDebug.d(TAG, "sendLocalBroadcast2AllSync: intent=" + intent);
         }
         try {
+            RegistrationBatcher.flush();
             PluginProcessMain.getPluginHost().sendIntent2ProcessSync(null, intent);
             return true;
         } catch (RemoteException e) {
@@ -30,6 +30,7 @@ import android.util.Pair;
 
 import com.qihoo360.i.Factory;
 import com.qihoo360.mobilesafe.parser.manifest.ManifestParser;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
 import com.qihoo360.replugin.component.utils.ApkCommentReader;
 import com.qihoo360.replugin.component.utils.IntentMatcherHelper;
 import com.qihoo360.replugin.ext.parser.ApkParser;
@@ -94,6 +95,16 @@ public class ComponentList {
      * 注意：仅框架内部使用
      */
     public ComponentList(PackageInfo pi, String path, PluginInfo pli) {
+        this(pi, path, pli, null);
+    }
+
+    /**
+     * 初始化ComponentList对象 <p>
+     * 注意：仅框架内部使用
+     *
+     * @param manifest 已解析好的组件信息（如来自安装时生成的快照）。若为null，则从APK中重新解析
+     */
+    public ComponentList(PackageInfo pi, String path, PluginInfo pli, ManifestBean manifest) {
         if (pi.activities != null) {
             for (ActivityInfo ai : pi.activities) {
                 if (LOG) {
@@ -154,8 +165,10 @@ public class ComponentList {
             }
         }
 
-        // 解析 Apk 中的 AndroidManifest.xml
-        String manifest = getManifestFromApk(path);
+        if (manifest == null) {
+            // 解析 Apk 中的 AndroidManifest.xml
+            manifest = parseManifest(path);
+        }
 
         if (LOG) {
             LogDebug.d(PLUGIN_TAG, "\n解析插件 " + pli.getName() + " : " + path + "\nAndroidManifest: \n" + manifest);
@@ -176,12 +189,23 @@ public class ComponentList {
     }
 
     /**
-     * 从 APK 中获取 Manifest 内容
+     * 从 APK 中解析出带有 IntentFilter 的组件信息
      *
      * @param apkFile apk 文件路径
-     * @return apk 中 AndroidManifest 中的内容
+     * @return 组件信息；解析失败时返回空的ManifestBean
      */
-    private static String getManifestFromApk(String apkFile) {
+    public static ManifestBean parseManifest(String apkFile) {
+        ManifestBean bean = tryParseManifest(apkFile);
+        return bean != null ? bean : new ManifestBean();
+    }
+
+    /**
+     * 同parseManifest，但解析失败时返回null，供需要区分“解析失败”与“没有组件”的调用方（如写入快照时）使用
+     *
+     * @param apkFile apk 文件路径
+     * @return 组件信息，解析失败时返回null
+     */
+    public static ManifestBean tryParseManifest(String apkFile) {
 
         // 先从 Apk comment 中解析 AndroidManifest
         String manifest = ApkCommentReader.readComment(apkFile);
@@ -189,22 +213,22 @@ public class ComponentList {
             if (LOG) {
                 LogDebug.d(PLUGIN_TAG, "从 apk comment 中解析 xml:\n " + manifest);
             }
-            return manifest;
+            return ManifestParser.INS.parseManifestBean(manifest);
         }
 
-        // 解析失败时，再从 apk 中解析
+        // 解析失败时，再从 apk 中直接解析二进制 AndroidManifest，无需先转成 xml 文本
         ApkParser parser = null;
         try {
             parser = new ApkParser(apkFile);
             if (LOG) {
                 long begin = System.currentTimeMillis();
-                manifest = parser.getManifestXml();
+                ManifestBean bean = ManifestParser.INS.parseManifestBean(parser);
                 long end = System.currentTimeMillis();
-                LogDebug.d(PLUGIN_TAG, "从 apk 中解析 xml 耗时 " + (end - begin) + " 毫秒");
+                LogDebug.d(PLUGIN_TAG, "从 apk 中解析 manifest 耗时 " + (end - begin) + " 毫秒");
+                return bean;
             } else {
-                manifest = parser.getManifestXml();
+                return ManifestParser.INS.parseManifestBean(parser);
             }
-            return manifest;
 
         } catch (IOException t) {
             t.printStackTrace();
@@ -217,7 +241,7 @@ public class ComponentList {
                 }
             }
         }
-        return "";
+        return null;
     }
 
     /**
@@ -18,13 +18,19 @@ package com.qihoo360.replugin.component.provider;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 
 import com.qihoo360.replugin.base.IPC;
 
+import java.util.ArrayList;
+
 /**
  * 所有插件的Provider均由此处分发
  *
@@ -140,6 +146,58 @@ public abstract class PluginPitProviderBase extends ContentProvider {
         return cp.update(pu.transferredUri, values, selection, selectionArgs);
     }
 
+    /**
+     * 所有操作都指向同一个插件Provider时，换成插件内的Uri后整批交给它（由插件Provider决定是否放在一个事务中）；
+     * 否则按默认实现逐个分发
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        ContentProvider target = null;
+        ArrayList<ContentProviderOperation> transferred = new ArrayList<>(operations.size());
+        for (ContentProviderOperation op : operations) {
+            PluginProviderHelper.PluginUri pu = mHelper.toPluginUri(op.getUri());
+            if (pu == null) {
+                return super.applyBatch(operations);
+            }
+            ContentProvider cp = mHelper.getProvider(pu);
+            if (cp == null || (target != null && target != cp)) {
+                return super.applyBatch(operations);
+            }
+            ContentProviderOperation top = PluginProviderHelper.withUri(op, pu.transferredUri);
+            if (top == null) {
+                return super.applyBatch(operations);
+            }
+            target = cp;
+            transferred.add(top);
+        }
+        if (target == null) {
+            return super.applyBatch(operations);
+        }
+        return target.applyBatch(transferred);
+    }
+
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        PluginProviderHelper.PluginCall pc = PluginProviderHelper.fromCallMethod(method);
+        if (pc == null) {
+            return super.call(method, arg, extras);
+        }
+        PluginProviderHelper.PluginUri pu = mHelper.toPluginUri(pc.uri);
+        if (pu == null) {
+            return null;
+        }
+        ContentProvider cp = mHelper.getProvider(pu);
+        if (cp == null) {
+            return null;
+        }
+        if (extras != null) {
+            // extras中可能有插件自定义的Parcelable
+            extras.setClassLoader(cp.getClass().getClassLoader());
+        }
+        return cp.call(pc.method, arg, extras);
+    }
+
     @Override
     public void onLowMemory() {
         for (ContentProvider cp : mHelper.mProviderAuthorityMap.values()) {
@@ -17,16 +17,22 @@
 package com.qihoo360.replugin.component.provider;
 
 import android.annotation.TargetApi;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.ProviderInfo;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -41,6 +47,9 @@ import com.qihoo360.replugin.helper.LogRelease;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
@@ -56,6 +65,19 @@ public class PluginProviderClient {
     private static final String TAG = "PluginProviderClient";
     private static final int PROCESS_UNKNOWN = Integer.MAX_VALUE;
 
+    /**
+     * 路由表：插件名 -> (插件内的authority -> 坑位authority)。插件安装、卸载时清空 <p>
+     * 值为 NO_ROUTE 表示该authority不是插件的Provider（交由主程序处理）
+     */
+    private static final HashMap<String, HashMap<String, String>> sRoutes = new HashMap<>();
+
+    private static final String NO_ROUTE = "";
+
+    /**
+     * ClassLoader -> 插件名，避免每次都遍历所有插件
+     */
+    private static final WeakHashMap<ClassLoader, String> sPluginNames = new WeakHashMap<>();
+
     /**
      * 调用插件里的Provider
      * @see android.content.ContentResolver#acquireContentProviderClient(String)
@@ -69,6 +91,7 @@ public class PluginProviderClient {
      * @see android.content.ContentResolver#query(Uri, String[], String, String[], String)
      */
     public static Cursor query(Context c, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        // 不经过Client池：Cursor在返回后仍会使用Provider，其生命周期不由这里掌握
         Uri turi = toCalledUri(c, uri);
         return c.getContentResolver().query(turi, projection, selection, selectionArgs, sortOrder);
     }
@@ -79,6 +102,7 @@ public class PluginProviderClient {
      */
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public static Cursor query(Context c, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        // 不经过Client池：Cursor在返回后仍会使用Provider，其生命周期不由这里掌握
         Uri turi = toCalledUri(c, uri);
         return c.getContentResolver().query(turi, projection, selection, selectionArgs, sortOrder, cancellationSignal);
     }
@@ -89,6 +113,16 @@ public class PluginProviderClient {
      */
     public static String getType(Context c, Uri uri) {
         Uri turi = toCalledUri(c, uri);
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+        if (e != null) {
+            try {
+                return e.client.getType(turi);
+            } catch (RemoteException ex) {
+                discard(e, ex);
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
         return c.getContentResolver().getType(turi);
     }
 
@@ -98,6 +132,18 @@ public class PluginProviderClient {
      */
     public static Uri insert(Context c, Uri uri, ContentValues values) {
         Uri turi = toCalledUri(c, uri);
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+        if (e != null) {
+            try {
+                return e.client.insert(turi, values);
+            } catch (RemoteException ex) {
+                // 不重试（见failed）。与ContentResolver一致，返回null
+                failed(e, ex);
+                return null;
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
         return c.getContentResolver().insert(turi, values);
     }
 
@@ -107,6 +153,18 @@ public class PluginProviderClient {
      */
     public static int bulkInsert(Context c, Uri uri, ContentValues[] values) {
         Uri turi = toCalledUri(c, uri);
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+        if (e != null) {
+            try {
+                return e.client.bulkInsert(turi, values);
+            } catch (RemoteException ex) {
+                // 不重试（见failed）。与ContentResolver一致，返回0
+                failed(e, ex);
+                return 0;
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
         return c.getContentResolver().bulkInsert(turi, values);
     }
 
@@ -116,6 +174,18 @@ public class PluginProviderClient {
      */
     public static int delete(Context c, Uri uri, String selection, String[] selectionArgs) {
         Uri turi = toCalledUri(c, uri);
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+        if (e != null) {
+            try {
+                return e.client.delete(turi, selection, selectionArgs);
+            } catch (RemoteException ex) {
+                // 不重试（见failed）。与ContentResolver一致，返回-1
+                failed(e, ex);
+                return -1;
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
         return c.getContentResolver().delete(turi, selection, selectionArgs);
     }
 
@@ -125,9 +195,167 @@ public class PluginProviderClient {
      */
     public static int update(Context c, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         Uri turi = toCalledUri(c, uri);
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+        if (e != null) {
+            try {
+                return e.client.update(turi, values, selection, selectionArgs);
+            } catch (RemoteException ex) {
+                // 不重试（见failed）。与ContentResolver一致，返回-1
+                failed(e, ex);
+                return -1;
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
         return c.getContentResolver().update(turi, values, selection, selectionArgs);
     }
 
+    /**
+     * 调用插件里的Provider，一次跨进程调用完成整批操作
+     * <p>
+     * 各操作的Uri均为插件内的Uri（如content://com.qihoo360.contacts.abc/people），会被转换后整批发给坑位Provider；
+     * 若都指向同一个插件Provider，则整批交给该Provider的applyBatch（是否在一个事务中由插件Provider决定） <p>
+     * 无法整批转发时（如各操作落到不同的坑位，或ContentProviderOperation的格式与预期不符），逐个操作分别调用
+     *
+     * @param authority 插件Provider的authority
+     * @see android.content.ContentResolver#applyBatch(String, ArrayList)
+     * @since 3.1.0
+     */
+    public static ContentProviderResult[] applyBatch(Context c, String authority, ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        String pn = fetchPluginByContext(c, Uri.parse("content://" + authority));
+        if (pn == null) {
+            return c.getContentResolver().applyBatch(authority, operations);
+        }
+
+        String au = null;
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>(operations.size());
+        for (ContentProviderOperation op : operations) {
+            Uri turi = toCalledUri(c, pn, op.getUri(), IPluginManager.PROCESS_AUTO);
+            if (au == null) {
+                au = turi.getAuthority();
+            } else if (!TextUtils.equals(au, turi.getAuthority())) {
+                return applyEach(c, operations);
+            }
+            ContentProviderOperation top = PluginProviderHelper.withUri(op, turi);
+            if (top == null) {
+                if (LOGR) {
+                    LogRelease.w(PLUGIN_TAG, "ppc.ab: unable to route batch, apply one by one. op=" + op);
+                }
+                return applyEach(c, operations);
+            }
+            ops.add(top);
+        }
+        if (au == null) {
+            // 空操作，与ContentResolver的行为一致
+            au = authority;
+        }
+
+        PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(Uri.parse("content://" + au));
+        if (e != null) {
+            try {
+                return e.client.applyBatch(ops);
+            } catch (RemoteException ex) {
+                failed(e, ex);
+                throw ex;
+            } finally {
+                PluginProviderClientPool.release(e);
+            }
+        }
+        return c.getContentResolver().applyBatch(au, ops);
+    }
+
+    /**
+     * 逐个执行操作，每个操作按其插件Uri单独调用插件Provider。不在一个事务中，但回引（back reference）、
+     * 期望行数等仍由ContentProviderOperation.apply处理，结果与ContentResolver一致
+     */
+    private static ContentProviderResult[] applyEach(Context c, ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        RoutingProvider rp = new RoutingProvider(c);
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = operations.get(i).apply(rp, results, i);
+        }
+        return results;
+    }
+
+    /**
+     * 供ContentProviderOperation.apply使用：把每个操作转给PluginProviderClient的同名方法 <p>
+     * 只是一个普通对象，不注册到系统中
+     */
+    private static final class RoutingProvider extends ContentProvider {
+
+        private final Context mContext;
+
+        RoutingProvider(Context c) {
+            mContext = c;
+        }
+
+        @Override
+        public boolean onCreate() {
+            return false;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            return PluginProviderClient.query(mContext, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return PluginProviderClient.getType(mContext, uri);
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return PluginProviderClient.insert(mContext, uri, values);
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return PluginProviderClient.delete(mContext, uri, selection, selectionArgs);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return PluginProviderClient.update(mContext, uri, values, selection, selectionArgs);
+        }
+    }
+
+    /**
+     * 调用插件里的Provider的call方法
+     * <p>
+     * 由于call本身不带Uri，这里会把转换后的Uri编码进method，坑位Provider解析后再以原method调用插件Provider
+     *
+     * @param uri 插件内的Uri，用于确定插件Provider
+     * @see android.content.ContentResolver#call(Uri, String, String, Bundle)
+     * @since 3.1.0
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Bundle call(Context c, Uri uri, String method, String arg, Bundle extras) {
+        Uri turi = toCalledUri(c, uri);
+        String au = turi.getAuthority();
+        if (au == null || !au.startsWith(PluginPitProviderBase.AUTHORITY_PREFIX)) {
+            return c.getContentResolver().call(uri, method, arg, extras);
+        }
+        String tmethod = PluginProviderHelper.toCallMethod(turi, method);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            PluginProviderClientPool.Entry e = PluginProviderClientPool.acquire(turi);
+            if (e != null) {
+                try {
+                    return e.client.call(tmethod, arg, extras);
+                } catch (RemoteException ex) {
+                    // call可能有副作用，同样不重试。与ContentResolver一致，返回null
+                    failed(e, ex);
+                    return null;
+                } finally {
+                    PluginProviderClientPool.release(e);
+                }
+            }
+        }
+        return c.getContentResolver().call(turi, tmethod, arg, extras);
+    }
+
     /**
      * 调用插件里的Provider
      *
@@ -292,22 +520,16 @@ public class PluginProviderClient {
         }
 
         // content://com.qihoo360.mobilesafe.PluginUIP
+        String au;
         if (process == IPluginManager.PROCESS_AUTO) {
             // 直接从插件的Manifest中获取
-            process = getProcessByAuthority(plugin, uri.getAuthority());
-            if (process == PROCESS_UNKNOWN) {
+            au = getRoute(plugin, uri.getAuthority());
+            if (au == null) {
                 // 可能不是插件里的，而是主程序的，直接返回Uri即可
                 return uri;
             }
-        }
-
-        String au;
-        if (process == IPluginManager.PROCESS_PERSIST) {
-            au = PluginPitProviderPersist.AUTHORITY;
-        } else if (PluginProcessHost.isCustomPluginProcess(process)) {
-            au = PluginProcessHost.PROCESS_AUTHORITY_MAP.get(process);
         } else {
-            au = PluginPitProviderUI.AUTHORITY;
+            au = getPitAuthority(process);
         }
 
         // from => content://                                                  com.qihoo360.contacts.abc/people?id=9
@@ -316,11 +538,92 @@ public class PluginProviderClient {
         return Uri.parse(newUri);
     }
 
+    /**
+     * 清空路由表。插件安装、卸载时调用，框架内部使用
+     */
+    public static void clearRouteCache() {
+        synchronized (sRoutes) {
+            sRoutes.clear();
+            sPluginNames.clear();
+        }
+    }
+
+    private static String getPitAuthority(int process) {
+        if (process == IPluginManager.PROCESS_PERSIST) {
+            return PluginPitProviderPersist.AUTHORITY;
+        } else if (PluginProcessHost.isCustomPluginProcess(process)) {
+            return PluginProcessHost.PROCESS_AUTHORITY_MAP.get(process);
+        } else {
+            return PluginPitProviderUI.AUTHORITY;
+        }
+    }
+
+    // 从路由表中获取插件authority对应的坑位authority，没有时解析插件的Manifest并记录。不是插件的Provider时返回Null
+    private static String getRoute(String plugin, String authority) {
+        synchronized (sRoutes) {
+            HashMap<String, String> routes = sRoutes.get(plugin);
+            String au = routes != null ? routes.get(authority) : null;
+            if (au != null) {
+                return NO_ROUTE.equals(au) ? null : au;
+            }
+        }
+
+        ComponentList col = Factory.queryPluginComponentList(plugin);
+        if (col == null) {
+            // 插件暂时无法加载，不记录，下次再试
+            if (LogDebug.LOG) {
+                Log.e(TAG, "getRoute(): Fetch Component List Error! pn=" + plugin + "; au=" + authority);
+            }
+            return null;
+        }
+        int process = getProcessByAuthority(col, plugin, authority);
+        String au = process != PROCESS_UNKNOWN ? getPitAuthority(process) : null;
+
+        synchronized (sRoutes) {
+            HashMap<String, String> routes = sRoutes.get(plugin);
+            if (routes == null) {
+                routes = new HashMap<>();
+                sRoutes.put(plugin, routes);
+            }
+            routes.put(authority, au != null ? au : NO_ROUTE);
+        }
+        return au;
+    }
+
+    private static void discard(PluginProviderClientPool.Entry e, RemoteException ex) {
+        if (LogDebug.LOG) {
+            Log.d(TAG, "pooled client failed, fall back to ContentResolver. au=" + e.authority, ex);
+        }
+        PluginProviderClientPool.discard(e);
+    }
+
+    /**
+     * 会修改数据的调用出错时使用：只丢弃Client，不再经ContentResolver重试 <p>
+     * RemoteException（包括DeadObjectException）可能发生在坑位Provider已执行完、但还没来得及返回结果时，重试会导致同一操作执行两次
+     */
+    private static void failed(PluginProviderClientPool.Entry e, RemoteException ex) {
+        if (LOGR) {
+            LogRelease.e(PLUGIN_TAG, "ppc.f: au=" + e.authority + " " + ex.getMessage(), ex);
+        }
+        PluginProviderClientPool.discard(e);
+    }
+
     // 根据Context所带的插件信息，来获取插件名。若获取不到，或者为主程序，则返回Null
     private static String fetchPluginByContext(Context c, Uri uri) {
         // 根据Context的ClassLoader来看到底属于哪个插件，还是只是主程序
         ClassLoader cl = c.getClassLoader();
-        String pn = Factory.fetchPluginName(cl);
+        String pn;
+        synchronized (sRoutes) {
+            pn = sPluginNames.get(cl);
+        }
+        if (pn == null) {
+            pn = Factory.fetchPluginName(cl);
+            if (!TextUtils.isEmpty(pn)) {
+                synchronized (sRoutes) {
+                    sPluginNames.put(cl, pn);
+                }
+            }
+        }
         if (TextUtils.isEmpty(pn)) {
             // 获得了无效的插件信息，这种情况很少见，故打出错误信息，什么也不做
             if (LOGR) {
@@ -342,15 +645,7 @@ public class PluginProviderClient {
         }
     }
 
-    private static int getProcessByAuthority(String pn, String authority) {
-        // 开始尝试获取插件的ServiceInfo
-        ComponentList col = Factory.queryPluginComponentList(pn);
-        if (col == null) {
-            if (LogDebug.LOG) {
-                Log.e(TAG, "getProcessByAuthority(): Fetch Component List Error! pn=" + pn + "; au=" + authority);
-            }
-            return PROCESS_UNKNOWN;
-        }
+    private static int getProcessByAuthority(ComponentList col, String pn, String authority) {
         ProviderInfo si = col.getProviderByAuthority(authority);
         if (si == null) {
             if (LogDebug.LOG) {
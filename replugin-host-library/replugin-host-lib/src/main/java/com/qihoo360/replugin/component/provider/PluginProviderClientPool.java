@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.component.provider;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.qihoo360.mobilesafe.api.Tasks;
+import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.helper.LogDebug;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 坑位Provider的ContentProviderClient池，每个坑位authority一个，带引用计数 <p>
+ * 直接使用ContentResolver时，每次调用都要重新获取、释放一次Provider；这里改为复用同一个Client，
+ * 空闲一段时间后再释放 <p>
+ * 只在API 16及以上使用“非稳定”的Client：坑位进程死亡时不会连带杀死本进程，调用方收到RemoteException后调用discard；
+ * 只读的调用（如getType）可再回退到ContentResolver，会修改数据的调用则不能重试 <p>
+ * query不使用此池：返回的Cursor在调用结束后仍依赖Provider，而池中的Client可能在此期间被释放
+ *
+ * @author RePlugin Team
+ */
+final class PluginProviderClientPool {
+
+    private static final String TAG = "PluginProviderClientPool";
+
+    /**
+     * 引用计数归零后，再保留多久才真正释放
+     */
+    private static final long IDLE_TIMEOUT = 10 * 1000;
+
+    private static final HashMap<String, Entry> sClients = new HashMap<>();
+
+    private static boolean sReaperPosted;
+
+    static final class Entry {
+
+        final String authority;
+
+        final ContentProviderClient client;
+
+        int refs;
+
+        long idleSince;
+
+        /**
+         * 已从池中移除（出错），引用计数归零时直接释放
+         */
+        boolean discarded;
+
+        Entry(String authority, ContentProviderClient client) {
+            this.authority = authority;
+            this.client = client;
+        }
+    }
+
+    private static final Runnable REAPER = new Runnable() {
+        @Override
+        public void run() {
+            reap();
+        }
+    };
+
+    private PluginProviderClientPool() {
+        // Nothing
+    }
+
+    /**
+     * 获取坑位Uri对应的Client，用完后须调用release
+     *
+     * @return 不是坑位Provider、系统版本过低或获取失败时返回null，此时调用方应直接使用ContentResolver
+     */
+    static Entry acquire(Uri uri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return null;
+        }
+        String authority = uri.getAuthority();
+        if (authority == null || !authority.startsWith(PluginPitProviderBase.AUTHORITY_PREFIX)) {
+            return null;
+        }
+        synchronized (sClients) {
+            Entry e = sClients.get(authority);
+            if (e != null) {
+                e.refs++;
+                return e;
+            }
+        }
+
+        // 获取Client需要跨进程，放在锁外
+        ContentProviderClient client = acquireUnstable(authority);
+        if (client == null) {
+            return null;
+        }
+        ContentProviderClient redundant = null;
+        Entry e;
+        synchronized (sClients) {
+            e = sClients.get(authority);
+            if (e == null) {
+                e = new Entry(authority, client);
+                sClients.put(authority, e);
+            } else {
+                redundant = client;
+            }
+            e.refs++;
+        }
+        if (redundant != null) {
+            redundant.release();
+        }
+        if (LogDebug.LOG) {
+            LogDebug.d(TAG, "acquire: new client au=" + authority);
+        }
+        return e;
+    }
+
+    static void release(Entry e) {
+        boolean close = false;
+        synchronized (sClients) {
+            e.refs--;
+            if (e.refs > 0) {
+                return;
+            }
+            if (e.discarded) {
+                close = true;
+            } else {
+                e.idleSince = SystemClock.elapsedRealtime();
+                if (!sReaperPosted) {
+                    sReaperPosted = true;
+                    Tasks.postDelayed2Thread(REAPER, IDLE_TIMEOUT);
+                }
+            }
+        }
+        if (close) {
+            e.client.release();
+        }
+    }
+
+    /**
+     * 调用出错（如坑位进程已死亡）时调用，之后的acquire会重新获取
+     */
+    static void discard(Entry e) {
+        synchronized (sClients) {
+            if (sClients.get(e.authority) == e) {
+                sClients.remove(e.authority);
+            }
+            e.discarded = true;
+        }
+        if (LogDebug.LOG) {
+            LogDebug.d(TAG, "discard: au=" + e.authority);
+        }
+    }
+
+    private static void reap() {
+        ArrayList<ContentProviderClient> closing = new ArrayList<>();
+        synchronized (sClients) {
+            sReaperPosted = false;
+            long now = SystemClock.elapsedRealtime();
+            boolean idle = false;
+            for (Iterator<Entry> it = sClients.values().iterator(); it.hasNext(); ) {
+                Entry e = it.next();
+                if (e.refs > 0) {
+                    continue;
+                }
+                if (now - e.idleSince >= IDLE_TIMEOUT) {
+                    it.remove();
+                    closing.add(e.client);
+                } else {
+                    idle = true;
+                }
+            }
+            if (idle) {
+                sReaperPosted = true;
+                Tasks.postDelayed2Thread(REAPER, IDLE_TIMEOUT);
+            }
+        }
+        for (ContentProviderClient client : closing) {
+            client.release();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static ContentProviderClient acquireUnstable(String authority) {
+        try {
+            return RePluginInternal.getAppContext().getContentResolver().acquireUnstableContentProviderClient(authority);
+        } catch (Throwable e) {
+            if (LogDebug.LOG) {
+                LogDebug.e(TAG, "acquireUnstable: au=" + authority, e);
+            }
+            return null;
+        }
+    }
+}
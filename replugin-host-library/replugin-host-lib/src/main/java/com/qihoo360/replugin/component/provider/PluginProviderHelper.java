@@ -17,9 +17,11 @@
 package com.qihoo360.replugin.component.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.pm.ProviderInfo;
 import android.net.Uri;
+import android.os.Parcel;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -28,6 +30,7 @@ import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.component.ComponentList;
 import com.qihoo360.replugin.helper.LogDebug;
 
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +44,12 @@ public class PluginProviderHelper {
     private static final String TAG = "PluginProviderHelper";
     private static final String SCHEME_AND_SSP = "content://";
 
+    /**
+     * call 没有Uri参数，坑位Provider无法得知目标插件。因此把坑位Uri编码进method：
+     * 前缀 + Uri长度 + ':' + Uri + 原method
+     */
+    private static final String CALL_METHOD_PREFIX = "replugin.call:";
+
     private final String mAuthority;
 
     PluginProviderHelper(String authority) {
@@ -194,6 +203,80 @@ public class PluginProviderHelper {
         return cp;
     }
 
+    /**
+     * 返回一个除Uri外完全相同的ContentProviderOperation <p>
+     * ContentProviderOperation没有公开修改Uri的方法，这里借助Parcel：其序列化格式以 type、Uri 开头，
+     * 只替换这一段，其余内容原样拷贝。格式不符时返回null
+     */
+    static ContentProviderOperation withUri(ContentProviderOperation op, Uri uri) {
+        if (uri.equals(op.getUri())) {
+            return op;
+        }
+        Parcel src = Parcel.obtain();
+        Parcel head = Parcel.obtain();
+        Parcel dst = Parcel.obtain();
+        try {
+            op.writeToParcel(src, 0);
+            src.setDataPosition(0);
+            int type = src.readInt();
+            head.writeInt(type);
+            Uri.writeToParcel(head, op.getUri());
+            int offset = head.dataSize();
+            byte[] prefix = head.marshall();
+            byte[] all = src.marshall();
+            if (all.length < offset || !Arrays.equals(prefix, Arrays.copyOf(all, offset))) {
+                if (LogDebug.LOG) {
+                    Log.e(TAG, "withUri(): Unknown parcel format! op=" + op);
+                }
+                return null;
+            }
+            dst.writeInt(type);
+            Uri.writeToParcel(dst, uri);
+            dst.appendFrom(src, offset, src.dataSize() - offset);
+            dst.setDataPosition(0);
+            ContentProviderOperation result = ContentProviderOperation.CREATOR.createFromParcel(dst);
+            return uri.equals(result.getUri()) ? result : null;
+        } catch (Throwable e) {
+            if (LogDebug.LOG) {
+                Log.e(TAG, "withUri(): Rewrite fail! op=" + op, e);
+            }
+            return null;
+        } finally {
+            src.recycle();
+            head.recycle();
+            dst.recycle();
+        }
+    }
+
+    static String toCallMethod(Uri pitUri, String method) {
+        String u = pitUri.toString();
+        return CALL_METHOD_PREFIX + u.length() + ':' + u + method;
+    }
+
+    /**
+     * @return 不是由 toCallMethod 生成的返回null
+     */
+    static PluginCall fromCallMethod(String method) {
+        if (method == null || !method.startsWith(CALL_METHOD_PREFIX)) {
+            return null;
+        }
+        try {
+            int start = CALL_METHOD_PREFIX.length();
+            int colon = method.indexOf(':', start);
+            int length = Integer.parseInt(method.substring(start, colon));
+            String u = method.substring(colon + 1, colon + 1 + length);
+            PluginCall call = new PluginCall();
+            call.uri = Uri.parse(u);
+            call.method = method.substring(colon + 1 + length);
+            return call;
+        } catch (RuntimeException e) {
+            if (LogDebug.LOG) {
+                Log.e(TAG, "fromCallMethod(): Invalid method=" + method, e);
+            }
+            return null;
+        }
+    }
+
     static class PluginUri {
         Uri transferredUri;
         String plugin;
@@ -203,4 +286,9 @@ public class PluginProviderHelper {
             return transferredUri + " [" + plugin + "]";
         }
     }
+
+    static class PluginCall {
+        Uri uri;
+        String method;
+    }
 }
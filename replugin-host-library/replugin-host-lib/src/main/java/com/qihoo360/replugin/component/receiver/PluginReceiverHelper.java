@@ -26,6 +26,8 @@ import com.qihoo360.mobilesafe.api.Tasks;
 import com.qihoo360.replugin.helper.LogDebug;
 
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.qihoo360.replugin.component.receiver.PluginReceiverProxy.loadClassSafety;
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
@@ -35,6 +37,11 @@ import static com.qihoo360.replugin.helper.LogDebug.LOG;
  */
 public class PluginReceiverHelper {
 
+    /**
+     * 有序广播等待插件 Receiver 执行完的最长时间。须小于系统的广播超时（前台广播为10秒）
+     */
+    private static final long ORDERED_WAIT_MS = 5000;
+
     /**
      * 插件静态注册的广播，从常驻代理到插件时，调用此方法
      */
@@ -97,4 +104,27 @@ public class PluginReceiverHelper {
             });
         }
     }
+
+    /**
+     * 等待此前通过 onPluginReceiverReceived 转到 UI 线程的 onReceive 执行完（最多 ORDERED_WAIT_MS） <p>
+     * 主线程 Handler 按顺序执行，因此只需再投递一个任务并等它执行。不能在 UI 线程调用
+     */
+    public static void waitReceiversOnUI() {
+        final CountDownLatch done = new CountDownLatch(1);
+        Tasks.post2UI(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        try {
+            if (!done.await(ORDERED_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                if (LOG) {
+                    LogDebug.d(PluginReceiverProxy.TAG, "wait receivers timeout");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
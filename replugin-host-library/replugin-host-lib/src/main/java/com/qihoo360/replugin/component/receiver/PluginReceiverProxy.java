@@ -20,6 +20,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -36,8 +37,13 @@ import com.qihoo360.replugin.helper.LogDebug;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.qihoo360.replugin.helper.LogDebug.LOG;
 
@@ -51,60 +57,184 @@ public class PluginReceiverProxy extends BroadcastReceiver {
     private HashMap<String, HashMap<String, List<String>>> mActionPluginComponents;
 
     /**
-     * 保存 Receiver 与 process 的关系
+     * 保存 Receiver 与 process 的关系。只在分发线程中访问
      */
     private final HashMap<String, Integer> mReceiverProcess = new HashMap<>();
 
+    /**
+     * 分发广播的线程。只有一个线程，保证各广播按收到的顺序分发；空闲时自动退出
+     */
+    private static ThreadPoolExecutor sDispatcher;
+
+    private static final byte[] LOCK = new byte[0];
+
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(Context context, final Intent intent) {
         if (intent == null || mActionPluginComponents == null) {
             return;
         }
 
         String action = intent.getAction();
-        if (!TextUtils.isEmpty(action)) {
+        if (TextUtils.isEmpty(action)) {
+            return;
+        }
 
-            if (LOG) {
-                LogDebug.d(TAG, String.format("代理 Receiver 收到 action: %s ", action));
-            }
+        if (LOG) {
+            LogDebug.d(TAG, String.format("代理 Receiver 收到 action: %s ", action));
+        }
 
-            // 根据 action 取得 map<plugin, List<receiver>>
+        // 根据 action 取得所有插件的 receiver，展开为 (plugin, receiver) 列表
+        // 注册（PmHostSvc.saveAction）在其它线程进行，故在同一把锁内读取
+        final ArrayList<String> plugins = new ArrayList<>();
+        final ArrayList<String> receivers = new ArrayList<>();
+        synchronized (mActionPluginComponents) {
             HashMap<String, List<String>> pc = mActionPluginComponents.get(action);
-            if (pc != null) {
+            if (pc == null) {
+                return;
+            }
+            for (HashMap.Entry<String, List<String>> entry : pc.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                for (String receiver : entry.getValue()) {
+                    plugins.add(entry.getKey());
+                    receivers.add(receiver);
+                }
+            }
+        }
+        if (plugins.isEmpty()) {
+            return;
+        }
+
+        // 有序广播：须等插件 Receiver 执行完才能结束，其后的接收者才会收到。须在 goAsync 之前判断
+        final boolean ordered = isOrderedBroadcast();
 
-                // 遍历每一个插件
-                for (HashMap.Entry<String, List<String>> entry : pc.entrySet()) {
-                    String plugin = entry.getKey();
-                    if (entry.getValue() == null) {
-                        continue;
+        // 拉起进程和跨进程调用都可能较慢，转到后台线程分发，不阻塞主线程
+        // 通过 goAsync 使广播在分发完成（有序广播为各 Receiver 执行完）前保持有效
+        final PendingResult result = Build.VERSION.SDK_INT >= 11 ? goAsync() : null;
+        if (result == null && ordered) {
+            // 无法 goAsync 时，与原来一样在主线程同步分发，但无法等待 UI 线程上的 onReceive
+            dispatch(plugins, receivers, intent, false);
+            return;
+        }
+        getDispatcher().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatch(plugins, receivers, intent, ordered);
+                } finally {
+                    if (result != null) {
+                        result.finish();
                     }
+                }
+            }
+        });
+    }
+
+    /**
+     * 按目标进程分组，每个进程只发一次批量调用
+     *
+     * @param ordered 为true时使用同步调用（onReceiveBatchSync），返回时各 Receiver 已执行完；否则为 oneway 调用
+     */
+    private void dispatch(List<String> plugins, List<String> receivers, Intent intent, boolean ordered) {
+        boolean local = false;
+        // 同一插件、同一进程只需拉起（查询）一次
+        HashMap<String, PluginBinderInfo> started = new HashMap<>();
+        // 进程PID -> 该进程中要分发的 receiver
+        LinkedHashMap<Integer, Batch> batches = new LinkedHashMap<>();
+        for (int i = 0; i < plugins.size(); i++) {
+            String plugin = plugins.get(i);
+            String receiver = receivers.get(i);
+            try {
+                // 在对应进程接收广播, 如果进程未启动，则拉起之
+                int process = getProcessOfReceiver(plugin, receiver);
 
-                    // 拷贝数据，防止多线程问题
-                    List<String> receivers = new ArrayList<>(entry.getValue());
-                    // 此插件所有声明的 receiver
-                    for (String receiver : receivers) {
-                        try {
-                            // 在对应进程接收广播, 如果进程未启动，则拉起之
-                            int process = getProcessOfReceiver(plugin, receiver);
-
-                            // todo 合并 IPluginClient 和 IPluginHost
-                            if (process == IPluginManager.PROCESS_PERSIST) {
-                                IPluginHost host = PluginProcessMain.getPluginHost();
-                                host.onReceive(plugin, receiver, intent);
-                            } else {
-                                IPluginClient client = MP.startPluginProcess(plugin, process, new PluginBinderInfo(PluginBinderInfo.NONE_REQUEST));
-                                client.onReceive(plugin, receiver, intent);
-                            }
-
-                        } catch (Throwable e) {
-                            if (LOG) {
-                                Log.d(TAG, e.toString());
-                            }
-                        }
+                // 常驻进程即本进程，直接调用
+                if (process == IPluginManager.PROCESS_PERSIST) {
+                    IPluginHost host = PluginProcessMain.getPluginHost();
+                    host.onReceive(plugin, receiver, intent);
+                    local = true;
+                    continue;
+                }
+
+                String key = plugin + ":" + process;
+                PluginBinderInfo info;
+                if (started.containsKey(key)) {
+                    info = started.get(key);
+                } else {
+                    info = new PluginBinderInfo(PluginBinderInfo.NONE_REQUEST);
+                    IPluginClient client = MP.startPluginProcess(plugin, process, info);
+                    if (client == null) {
+                        info = null;
+                    } else if (!batches.containsKey(info.pid)) {
+                        batches.put(info.pid, new Batch(client));
                     }
+                    started.put(key, info);
+                }
+                if (info == null) {
+                    continue;
+                }
+                Batch b = batches.get(info.pid);
+                b.plugins.add(plugin);
+                b.receivers.add(receiver);
+            } catch (Throwable e) {
+                if (LOG) {
+                    Log.d(TAG, e.toString());
                 }
             }
         }
+
+        for (Batch b : batches.values()) {
+            try {
+                if (ordered) {
+                    b.client.onReceiveBatchSync(b.plugins, b.receivers, intent);
+                } else {
+                    b.client.onReceiveBatch(b.plugins, b.receivers, intent);
+                }
+            } catch (Throwable e) {
+                if (LOG) {
+                    Log.d(TAG, e.toString());
+                }
+            }
+        }
+
+        // 本进程中的 Receiver 也已转到 UI 线程，同样等它们执行完
+        if (ordered && local) {
+            PluginReceiverHelper.waitReceiversOnUI();
+        }
+    }
+
+    private static ThreadPoolExecutor getDispatcher() {
+        synchronized (LOCK) {
+            if (sDispatcher == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "RePlugin-Receiver");
+                    }
+                });
+                executor.allowCoreThreadTimeOut(true);
+                sDispatcher = executor;
+            }
+            return sDispatcher;
+        }
+    }
+
+    /**
+     * 发往同一进程的 receiver
+     */
+    private static final class Batch {
+
+        final IPluginClient client;
+
+        final ArrayList<String> plugins = new ArrayList<>();
+
+        final ArrayList<String> receivers = new ArrayList<>();
+
+        Batch(IPluginClient client) {
+            this.client = client;
+        }
     }
 
     public static Class loadClassSafety(ClassLoader classLoader, String className) throws ClassNotFoundException {
@@ -24,6 +24,7 @@ import com.qihoo360.loader2.IPluginHost;
 import com.qihoo360.loader2.MP;
 import com.qihoo360.loader2.PluginBinderInfo;
 import com.qihoo360.loader2.PluginProcessMain;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.utils.basic.ArrayMap;
 import com.qihoo360.replugin.component.service.server.IPluginServiceServer;
 import com.qihoo360.replugin.helper.LogDebug;
@@ -72,6 +73,10 @@ public class PluginServiceServerFetcher {
                 pss = pc.fetchServiceServer();
             }
 
+            if (pss != null && BinderTracer.isEnabled()) {
+                pss = IPluginServiceServer.Stub.asInterface(BinderTracer.wrap(pss.asBinder(), IPluginServiceServer.Stub.class));
+            }
+
             // 挂死亡周期，如果出问题了就置空重来，防止外界调用psm出现DeadObject问题
             pss.asBinder().linkToDeath(new PSSDeathMonitor(process, pss.asBinder()), 0);
         } catch (Throwable e) {
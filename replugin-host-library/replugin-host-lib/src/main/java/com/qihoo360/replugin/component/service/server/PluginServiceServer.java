@@ -29,6 +29,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Parcel;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -36,6 +37,7 @@ import com.qihoo360.i.Factory;
 import com.qihoo360.loader2.mgr.IServiceConnection;
 import com.qihoo360.mobilesafe.core.BuildConfig;
 import com.qihoo360.replugin.RePlugin;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.base.ThreadUtils;
 import com.qihoo360.replugin.component.ComponentList;
@@ -654,6 +656,19 @@ public class PluginServiceServer {
 
     class Stub extends IPluginServiceServer.Stub {
 
+        private final BinderTracer.SuperTransact mSuperTransact = new BinderTracer.SuperTransact() {
+
+            @Override
+            public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+                return PluginServiceServer.Stub.super.onTransact(code, data, reply, flags);
+            }
+        };
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact);
+        }
+
         @Override
         public ComponentName startService(Intent intent, Messenger client) throws RemoteException {
             synchronized (LOCKER) {
@@ -73,6 +73,17 @@ public abstract class AbstractApkParser implements Closeable {
         this.manifestXml = xmlTranslator.getXml();
     }
 
+    /**
+     * stream binary AndroidManifest.xml events to the given streamer, without translating it to xml text.
+     */
+    public void streamManifestXml(XmlStreamer xmlStreamer) throws IOException {
+        byte[] data = getFileData(MANIFEST_FILE);
+        if (data == null) {
+            throw new ParserException("Manifest file not found");
+        }
+        transBinaryXml(data, xmlStreamer);
+    }
+
     /**
      * read file in apk into bytes
      */
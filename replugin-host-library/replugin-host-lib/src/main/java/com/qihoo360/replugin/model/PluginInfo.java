@@ -44,9 +44,9 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -56,7 +56,8 @@ import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
 
 
 /**
- * 用来描述插件的描述信息。以Json来封装
+ * 用来描述插件的描述信息 <p>
+ * 各字段以成员变量保存，跨进程时使用二进制的Parcel格式；Json只用于持久化时的兼容格式
  *
  * @author RePlugin Team
  */
@@ -120,7 +121,50 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     public static final String PI_USED = "used";
     public static final String PI_FRM_VER = "frm_ver";
 
-    private transient final Map<String, Object> mJson = new ConcurrentHashMap(1 << 4);
+    // 各字段是否被设置过。只有设置过的字段才会写入Json，与原先“以Json保存”时的行为保持一致
+    private static final int F_PKGNAME = 1;
+    private static final int F_ALI = 1 << 1;
+    private static final int F_NAME = 1 << 2;
+    private static final int F_LOW = 1 << 3;
+    private static final int F_HIGH = 1 << 4;
+    private static final int F_VER = 1 << 5;
+    private static final int F_VERV = 1 << 6;
+    private static final int F_PATH = 1 << 7;
+    private static final int F_TYPE = 1 << 8;
+    private static final int F_USED = 1 << 9;
+    private static final int F_FRM_VER = 1 << 10;
+    private static final int F_V5TYPE = 1 << 11;
+    private static final int F_V5INDEX = 1 << 12;
+    private static final int F_V5OFFSET = 1 << 13;
+    private static final int F_V5LENGTH = 1 << 14;
+    private static final int F_V5MD5 = 1 << 15;
+
+    /**
+     * Parcel二进制格式的标识。旧格式为一个Json字符串，其开头的int为字符串长度（或-1），不会与此值冲突
+     */
+    private static final int PARCEL_FORMAT_V1 = -0x5250;
+
+    private int mFields;
+
+    private String mPkgName;
+    private String mAlias;
+    private String mName;
+    private int mLow;
+    private int mHigh;
+    private int mVersion;
+    private long mVersionValue;
+    private String mPath;
+    private int mType;
+    private boolean mUsed;
+    private int mFrameworkVersion;
+    private int mV5Type;
+    private int mV5Index;
+    private int mV5Offset;
+    private int mV5Length;
+    private String mV5Md5;
+
+    // 无法识别的字段（如更高版本的框架写入的），原样保留，保证Json的读写不丢失内容
+    private transient Map<String, Object> mExtras;
 
     // 若插件需要更新，则会有此值
     private PluginInfo mPendingUpdate;
@@ -137,6 +181,10 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     // 此信息【不会】做持久化工作。下次重启进程后会消失
     private PluginInfo mParentInfo;
 
+    private PluginInfo() {
+        // 用于clone和Parcel
+    }
+
     private PluginInfo(JSONObject jo) {
         initPluginInfo(jo);
     }
@@ -169,28 +217,12 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     }
 
     private void initPluginInfo(JSONObject jo) {
+        // 待更新、待卸载、待覆盖安装的插件信息，也在put中一并处理
         final Iterator<String> keys = jo.keys();
         while (keys.hasNext()) {
             final String k = keys.next();
             put(k, jo.opt(k));
         }
-        // 缓存“待更新”的插件信息
-        final JSONObject ujo = jo.optJSONObject(PI_UPINFO);
-        if (ujo != null) {
-            setPendingUpdate(new PluginInfo(ujo));
-        }
-
-        // 缓存“待卸载”的插件信息
-        final JSONObject djo = jo.optJSONObject(PI_DELINFO);
-        if (djo != null) {
-            setPendingDelete(new PluginInfo(djo));
-        }
-
-        // 缓存"待覆盖安装"的插件信息
-        final JSONObject cjo = jo.optJSONObject(PI_COVERINFO);
-        if (cjo != null) {
-            setPendingCover(new PluginInfo(cjo));
-        }
 
         // 缓存"待覆盖安装"的插件覆盖字段
         setIsPendingCover(jo.optBoolean(PI_COVER));
@@ -282,35 +314,35 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * （注意：旧插件"p-n"的"别名"就是插件名）
      */
     public String getName() {
-        return get(PI_NAME, "");
+        return has(F_NAME) ? mName : "";
     }
 
     /**
      * 获取插件包名
      */
     public String getPackageName() {
-        return get(PI_PKGNAME, "");
+        return has(F_PKGNAME) ? mPkgName : "";
     }
 
     /**
      * 获取插件别名
      */
     public String getAlias() {
-        return get(PI_ALI, "");
+        return has(F_ALI) ? mAlias : "";
     }
 
     /**
      * 获取插件的版本
      */
     public int getVersion() {
-        return get(PI_VER, 0);
+        return has(F_VER) ? mVersion : 0;
     }
 
     /**
      * 获取最新的插件，目前所在的位置
      */
     public String getPath() {
-        return get(PI_PATH, "");
+        return has(F_PATH) ? mPath : "";
     }
 
     /**
@@ -318,7 +350,10 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * 注意：若为“纯APK”方案所用，则修改后需调用PluginInfoList.save来保存，否则会无效
      */
     public void setPath(String path) {
-        put(PI_PATH, path);
+        if (path != null) {
+            mPath = path;
+            set(F_PATH);
+        }
     }
 
     /**
@@ -333,7 +368,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
             return getParentInfo().isUsed();
         } else {
             // 若是纯APK，且不是PendingUpdate，则直接从Json中获取
-            return get(PI_USED, false);
+            return has(F_USED) && mUsed;
         }
     }
 
@@ -344,14 +379,15 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @param used 插件是否被使用过
      */
     public void setIsUsed(boolean used) {
-        put(PI_USED, used);
+        mUsed = used;
+        set(F_USED);
     }
 
     /**
      * 获取Long型的，可用来对比的版本号
      */
     public long getVersionValue() {
-        return get(PI_VERV, 0L);
+        return has(F_VERV) ? mVersionValue : 0L;
     }
 
     /**
@@ -518,7 +554,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * 获取插件当前所处的类型。详细见TYPE_XXX常量
      */
     public int getType() {
-        return get(PI_TYPE, 0);
+        return has(F_TYPE) ? mType : 0;
     }
 
     /**
@@ -526,7 +562,8 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * 注意：若为“纯APK”方案所用，则修改后需调用PluginInfoList.save来保存，否则会无效
      */
     public void setType(int type) {
-        put(PI_TYPE, type);
+        mType = type;
+        set(F_TYPE);
     }
 
     /**
@@ -555,11 +592,6 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      */
     public void setPendingUpdate(PluginInfo info) {
         mPendingUpdate = info;
-        if (info != null) {
-            put(PI_UPINFO, info.getJSON());
-        } else {
-            mJson.remove(PI_UPINFO);
-        }
     }
 
     /**
@@ -588,11 +620,6 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      */
     public void setPendingDelete(PluginInfo info) {
         mPendingDelete = info;
-        if (info != null) {
-            put(PI_DELINFO, info.getJSON());
-        } else {
-            mJson.remove(PI_DELINFO);
-        }
     }
 
     /**
@@ -621,11 +648,6 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      */
     public void setPendingCover(PluginInfo info) {
         mPendingCover = info;
-        if (info != null) {
-            put(PI_COVERINFO, info.getJSON());
-        } else {
-            mJson.remove(PI_COVERINFO);
-        }
     }
 
     /**
@@ -644,18 +666,13 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      */
     public void setIsPendingCover(boolean coverInfo) {
         mIsPendingCover = coverInfo;
-        if (coverInfo) {
-            put(PI_COVER, true);
-        } else {
-            mJson.remove(PI_COVER);
-        }
     }
 
     /**
      * 获取最小支持宿主API的版本
      */
     public int getLowInterfaceApi() {
-        return get(PI_LOW, Constant.ADAPTER_COMPATIBLE_VERSION);
+        return has(F_LOW) ? mLow : Constant.ADAPTER_COMPATIBLE_VERSION;
     }
 
     /**
@@ -664,7 +681,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 可能会废弃
      */
     public int getHighInterfaceApi() {
-        return get(PI_HIGH, Constant.ADAPTER_COMPATIBLE_VERSION);
+        return has(F_HIGH) ? mHigh : Constant.ADAPTER_COMPATIBLE_VERSION;
     }
 
     /**
@@ -674,7 +691,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     public int getFrameworkVersion() {
         // 仅p-n插件在用
         // 之所以默认为FRAMEWORK_VERSION_UNKNOWN，是因为在这里还只是读取p-n文件头，框架版本需要在loadDex阶段获得
-        return get(PI_FRM_VER, FRAMEWORK_VERSION_UNKNOWN);
+        return has(F_FRM_VER) ? mFrameworkVersion : FRAMEWORK_VERSION_UNKNOWN;
     }
 
     /**
@@ -684,7 +701,8 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @param version 框架版本号
      */
     public void setFrameworkVersion(int version) {
-        put(PI_FRM_VER, version);
+        mFrameworkVersion = version;
+        set(F_FRM_VER);
     }
 
     /**
@@ -705,9 +723,46 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
         setFrameworkVersion(frameVer);
     }
 
-    // @hide
+    /**
+     * 生成Json。Json只作为持久化（如p.l文件）时的兼容格式，跨进程传递请直接使用Parcel <p>
+     * 注意：框架内部接口，外界请不要直接使用
+     */
     public JSONObject getJSON() {
-        return new JSONObject(mJson);
+        JSONObject jo = new JSONObject();
+        try {
+            synchronized (this) {
+                if (mExtras != null) {
+                    for (Map.Entry<String, Object> e : mExtras.entrySet()) {
+                        jo.put(e.getKey(), e.getValue());
+                    }
+                }
+                if (has(F_PKGNAME)) jo.put(PI_PKGNAME, mPkgName);
+                if (has(F_ALI)) jo.put(PI_ALI, mAlias);
+                if (has(F_NAME)) jo.put(PI_NAME, mName);
+                if (has(F_LOW)) jo.put(PI_LOW, mLow);
+                if (has(F_HIGH)) jo.put(PI_HIGH, mHigh);
+                if (has(F_VER)) jo.put(PI_VER, mVersion);
+                if (has(F_VERV)) jo.put(PI_VERV, mVersionValue);
+                if (has(F_PATH)) jo.put(PI_PATH, mPath);
+                if (has(F_TYPE)) jo.put(PI_TYPE, mType);
+                if (has(F_USED)) jo.put(PI_USED, mUsed);
+                if (has(F_FRM_VER)) jo.put(PI_FRM_VER, mFrameworkVersion);
+                if (has(F_V5TYPE)) jo.put("v5type", mV5Type);
+                if (has(F_V5INDEX)) jo.put("v5index", mV5Index);
+                if (has(F_V5OFFSET)) jo.put("v5offset", mV5Offset);
+                if (has(F_V5LENGTH)) jo.put("v5length", mV5Length);
+                if (has(F_V5MD5)) jo.put("v5md5", mV5Md5);
+            }
+            if (mPendingUpdate != null) jo.put(PI_UPINFO, mPendingUpdate.getJSON());
+            if (mPendingDelete != null) jo.put(PI_DELINFO, mPendingDelete.getJSON());
+            if (mPendingCover != null) jo.put(PI_COVERINFO, mPendingCover.getJSON());
+            if (mIsPendingCover) jo.put(PI_COVER, true);
+        } catch (JSONException e) {
+            if (LOG) {
+                LogDebug.e(TAG, "getJSON: error", e);
+            }
+        }
+        return jo;
     }
 
     /**
@@ -749,12 +804,40 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @param info
      */
     public void updateAll(PluginInfo info) {
-        synchronized (mJson) {
-            mJson.clear();
-            for (String key : info.mJson.keySet()) {
-                mJson.put(key, info.mJson.get(key));
-            }
+        copyFrom(info);
+    }
+
+    /**
+     * 复制info中的所有字段（不含ParentInfo）。待更新/卸载/覆盖的信息会被一并复制
+     */
+    private void copyFrom(PluginInfo info) {
+        if (info == this) {
+            return;
+        }
+        synchronized (this) {
+            mFields = info.mFields;
+            mPkgName = info.mPkgName;
+            mAlias = info.mAlias;
+            mName = info.mName;
+            mLow = info.mLow;
+            mHigh = info.mHigh;
+            mVersion = info.mVersion;
+            mVersionValue = info.mVersionValue;
+            mPath = info.mPath;
+            mType = info.mType;
+            mUsed = info.mUsed;
+            mFrameworkVersion = info.mFrameworkVersion;
+            mV5Type = info.mV5Type;
+            mV5Index = info.mV5Index;
+            mV5Offset = info.mV5Offset;
+            mV5Length = info.mV5Length;
+            mV5Md5 = info.mV5Md5;
+            mExtras = info.mExtras != null ? new HashMap<>(info.mExtras) : null;
         }
+        mPendingUpdate = info.mPendingUpdate != null ? (PluginInfo) info.mPendingUpdate.clone() : null;
+        mPendingDelete = info.mPendingDelete != null ? (PluginInfo) info.mPendingDelete.clone() : null;
+        mPendingCover = info.mPendingCover != null ? (PluginInfo) info.mPendingCover.clone() : null;
+        mIsPendingCover = info.mIsPendingCover;
     }
 
     /**
@@ -794,8 +877,10 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     }
 
     private void setVersion(int version) {
-        put(PI_VER, version);
-        put(PI_VERV, buildCompareValue());
+        mVersion = version;
+        set(F_VER);
+        mVersionValue = buildCompareValue();
+        set(F_VERV);
     }
 
     // -------------------------
@@ -816,6 +901,14 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
     };
 
     private PluginInfo(Parcel source) {
+        int pos = source.dataPosition();
+        if (source.readInt() == PARCEL_FORMAT_V1) {
+            readFromParcel(source);
+            return;
+        }
+
+        // 旧格式：整个Json字符串
+        source.setDataPosition(pos);
         JSONObject jo = null;
         String txt = null;
         try {
@@ -830,15 +923,66 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
         initPluginInfo(jo);
     }
 
+    private void readFromParcel(Parcel source) {
+        mFields = source.readInt();
+        mPkgName = source.readString();
+        mAlias = source.readString();
+        mName = source.readString();
+        mLow = source.readInt();
+        mHigh = source.readInt();
+        mVersion = source.readInt();
+        mVersionValue = source.readLong();
+        mPath = source.readString();
+        mType = source.readInt();
+        mUsed = source.readInt() != 0;
+        mFrameworkVersion = source.readInt();
+        mV5Type = source.readInt();
+        mV5Index = source.readInt();
+        mV5Offset = source.readInt();
+        mV5Length = source.readInt();
+        mV5Md5 = source.readString();
+        mIsPendingCover = source.readInt() != 0;
+
+        // 无法识别的字段很少出现，仍以Json传递
+        String extras = source.readString();
+        if (extras != null) {
+            try {
+                JSONObject jo = new JSONObject(extras);
+                Iterator<String> keys = jo.keys();
+                while (keys.hasNext()) {
+                    String k = keys.next();
+                    putExtra(k, jo.opt(k));
+                }
+            } catch (JSONException e) {
+                if (LogDebug.LOG) {
+                    LogDebug.e(TAG, "PluginInfo: extras error! s=" + extras, e);
+                }
+            }
+        }
+
+        mPendingUpdate = readPending(source);
+        mPendingDelete = readPending(source);
+        mPendingCover = readPending(source);
+    }
+
+    private static PluginInfo readPending(Parcel source) {
+        return source.readInt() != 0 ? new PluginInfo(source) : null;
+    }
+
+    private static void writePending(Parcel dest, PluginInfo info, int flags) {
+        if (info == null) {
+            dest.writeInt(0);
+        } else {
+            dest.writeInt(1);
+            info.writeToParcel(dest, flags);
+        }
+    }
+
     @Override
     public Object clone() {
-        try {
-            final String jsonText = getJSON().toString();
-            return new PluginInfo(new JSONObject(jsonText));
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return null;
+        PluginInfo pi = new PluginInfo();
+        pi.copyFrom(this);
+        return pi;
     }
 
     @Override
@@ -848,7 +992,33 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeString(getJSON().toString());
+        String extras;
+        synchronized (this) {
+            dest.writeInt(PARCEL_FORMAT_V1);
+            dest.writeInt(mFields);
+            dest.writeString(mPkgName);
+            dest.writeString(mAlias);
+            dest.writeString(mName);
+            dest.writeInt(mLow);
+            dest.writeInt(mHigh);
+            dest.writeInt(mVersion);
+            dest.writeLong(mVersionValue);
+            dest.writeString(mPath);
+            dest.writeInt(mType);
+            dest.writeInt(mUsed ? 1 : 0);
+            dest.writeInt(mFrameworkVersion);
+            dest.writeInt(mV5Type);
+            dest.writeInt(mV5Index);
+            dest.writeInt(mV5Offset);
+            dest.writeInt(mV5Length);
+            dest.writeString(mV5Md5);
+            dest.writeInt(mIsPendingCover ? 1 : 0);
+            extras = mExtras != null && !mExtras.isEmpty() ? new JSONObject(mExtras).toString() : null;
+        }
+        dest.writeString(extras);
+        writePending(dest, mPendingUpdate, flags);
+        writePending(dest, mPendingDelete, flags);
+        writePending(dest, mPendingCover, flags);
     }
 
     @Override
@@ -900,9 +1070,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
         }
 
         // 插件基本信息
-        if (mJson != null) {
-            b.append("js=").append(mJson).append(' ');
-        }
+        b.append("js=").append(getJSON()).append(' ');
 
         // 和插件路径有关（除APK路径以外）
         {
@@ -913,7 +1081,14 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
 
     @Override
     public int hashCode() {
-        return mJson.hashCode();
+        // 只取未设置时有默认值的字段，与equals保持一致
+        int h = mFields;
+        h = 31 * h + getName().hashCode();
+        h = 31 * h + getPackageName().hashCode();
+        h = 31 * h + getVersion();
+        h = 31 * h + getPath().hashCode();
+        h = 31 * h + getType();
+        return h;
     }
 
     @Override
@@ -930,13 +1105,45 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
             return false;
         }
 
-        PluginInfo pluginInfo = (PluginInfo) obj;
-
-        try {
-            return pluginInfo.mJson.toString().equals(mJson.toString());
-        } catch (Exception e) {
-            return false;
+        PluginInfo o = (PluginInfo) obj;
+
+        // 逐字段比较（未设置的字段不参与比较），与原先比较Json内容的结果一致
+        return mFields == o.mFields
+                && (!has(F_PKGNAME) || TextUtils.equals(mPkgName, o.mPkgName))
+                && (!has(F_ALI) || TextUtils.equals(mAlias, o.mAlias))
+                && (!has(F_NAME) || TextUtils.equals(mName, o.mName))
+                && (!has(F_LOW) || mLow == o.mLow)
+                && (!has(F_HIGH) || mHigh == o.mHigh)
+                && (!has(F_VER) || mVersion == o.mVersion)
+                && (!has(F_VERV) || mVersionValue == o.mVersionValue)
+                && (!has(F_PATH) || TextUtils.equals(mPath, o.mPath))
+                && (!has(F_TYPE) || mType == o.mType)
+                && (!has(F_USED) || mUsed == o.mUsed)
+                && (!has(F_FRM_VER) || mFrameworkVersion == o.mFrameworkVersion)
+                && (!has(F_V5TYPE) || mV5Type == o.mV5Type)
+                && (!has(F_V5INDEX) || mV5Index == o.mV5Index)
+                && (!has(F_V5OFFSET) || mV5Offset == o.mV5Offset)
+                && (!has(F_V5LENGTH) || mV5Length == o.mV5Length)
+                && (!has(F_V5MD5) || TextUtils.equals(mV5Md5, o.mV5Md5))
+                && mIsPendingCover == o.mIsPendingCover
+                && equalsExtras(mExtras, o.mExtras)
+                && equalsNullable(mPendingUpdate, o.mPendingUpdate)
+                && equalsNullable(mPendingDelete, o.mPendingDelete)
+                && equalsNullable(mPendingCover, o.mPendingCover);
+    }
+
+    private static boolean equalsNullable(PluginInfo a, PluginInfo b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean equalsExtras(Map<String, Object> a, Map<String, Object> b) {
+        boolean ae = a == null || a.isEmpty();
+        boolean be = b == null || b.isEmpty();
+        if (ae || be) {
+            return ae == be;
         }
+        // 值可能是JSONObject等，需按内容比较
+        return new JSONObject(a).toString().equals(new JSONObject(b).toString());
     }
 
 
@@ -1163,7 +1370,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 只用于旧的P-n插件，可能会废弃
      */
     public int getV5Type() {
-        return get("v5type", V5FileInfo.NONE_PLUGIN);
+        return has(F_V5TYPE) ? mV5Type : V5FileInfo.NONE_PLUGIN;
     }
 
     /**
@@ -1172,7 +1379,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 只用于旧的P-n插件，可能会废弃
      */
     public int getV5Index() {
-        return get("v5index", -1);
+        return has(F_V5INDEX) ? mV5Index : -1;
     }
 
     /**
@@ -1181,7 +1388,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 只用于旧的P-n插件，可能会废弃
      */
     public int getV5Offset() {
-        return get("v5offset", -1);
+        return has(F_V5OFFSET) ? mV5Offset : -1;
     }
 
     /**
@@ -1190,7 +1397,7 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 只用于旧的P-n插件，可能会废弃
      */
     public int getV5Length() {
-        return get("v5length", -1);
+        return has(F_V5LENGTH) ? mV5Length : -1;
     }
 
     /**
@@ -1199,21 +1406,135 @@ public class PluginInfo implements Serializable, Parcelable, Cloneable {
      * @deprecated 只用于旧的P-n插件，可能会废弃
      */
     public String getV5MD5() {
-        return get("v5md5", "");
+        return has(F_V5MD5) ? mV5Md5 : "";
     }
 
     ////
 
-    private <T> T get(String name, T def) {
-        synchronized (mJson) {
-            final Object obj = mJson.get(name);
-            return (def.getClass().isInstance(obj)) ? (T) obj : def;
-        }
+    private boolean has(int field) {
+        return (mFields & field) != 0;
     }
 
-    public <T> void put(String key, T value) {
+    private void set(int field) {
+        mFields |= field;
+    }
+
+    /**
+     * 按Json的Key设置字段。与原先“写入Json”的语义一致：若值的类型与字段不符，则该字段视为未设置（取值时返回默认值）
+     */
+    public synchronized <T> void put(String key, T value) {
         if (key == null || value == null) return;
-        mJson.put(key, value); //value & key must not null
+        int field = putField(key, value);
+        if (field > 0) {
+            set(field);
+            if (mExtras != null) {
+                mExtras.remove(key);
+            }
+        } else if (field < 0) {
+            // 已知字段，但类型不符
+            mFields &= ~(-field);
+            putExtra(key, value);
+        } else {
+            putExtra(key, value);
+        }
+    }
+
+    /**
+     * @return 设置成功则返回字段标志；类型不符则返回负的字段标志；非普通字段则返回0
+     */
+    private int putField(String key, Object value) {
+        switch (key) {
+            case PI_PKGNAME:
+                if (!(value instanceof String)) return -F_PKGNAME;
+                mPkgName = (String) value;
+                return F_PKGNAME;
+            case PI_ALI:
+                if (!(value instanceof String)) return -F_ALI;
+                mAlias = (String) value;
+                return F_ALI;
+            case PI_NAME:
+                if (!(value instanceof String)) return -F_NAME;
+                mName = (String) value;
+                return F_NAME;
+            case PI_LOW:
+                if (!(value instanceof Integer)) return -F_LOW;
+                mLow = (Integer) value;
+                return F_LOW;
+            case PI_HIGH:
+                if (!(value instanceof Integer)) return -F_HIGH;
+                mHigh = (Integer) value;
+                return F_HIGH;
+            case PI_VER:
+                if (!(value instanceof Integer)) return -F_VER;
+                mVersion = (Integer) value;
+                return F_VER;
+            case PI_VERV:
+                // Json读回时，较小的数会变成Integer，这里统一按Number处理
+                if (!(value instanceof Number)) return -F_VERV;
+                mVersionValue = ((Number) value).longValue();
+                return F_VERV;
+            case PI_PATH:
+                if (!(value instanceof String)) return -F_PATH;
+                mPath = (String) value;
+                return F_PATH;
+            case PI_TYPE:
+                if (!(value instanceof Integer)) return -F_TYPE;
+                mType = (Integer) value;
+                return F_TYPE;
+            case PI_USED:
+                if (!(value instanceof Boolean)) return -F_USED;
+                mUsed = (Boolean) value;
+                return F_USED;
+            case PI_FRM_VER:
+                if (!(value instanceof Integer)) return -F_FRM_VER;
+                mFrameworkVersion = (Integer) value;
+                return F_FRM_VER;
+            case "v5type":
+                if (!(value instanceof Integer)) return -F_V5TYPE;
+                mV5Type = (Integer) value;
+                return F_V5TYPE;
+            case "v5index":
+                if (!(value instanceof Integer)) return -F_V5INDEX;
+                mV5Index = (Integer) value;
+                return F_V5INDEX;
+            case "v5offset":
+                if (!(value instanceof Integer)) return -F_V5OFFSET;
+                mV5Offset = (Integer) value;
+                return F_V5OFFSET;
+            case "v5length":
+                if (!(value instanceof Integer)) return -F_V5LENGTH;
+                mV5Length = (Integer) value;
+                return F_V5LENGTH;
+            case "v5md5":
+                if (!(value instanceof String)) return -F_V5MD5;
+                mV5Md5 = (String) value;
+                return F_V5MD5;
+        }
+        return 0;
+    }
+
+    private void putExtra(String key, Object value) {
+        // 待更新、待卸载、待覆盖安装的插件信息，以PluginInfo对象保存
+        if (value instanceof JSONObject) {
+            switch (key) {
+                case PI_UPINFO:
+                    setPendingUpdate(new PluginInfo((JSONObject) value));
+                    return;
+                case PI_DELINFO:
+                    setPendingDelete(new PluginInfo((JSONObject) value));
+                    return;
+                case PI_COVERINFO:
+                    setPendingCover(new PluginInfo((JSONObject) value));
+                    return;
+            }
+        }
+        if (PI_COVER.equals(key)) {
+            return;
+        }
+        if (mExtras == null) {
+            mExtras = new HashMap<>();
+        }
+        mExtras.put(key, value);
     }
 
 }
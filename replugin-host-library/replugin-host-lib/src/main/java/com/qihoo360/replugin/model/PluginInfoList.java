@@ -24,6 +24,7 @@ import com.qihoo360.loader2.Constant;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.utils.Charsets;
+import com.qihoo360.replugin.utils.CloseableUtils;
 import com.qihoo360.replugin.utils.FileUtils;
 
 import org.json.JSONArray;
@@ -31,15 +32,25 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 /**
+ * 插件列表（p.l）。持久化时采用“快照 + 追加日志”的方式： <p>
+ * 1、p.l：某一时刻的完整列表，格式与旧版一致（Json数组） <p>
+ * 2、p.l.journal：之后每次保存时变化的插件，只追加不改写；日志过长时再合并回p.l <p>
+ * 日志首行记录了它所基于的p.l的CRC32，p.l被替换后，旧日志即便来不及删除也不会再被重放
+ *
  * @author RePlugin Team
  */
 
@@ -47,8 +58,63 @@ public class PluginInfoList implements Iterable<PluginInfo> {
 
     private static final String TAG = "PluginInfoList";
 
+    private static final char OP_PUT = '+';
+
+    private static final char OP_DELETE = '-';
+
+    private static final char OP_CLEAR = '*';
+
+    /**
+     * 日志首行：所基于的p.l内容的CRC32
+     */
+    private static final char OP_BASE = '#';
+
+    /**
+     * 日志中的记录数至少达到此值（且超过插件数的两倍）时，才会压缩为p.l
+     */
+    private static final int JOURNAL_MIN_RECORDS = 64;
+
+    /**
+     * 插件名或别名 -> PluginInfo。同一个PluginInfo对象可能同时以插件名和别名出现
+     */
     private final ConcurrentHashMap<String, PluginInfo> mMap = new ConcurrentHashMap<>();
 
+    /**
+     * 包名 -> PluginInfo
+     */
+    private final ConcurrentHashMap<String, PluginInfo> mPkgMap = new ConcurrentHashMap<>();
+
+    /**
+     * 每个PluginInfo对象被多少个Key引用。按对象身份去重，不依赖equals/hashCode（PluginInfo的内容是可变的）
+     */
+    private final IdentityHashMap<PluginInfo, Integer> mRefs = new IdentityHashMap<>();
+
+    /**
+     * 修改mMap、mPkgMap、mRefs时使用的锁。查询不加锁
+     */
+    private final byte[] mLock = new byte[0];
+
+    /**
+     * 列表每变化一次就加一，用来判断快照是否过期
+     */
+    private volatile int mVersion;
+
+    private volatile Snapshot mSnapshot = new Snapshot(0, Collections.<PluginInfo>emptyList());
+
+    /**
+     * 已写入磁盘（p.l + 日志）的内容：插件名 -> Json文本。用来找出每次save时变化的插件
+     */
+    private final Map<String, String> mPersisted = new HashMap<>();
+
+    private int mJournalRecords;
+
+    private boolean mNeedCompact = true;
+
+    /**
+     * 磁盘上p.l内容的CRC32，写入日志首行
+     */
+    private long mBaseCrc;
+
     public void add(PluginInfo pi) {
         addToMap(pi);
     }
@@ -59,119 +125,487 @@ public class PluginInfoList implements Iterable<PluginInfo> {
      */
     public void addForce(PluginInfo pi) {
         if (pi == null) return;
-        if (!TextUtils.isEmpty(pi.getName())) mMap.put(pi.getName(), pi);
-        if (!TextUtils.isEmpty(pi.getAlias())) mMap.put(pi.getAlias(), pi);
+        synchronized (mLock) {
+            putKeyLocked(pi.getName(), pi);
+            putKeyLocked(pi.getAlias(), pi);
+        }
     }
 
     public void remove(String pn) {
-        mMap.remove(pn);
+        if (pn == null) return;
+        synchronized (mLock) {
+            final PluginInfo old = mMap.remove(pn);
+            if (old != null) {
+                releaseLocked(old);
+                mVersion++;
+            }
+        }
     }
 
     public PluginInfo get(String pn) {
         return pn != null ? mMap.get(pn) : null;
     }
 
+    /**
+     * 按包名查找插件
+     *
+     * @param pkgName 包名
+     * @return 插件信息，若没有则返回null
+     */
+    public PluginInfo getByPackageName(String pkgName) {
+        return pkgName != null ? mPkgMap.get(pkgName) : null;
+    }
+
     public List<PluginInfo> cloneList() {
-        return new ArrayList<>(getCopyValues());
+        return new ArrayList<>(getSnapshot().mList);
     }
 
-    public boolean load(Context context) {
-        try {
-            // 1. 读出字符串
-            final File f = getFile(context);
-            final String result = FileUtils.readFileToString(f, Charsets.UTF_8);
-            if (TextUtils.isEmpty(result)) {
-                if (LogDebug.LOG) {
+    /**
+     * 获取当前所有插件的只读快照。列表不变时多次调用返回同一个对象，调用方可放心遍历，无需复制
+     */
+    public List<PluginInfo> snapshot() {
+        return getSnapshot().mList;
+    }
+
+    /**
+     * @return 列表的版本号，每次增删改插件都会变化
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 读取插件列表：先读取p.l（完整快照），再按顺序重放p.l.journal中的增量记录
+     */
+    public synchronized boolean load(Context context) {
+        final File f = getFile(context);
+        final File jf = getJournalFile(context);
+
+        // 1. 读出快照（p.l），按插件名保存
+        final Map<String, JSONObject> entries = new LinkedHashMap<>();
+        boolean loaded = false;
+        mBaseCrc = crc("");
+        if (f.exists()) {
+            try {
+                final String result = FileUtils.readFileToString(f, Charsets.UTF_8);
+                mBaseCrc = crc(result);
+                if (!TextUtils.isEmpty(result)) {
+                    final JSONArray jArr = new JSONArray(result);
+                    for (int i = 0; i < jArr.length(); i++) {
+                        final JSONObject jo = jArr.optJSONObject(i);
+                        if (jo != null) {
+                            entries.put(jo.optString(PluginInfo.PI_NAME), jo);
+                        }
+                    }
+                    loaded = true;
+                } else if (LogDebug.LOG) {
                     LogDebug.e(TAG, "load: Read Json error!");
                 }
-                return false;
+            } catch (IOException e) {
+                if (LogDebug.LOG) {
+                    LogDebug.e(TAG, "load: Load error!", e);
+                }
+            } catch (JSONException e) {
+                if (LogDebug.LOG) {
+                    LogDebug.e(TAG, "load: Parse Json Error!", e);
+                }
             }
+        }
 
-            // 2. 解析出JSON
-            final JSONArray jArr = new JSONArray(result);
-            for (int i = 0; i < jArr.length(); i++) {
-                final JSONObject jo = jArr.optJSONObject(i);
-                final PluginInfo pi = PluginInfo.createByJO(jo);
-                if (pi == null) {
-                    if (LogDebug.LOG) {
-                        LogDebug.e(TAG, "load: PluginInfo Invalid. Ignore! jo=" + jo);
-                    }
-                    continue;
-                }
+        // 2. 重放日志。日志中每条记录都是插件的完整内容（或删除），因此可以重复重放
+        mJournalRecords = 0;
+        mNeedCompact = !loaded;
+        if (jf.exists()) {
+            loaded |= replayJournal(jf, entries);
+        }
+        if (!loaded) {
+            return false;
+        }
 
-                //block状态的插件丢弃
-                if (RePlugin.getConfig().getCallbacks().isPluginBlocked(pi)) {
-                    continue;
+        // 3. 生成PluginInfo
+        mPersisted.clear();
+        for (JSONObject jo : entries.values()) {
+            final PluginInfo pi = PluginInfo.createByJO(jo);
+            if (pi == null) {
+                if (LogDebug.LOG) {
+                    LogDebug.e(TAG, "load: PluginInfo Invalid. Ignore! jo=" + jo);
                 }
+                continue;
+            }
+
+            //block状态的插件丢弃
+            if (RePlugin.getConfig().getCallbacks().isPluginBlocked(pi)) {
+                mNeedCompact = true;
+                continue;
+            }
+
+            addToMap(pi);
+            mPersisted.put(pi.getName(), pi.getJSON().toString());
+        }
+        if (LogDebug.LOG) {
+            LogDebug.d(TAG, "load: size=" + mPersisted.size() + " journal=" + mJournalRecords + " compact=" + mNeedCompact);
+        }
+        return true;
+    }
+
+    /**
+     * 保存插件列表。只把和上次保存时不同的插件追加到日志中；日志过长时再整体写入p.l（压缩）
+     */
+    public synchronized boolean save(Context context) {
+        final Map<String, String> current = new HashMap<>();
+        for (PluginInfo i : getSnapshot().mList) {
+            current.put(i.getName(), i.getJSON().toString());
+        }
+
+        if (mNeedCompact) {
+            return compact(context, current);
+        }
 
-                addToMap(pi);
+        // 1. 找出变化的部分
+        final StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (Map.Entry<String, String> e : current.entrySet()) {
+            if (!e.getValue().equals(mPersisted.get(e.getKey()))) {
+                appendRecord(sb, OP_PUT, e.getValue());
+                n++;
+            }
+        }
+        for (String name : mPersisted.keySet()) {
+            if (!current.containsKey(name)) {
+                appendRecord(sb, OP_DELETE, name);
+                n++;
             }
+        }
+        if (n == 0) {
             return true;
+        }
+        if (LogDebug.LOG) {
+            Log.d(LogDebug.TAG_NO_PN, "save journal into p.l.journal=" + sb);
+        }
+
+        // 2. 追加到日志。新日志需先写入首行（所基于的p.l）
+        final File jf = getJournalFile(context);
+        if (!jf.exists() || jf.length() == 0) {
+            final StringBuilder head = new StringBuilder();
+            appendRecord(head, OP_BASE, Long.toHexString(mBaseCrc));
+            sb.insert(0, head);
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(jf, true);
+            fos.write(sb.toString().getBytes(Charsets.UTF_8));
+            fos.getFD().sync();
         } catch (IOException e) {
             if (LogDebug.LOG) {
-                LogDebug.e(TAG, "load: Load error!", e);
+                LogDebug.e(TAG, "save: append journal error!", e);
             }
-        } catch (JSONException e) {
+            // 日志末尾可能已写坏，直接整体写入
+            return compact(context, current);
+        } finally {
+            CloseableUtils.closeQuietly(fos);
+        }
+        mPersisted.clear();
+        mPersisted.putAll(current);
+        mJournalRecords += n;
+
+        // 3. 日志过长则压缩
+        if (mJournalRecords > Math.max(JOURNAL_MIN_RECORDS, current.size() * 2)) {
+            return compact(context, current);
+        }
+        return true;
+    }
+
+    /**
+     * 把完整的列表写入p.l（先写临时文件再改名），然后删除日志 <p>
+     * 改名后、删除日志前若进程被杀，日志首行的CRC与新p.l不符，加载时会被忽略。
+     * 若写入p.l失败，则把完整列表重写为日志，保证本次变化不丢
+     */
+    private boolean compact(Context context, Map<String, String> current) {
+        final File f = getFile(context);
+        final File tmp = new File(f.getPath() + ".tmp");
+        final StringBuilder sb = new StringBuilder(current.size() * 256);
+        sb.append('[');
+        for (String text : current.values()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(text);
+        }
+        sb.append(']');
+        if (LogDebug.LOG) {
+            Log.d(LogDebug.TAG_NO_PN, "save json into p.l=" + sb);
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            fos.write(sb.toString().getBytes(Charsets.UTF_8));
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmp.renameTo(f)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } catch (IOException e) {
             if (LogDebug.LOG) {
-                LogDebug.e(TAG, "load: Parse Json Error!", e);
+                e.printStackTrace();
             }
+            FileUtils.deleteQuietly(tmp);
+            return rewriteJournal(context, current);
+        } finally {
+            CloseableUtils.closeQuietly(fos);
         }
-        return false;
+        mBaseCrc = crc(sb.toString());
+        FileUtils.deleteQuietly(getJournalFile(context));
+        mPersisted.clear();
+        mPersisted.putAll(current);
+        mJournalRecords = 0;
+        mNeedCompact = false;
+        return true;
     }
 
-    public boolean save(Context context) {
+    /**
+     * 写入p.l失败时使用：以“清空 + 全部插件”的形式重写日志（同样先写临时文件再改名），下次保存时再尝试压缩
+     */
+    private boolean rewriteJournal(Context context, Map<String, String> current) {
+        final File jf = getJournalFile(context);
+        final File tmp = new File(jf.getPath() + ".tmp");
+        final StringBuilder sb = new StringBuilder(current.size() * 256);
+        appendRecord(sb, OP_BASE, Long.toHexString(mBaseCrc));
+        appendRecord(sb, OP_CLEAR, "");
+        for (String text : current.values()) {
+            appendRecord(sb, OP_PUT, text);
+        }
+
+        FileOutputStream fos = null;
         try {
-            final File f = getFile(context);
-            final JSONArray jsonArr = new JSONArray();
-            for (PluginInfo i : getCopyValues()) jsonArr.put(i.getJSON());
-            if (LogDebug.LOG) {
-                Log.d(LogDebug.TAG_NO_PN, "save json into p.l=" + jsonArr.toString());
+            fos = new FileOutputStream(tmp);
+            fos.write(sb.toString().getBytes(Charsets.UTF_8));
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmp.renameTo(jf)) {
+                throw new IOException("rename failed: " + tmp);
             }
-            FileUtils.writeStringToFile(f, jsonArr.toString(), Charsets.UTF_8);
-            return true;
         } catch (IOException e) {
             if (LogDebug.LOG) {
                 e.printStackTrace();
             }
+            FileUtils.deleteQuietly(tmp);
+            return false;
+        } finally {
+            CloseableUtils.closeQuietly(fos);
+        }
+        mPersisted.clear();
+        mPersisted.putAll(current);
+        mJournalRecords = current.size() + 1;
+        mNeedCompact = true;
+        return true;
+    }
+
+    /**
+     * 重放日志。首行与当前p.l不符（压缩后未及删除的旧日志）则整体忽略；
+     * 遇到不完整或校验失败的记录（如写入时进程被杀）则停止。两种情况都会在下次保存时压缩
+     *
+     * @return 是否读到了日志
+     */
+    private boolean replayJournal(File jf, Map<String, JSONObject> entries) {
+        final String text;
+        try {
+            text = FileUtils.readFileToString(jf, Charsets.UTF_8);
+        } catch (IOException e) {
+            if (LogDebug.LOG) {
+                LogDebug.e(TAG, "replayJournal: Load error!", e);
+            }
+            mNeedCompact = true;
+            return false;
+        }
+        int start = text.indexOf('\n');
+        final String head = start >= 0 ? payloadOf(text.substring(0, start), OP_BASE) : null;
+        if (head == null || !head.equals(Long.toHexString(mBaseCrc))) {
+            if (LogDebug.LOG) {
+                LogDebug.e(TAG, "replayJournal: stale journal. Ignore! head=" + head);
+            }
+            mNeedCompact = true;
+            return false;
+        }
+        start++;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            final String line = text.substring(start, end);
+            start = end + 1;
+            if (!applyRecord(line, entries)) {
+                if (LogDebug.LOG) {
+                    LogDebug.e(TAG, "replayJournal: bad record. Stop! line=" + line);
+                }
+                mNeedCompact = true;
+                return true;
+            }
+            mJournalRecords++;
+        }
+        if (start < text.length()) {
+            // 最后一条记录不完整
+            mNeedCompact = true;
+        }
+        return true;
+    }
+
+    /**
+     * 校验记录，返回其内容；操作符不符或校验失败时返回null
+     */
+    private static String payloadOf(String line, char op) {
+        if (line.length() < 9 || line.charAt(0) != op) {
+            return null;
+        }
+        final String payload = line.substring(9);
+        try {
+            if (Long.parseLong(line.substring(1, 9), 16) != crc(payload)) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return payload;
+    }
+
+    private static boolean applyRecord(String line, Map<String, JSONObject> entries) {
+        if (line.isEmpty()) {
+            return false;
+        }
+        final char op = line.charAt(0);
+        final String payload = payloadOf(line, op);
+        if (payload == null) {
             return false;
         }
+        if (op == OP_PUT) {
+            try {
+                final JSONObject jo = new JSONObject(payload);
+                // 保持原有顺序，使压缩后的p.l与旧版格式一致
+                entries.remove(jo.optString(PluginInfo.PI_NAME));
+                entries.put(jo.optString(PluginInfo.PI_NAME), jo);
+                return true;
+            } catch (JSONException e) {
+                return false;
+            }
+        } else if (op == OP_DELETE) {
+            entries.remove(payload);
+            return true;
+        } else if (op == OP_CLEAR) {
+            entries.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录格式：[操作符(1)][CRC32(8位十六进制)][内容]\n。Json中的换行会被转义，因此内容中不会有换行符
+     */
+    private static void appendRecord(StringBuilder sb, char op, String payload) {
+        final String crc = Long.toHexString(crc(payload));
+        sb.append(op);
+        for (int i = crc.length(); i < 8; i++) {
+            sb.append('0');
+        }
+        sb.append(crc).append(payload).append('\n');
+    }
+
+    private static long crc(String payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(Charsets.UTF_8));
+        return crc.getValue();
     }
 
     @Override
     public Iterator<PluginInfo> iterator() {
-        return getCopyValues().iterator();
+        return getSnapshot().mList.iterator();
     }
 
     ///
 
-    private Collection<PluginInfo> getCopyValues() {
-        return new HashSet(mMap.values()); //是否有必要去重???
+    private Snapshot getSnapshot() {
+        Snapshot s = mSnapshot;
+        if (s.mVersion == mVersion) {
+            return s;
+        }
+        synchronized (mLock) {
+            s = mSnapshot;
+            if (s.mVersion != mVersion) {
+                s = new Snapshot(mVersion, Collections.unmodifiableList(new ArrayList<>(mRefs.keySet())));
+                mSnapshot = s;
+            }
+            return s;
+        }
     }
 
     private void addToMap(PluginInfo pi) {
         if (pi == null) return;
-        if (!TextUtils.isEmpty(pi.getName())) updateMap(pi.getName(), pi);
-        if (!TextUtils.isEmpty(pi.getAlias())) updateMap(pi.getAlias(), pi);
+        if (LogDebug.LOG) {
+            Log.d(TAG, "updateMap=" + pi + ",address=" + System.identityHashCode(pi));
+        }
+        synchronized (mLock) {
+            PluginInfo ori = !TextUtils.isEmpty(pi.getName()) ? mMap.get(pi.getName()) : null;
+            if (ori == null && !TextUtils.isEmpty(pi.getAlias())) {
+                ori = mMap.get(pi.getAlias());
+            }
+            //解决其他进程重启后，重新加载，导致内存中的PluginInfo对象被替换的问题
+            if (ori != null && ori != pi) {
+                final String oldPkg = ori.getPackageName();
+                ori.updateAll(pi);
+                if (!TextUtils.equals(oldPkg, ori.getPackageName())) {
+                    mPkgMap.remove(oldPkg, ori);
+                    indexPackageLocked(ori);
+                }
+                mVersion++;
+            }
+            final PluginInfo target = ori != null ? ori : pi;
+            putKeyLocked(target.getName(), target);
+            putKeyLocked(target.getAlias(), target);
+        }
     }
 
-    private void updateMap(String name, PluginInfo info) {
-        if (mMap.contains(info)) {
+    private void putKeyLocked(String key, PluginInfo pi) {
+        if (TextUtils.isEmpty(key)) return;
+        final PluginInfo old = mMap.put(key, pi);
+        if (old == pi) {
             return;
         }
-        if (LogDebug.LOG) {
-            Log.d(TAG, "updateMap=" + info + ",address=" + System.identityHashCode(info));
+        if (old != null) {
+            releaseLocked(old);
         }
-        //解决其他进程重启后，重新加载，导致内存中的PluginInfo对象被替换的问题
-        if (mMap.containsKey(name)) {
-            PluginInfo oriInfo = mMap.get(name);
-            if (oriInfo != null) {
-                oriInfo.updateAll(info);
-                mMap.put(name, oriInfo);
-            } else {
-                mMap.put(name, info);
-            }
+        final Integer refs = mRefs.get(pi);
+        mRefs.put(pi, refs != null ? refs + 1 : 1);
+        indexPackageLocked(pi);
+        mVersion++;
+    }
+
+    private void releaseLocked(PluginInfo pi) {
+        final Integer refs = mRefs.get(pi);
+        if (refs == null || refs <= 1) {
+            mRefs.remove(pi);
+            mPkgMap.remove(pi.getPackageName(), pi);
         } else {
-            mMap.put(name, info);
+            mRefs.put(pi, refs - 1);
+        }
+    }
+
+    private void indexPackageLocked(PluginInfo pi) {
+        if (!TextUtils.isEmpty(pi.getPackageName())) {
+            mPkgMap.put(pi.getPackageName(), pi);
+        }
+    }
+
+    /**
+     * 某一版本的插件列表（只读）
+     */
+    private static final class Snapshot {
+
+        final int mVersion;
+
+        final List<PluginInfo> mList;
+
+        Snapshot(int version, List<PluginInfo> list) {
+            mVersion = version;
+            mList = list;
         }
     }
 
@@ -179,4 +613,9 @@ public class PluginInfoList implements Iterable<PluginInfo> {
         final File d = context.getDir(Constant.LOCAL_PLUGIN_APK_SUB_DIR, 0);
         return new File(d, "p.l");
     }
+
+    private File getJournalFile(Context context) {
+        final File d = context.getDir(Constant.LOCAL_PLUGIN_APK_SUB_DIR, 0);
+        return new File(d, "p.l.journal");
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.model;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * 本进程内插件加载耗时的汇总，用于统计各阶段耗时的分位数 <p>
+ * 每个阶段只保留最近 SAMPLES 次的样本，内存占用固定
+ *
+ * @author RePlugin Team
+ */
+public final class PluginLoadStats {
+
+    private static final int SAMPLES = 256;
+
+    private static final long[][] SAMPLE_RING = new long[PluginLoadTrace.STAGE_COUNT][SAMPLES];
+
+    private static final int[] SAMPLE_COUNT = new int[PluginLoadTrace.STAGE_COUNT];
+
+    private static int sLoads;
+
+    private static int sFailures;
+
+    private static int sCacheHits;
+
+    private static final byte[] LOCK = new byte[0];
+
+    private PluginLoadStats() {
+        // Nothing
+    }
+
+    /**
+     * 加入一次加载记录（框架内部调用）
+     */
+    public static void add(PluginLoadTrace trace) {
+        synchronized (LOCK) {
+            sLoads++;
+            if (!trace.isSuccess()) {
+                sFailures++;
+                return;
+            }
+            if (trace.isCacheHit()) {
+                sCacheHits++;
+            }
+            for (int i = 0; i < PluginLoadTrace.STAGE_COUNT; i++) {
+                long us = trace.getStageMicros(i);
+                if (us < 0) {
+                    continue;
+                }
+                SAMPLE_RING[i][SAMPLE_COUNT[i] % SAMPLES] = us;
+                SAMPLE_COUNT[i]++;
+            }
+        }
+    }
+
+    /**
+     * 获取某阶段耗时的分位数（只统计成功的加载）
+     *
+     * @param stage      见PluginLoadTrace.STAGE_XXX
+     * @param percentile 分位，0~100，如50、90、99
+     * @return 耗时，微秒；若无样本则返回-1
+     */
+    public static long getPercentile(int stage, int percentile) {
+        long[] sorted;
+        synchronized (LOCK) {
+            int n = Math.min(SAMPLE_COUNT[stage], SAMPLES);
+            if (n == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(SAMPLE_RING[stage], n);
+        }
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    /**
+     * @return 某阶段累计的样本数
+     */
+    public static int getSampleCount(int stage) {
+        synchronized (LOCK) {
+            return SAMPLE_COUNT[stage];
+        }
+    }
+
+    /**
+     * @return 本进程执行过的加载次数（含失败）
+     */
+    public static int getLoadCount() {
+        synchronized (LOCK) {
+            return sLoads;
+        }
+    }
+
+    public static int getFailureCount() {
+        synchronized (LOCK) {
+            return sFailures;
+        }
+    }
+
+    public static int getCacheHitCount() {
+        synchronized (LOCK) {
+            return sCacheHits;
+        }
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("--- plugin load stats ---");
+        writer.println("loads=" + getLoadCount() + " failures=" + getFailureCount() + " cacheHits=" + getCacheHitCount());
+        for (int i = 0; i < PluginLoadTrace.STAGE_COUNT; i++) {
+            if (getSampleCount(i) == 0) {
+                continue;
+            }
+            writer.println(PluginLoadTrace.getStageName(i) + ": n=" + getSampleCount(i)
+                    + " p50=" + getPercentile(i, 50) + "us"
+                    + " p90=" + getPercentile(i, 90) + "us"
+                    + " p99=" + getPercentile(i, 99) + "us");
+        }
+    }
+}
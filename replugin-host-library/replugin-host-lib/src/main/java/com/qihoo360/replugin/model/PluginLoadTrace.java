@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.model;
+
+/**
+ * 一次插件加载的分阶段耗时记录 <p>
+ * 每次真正执行了加载（而非直接返回已加载状态）时生成一份，加载结束后通过
+ * RePluginEventCallbacks.onPluginLoaded 回调给宿主，并汇总到 PluginLoadStats 中 <p>
+ * 未执行到的阶段（如命中缓存、或只加载到LOAD_INFO）耗时为-1
+ *
+ * @author RePlugin Team
+ */
+public final class PluginLoadTrace {
+
+    /**
+     * 等待跨进程加载锁
+     */
+    public static final int STAGE_LOCK_WAIT = 0;
+
+    /**
+     * 释放内置插件（AssetsUtils.quickExtractTo）
+     */
+    public static final int STAGE_EXTRACT = 1;
+
+    /**
+     * 读取PackageInfo（快照或getPackageArchiveInfo）
+     */
+    public static final int STAGE_PACKAGE_INFO = 2;
+
+    /**
+     * 解析Manifest并生成ComponentList
+     */
+    public static final int STAGE_COMPONENTS = 3;
+
+    /**
+     * 创建Resources
+     */
+    public static final int STAGE_RESOURCES = 4;
+
+    /**
+     * 创建ClassLoader（odex已存在，无需优化）
+     */
+    public static final int STAGE_CLASSLOADER = 5;
+
+    /**
+     * 创建ClassLoader，且需要做Dex优化（首次加载）
+     */
+    public static final int STAGE_DEX_OPT = 6;
+
+    /**
+     * 调用插件Entry（loadEntryLocked）
+     */
+    public static final int STAGE_ENTRY = 7;
+
+    /**
+     * 调用插件Application（callApp）
+     */
+    public static final int STAGE_CALL_APP = 8;
+
+    /**
+     * 整个加载过程
+     */
+    public static final int STAGE_TOTAL = 9;
+
+    public static final int STAGE_COUNT = 10;
+
+    private static final String[] STAGE_NAMES = {
+            "lock", "extract", "pkginfo", "components", "resources", "classloader", "dexopt", "entry", "app", "total"
+    };
+
+    private final String mPlugin;
+
+    private final int mLoadType;
+
+    private final long mStartNanos;
+
+    private final long[] mNanos = new long[STAGE_COUNT];
+
+    private boolean mStarted;
+
+    private boolean mCacheHit;
+
+    private boolean mSuccess;
+
+    /**
+     * @param plugin   插件名
+     * @param loadType 加载类型，见Plugin.LOAD_XXX
+     */
+    public PluginLoadTrace(String plugin, int loadType) {
+        mPlugin = plugin;
+        mLoadType = loadType;
+        mStartNanos = System.nanoTime();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mNanos[i] = -1;
+        }
+    }
+
+    /**
+     * 获取当前时间点，配合record使用
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录某阶段的耗时。同一阶段多次记录（如加载失败后重试）时累加
+     *
+     * @param stage 见STAGE_XXX
+     * @param start 该阶段开始时now()的返回值
+     */
+    public void record(int stage, long start) {
+        long d = System.nanoTime() - start;
+        mNanos[stage] = mNanos[stage] < 0 ? d : mNanos[stage] + d;
+    }
+
+    /**
+     * 标记本次确实执行了加载
+     */
+    public void markStarted() {
+        mStarted = true;
+    }
+
+    public void markCacheHit() {
+        mCacheHit = true;
+    }
+
+    /**
+     * 加载结束，记录总耗时
+     */
+    public void finish(boolean success) {
+        mSuccess = success;
+        mNanos[STAGE_TOTAL] = System.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * @return 插件名
+     */
+    public String getPluginName() {
+        return mPlugin;
+    }
+
+    /**
+     * @return 加载类型，见Plugin.LOAD_XXX
+     */
+    public int getLoadType() {
+        return mLoadType;
+    }
+
+    /**
+     * @return 是否确实执行了加载。若插件之前已加载过，则为false，此时不会回调
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * @return 是否从产物缓存中直接得到
+     */
+    public boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    public boolean isSuccess() {
+        return mSuccess;
+    }
+
+    /**
+     * 获取某阶段的耗时
+     *
+     * @param stage 见STAGE_XXX
+     * @return 耗时，微秒；未执行到的阶段为-1
+     */
+    public long getStageMicros(int stage) {
+        long n = mNanos[stage];
+        return n < 0 ? -1 : n / 1000;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PluginLoadTrace{p=").append(mPlugin)
+                .append(", t=").append(mLoadType)
+                .append(", ok=").append(mSuccess)
+                .append(", cache=").append(mCacheHit);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (mNanos[i] >= 0) {
+                sb.append(", ").append(STAGE_NAMES[i]).append('=').append(mNanos[i] / 1000).append("us");
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
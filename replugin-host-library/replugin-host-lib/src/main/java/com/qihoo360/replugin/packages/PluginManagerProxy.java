@@ -21,6 +21,8 @@ import android.text.TextUtils;
 
 import com.qihoo360.loader2.IPluginHost;
 import com.qihoo360.loader2.MP;
+import com.qihoo360.loader2.RegistrationBatcher;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.base.IPC;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
@@ -65,6 +67,9 @@ public class PluginManagerProxy {
         }
 
         sRemote = host.fetchManagerServer();
+        if (sRemote != null && BinderTracer.isEnabled()) {
+            sRemote = IPluginManagerServer.Stub.asInterface(BinderTracer.wrap(sRemote.asBinder(), IPluginManagerServer.Stub.class));
+        }
     }
 
     /**
@@ -182,6 +187,7 @@ public class PluginManagerProxy {
         }
 
         // 去常驻进程查其它进程是否运行
+        RegistrationBatcher.flush();
         return sRemote.isPluginRunning(pluginName, null);
     }
 
@@ -208,6 +214,7 @@ public class PluginManagerProxy {
             }
 
             // 去常驻进程查其它进程是否运行
+            RegistrationBatcher.flush();
             return sRemote.isPluginRunning(pluginName, process);
         }
     }
@@ -243,15 +250,8 @@ public class PluginManagerProxy {
         // 通知常驻在总表中也加一份
         if (sRemote != null) {
             // 有可能常驻进程已经被干掉，那就等下次调用syncRunningPlugins时才同步。
-            // 而当它存在时就直接加入列表即可
-            try {
-                sRemote.addToRunningPlugins(sRunningList.mProcessName, sRunningList.mPid, pluginName);
-            } catch (RemoteException e) {
-                // 常驻进程出现问题，先不管，等下次启动时再同步
-                if (LogRelease.LOGR) {
-                    e.printStackTrace();
-                }
-            }
+            // 而当它存在时就直接加入列表即可（随其它登记操作批量发出）
+            RegistrationBatcher.addToRunningPlugins(sRunningList.mProcessName, pluginName);
         }
     }
 
@@ -266,6 +266,7 @@ public class PluginManagerProxy {
         // 只有常驻进程在时才获取
         if (sRemote != null) {
             try {
+                RegistrationBatcher.flush();
                 rl = new PluginRunningList(sRemote.getRunningPlugins());
             } catch (RemoteException e) {
                 // 常驻进程出现问题
@@ -292,6 +293,7 @@ public class PluginManagerProxy {
         // 只有常驻进程在时才获取
         if (sRemote != null) {
             try {
+                RegistrationBatcher.flush();
                 return sRemote.getRunningProcessesByPlugin(pluginName);
             } catch (RemoteException e) {
                 // 常驻进程出现问题
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Parcel;
 import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
@@ -30,6 +31,7 @@ import com.qihoo360.loader2.PluginNativeLibsHelper;
 import com.qihoo360.replugin.RePlugin;
 import com.qihoo360.replugin.RePluginEventCallbacks;
 import com.qihoo360.replugin.RePluginInternal;
+import com.qihoo360.replugin.base.BinderTracer;
 import com.qihoo360.replugin.helper.LogDebug;
 import com.qihoo360.replugin.helper.LogRelease;
 import com.qihoo360.replugin.model.PluginInfo;
@@ -187,7 +189,10 @@ public class PluginManagerServer {
         // 5. 从插件中释放 So 文件
         PluginNativeLibsHelper.install(instPli.getPath(), instPli.getNativeLibsDir());
 
-        // 6. 若已经安装旧版本插件，则尝试更新插件信息，否则直接加入到列表中
+        // 6. 生成PackageInfo和Manifest的快照，加载插件时可直接读取
+        PluginPackageSnapshot.create(mContext, instPli.getPath());
+
+        // 7. 若已经安装旧版本插件，则尝试更新插件信息，否则直接加入到列表中
         if (curPli != null) {
             if (LogDebug.LOG) {
                 Log.d(TAG_NO_PN, "cur exist pinfo,curinfo=" + curPli + ",address=" + System.identityHashCode(curPli));
@@ -201,7 +206,7 @@ public class PluginManagerServer {
             mList.add(instPli);
         }
 
-        // 7. 保存插件信息到文件中，下次可直接使用
+        // 8. 保存插件信息到文件中，下次可直接使用
         mList.save(mContext);
 
         return instPli;
@@ -482,6 +487,7 @@ public class PluginManagerServer {
 
     private void delete(PluginInfo pi) {
         try {
+            PluginPackageSnapshot.delete(pi.getPath());
             FileUtils.forceDelete(new File(pi.getPath()));
             FileUtils.forceDelete(pi.getDexFile());
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
@@ -672,6 +678,19 @@ public class PluginManagerServer {
 
     private class Stub extends IPluginManagerServer.Stub {
 
+        private final BinderTracer.SuperTransact mSuperTransact = new BinderTracer.SuperTransact() {
+
+            @Override
+            public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+                return PluginManagerServer.Stub.super.onTransact(code, data, reply, flags);
+            }
+        };
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            return BinderTracer.onTransact(this, code, data, reply, flags, mSuperTransact);
+        }
+
         @Override
         public PluginInfo install(String path) throws RemoteException {
             synchronized (LOCKER) {
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.replugin.packages;
+
+import android.content.Context;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Process;
+
+import com.qihoo360.mobilesafe.core.BuildConfig;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ComponentBean;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
+import com.qihoo360.replugin.component.ComponentList;
+import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.helper.LogRelease;
+import com.qihoo360.replugin.utils.CloseableUtils;
+import com.qihoo360.replugin.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.qihoo360.replugin.helper.LogDebug.LOG;
+import static com.qihoo360.replugin.helper.LogDebug.PLUGIN_TAG;
+import static com.qihoo360.replugin.helper.LogRelease.LOGR;
+
+/**
+ * 插件的PackageInfo和Manifest组件信息的磁盘快照 <p>
+ * 在安装时生成（或首次加载时补齐），使冷启动加载插件时可以跳过 getPackageArchiveInfo 和 Manifest 解析 <p>
+ * 快照以 APK路径、大小、修改时间、框架版本号和系统指纹作为校验，任一不符即视为过期，回退到原有流程 <p>
+ * 文件格式：[头部][Parcel数据]，头部见write方法。Parcel格式与系统版本相关，故以系统指纹做校验 <p>
+ * 注意：插件框架内部使用，外界请不要调用。
+ *
+ * @author RePlugin Team
+ */
+public class PluginPackageSnapshot {
+
+    private static final String TAG = "PluginSnapshot";
+
+    private static final int MAGIC = 0x52505353; // "RPSS"
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * 框架版本。BuildConfig.VERSION_CODE 并不随框架版本变化，故使用版本名（即RePlugin.getVersion()）
+     */
+    private static final int FRAMEWORK_VERSION = BuildConfig.VERSION_NAME != null ? BuildConfig.VERSION_NAME.hashCode() : 0;
+
+    private static final String SUFFIX = ".snap";
+
+    /**
+     * 生成快照时使用的 getPackageArchiveInfo 参数，与 Loader 保持一致
+     */
+    public static final int PACKAGE_FLAGS = PackageManager.GET_ACTIVITIES | PackageManager.GET_SERVICES
+            | PackageManager.GET_PROVIDERS | PackageManager.GET_RECEIVERS | PackageManager.GET_META_DATA;
+
+    private final PackageInfo mPackageInfo;
+
+    private final ManifestBean mManifest;
+
+    private PluginPackageSnapshot(PackageInfo pi, ManifestBean manifest) {
+        mPackageInfo = pi;
+        mManifest = manifest;
+    }
+
+    /**
+     * @return 快照中的PackageInfo（未经Loader调整过的原始内容）
+     */
+    public PackageInfo getPackageInfo() {
+        return mPackageInfo;
+    }
+
+    /**
+     * @return 快照中带有IntentFilter的组件信息
+     */
+    public ManifestBean getManifest() {
+        return mManifest;
+    }
+
+    /**
+     * 获取某APK对应的快照文件
+     */
+    public static File getSnapshotFile(String apkPath) {
+        return new File(apkPath + SUFFIX);
+    }
+
+    /**
+     * 在安装时生成快照。失败时只打印日志，不影响安装
+     *
+     * @param context Context
+     * @param apkPath 已安装（移动到最终位置）的APK路径
+     */
+    public static void create(Context context, String apkPath) {
+        long start = System.currentTimeMillis();
+        PackageInfo pi = context.getPackageManager().getPackageArchiveInfo(apkPath, PACKAGE_FLAGS);
+        if (pi == null || pi.applicationInfo == null) {
+            if (LOG) {
+                LogDebug.e(TAG, "create: get package archive info null. path=" + apkPath);
+            }
+            return;
+        }
+        ManifestBean manifest = ComponentList.tryParseManifest(apkPath);
+        if (manifest == null) {
+            if (LOG) {
+                LogDebug.e(TAG, "create: parse manifest failed. path=" + apkPath);
+            }
+            return;
+        }
+        write(apkPath, pi, manifest);
+        if (LOG) {
+            LogDebug.d(TAG, "create: path=" + apkPath + " time=" + (System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * 写入快照。必须在PackageInfo被Loader等修改之前调用 <p>
+     * 先写入临时文件再改名，保证其它进程读到的永远是完整的快照
+     *
+     * @return 是否写入成功
+     */
+    public static boolean write(String apkPath, PackageInfo pi, ManifestBean manifest) {
+        File apk = new File(apkPath);
+        if (!apk.exists()) {
+            return false;
+        }
+
+        byte[] data;
+        Parcel p = Parcel.obtain();
+        try {
+            pi.writeToParcel(p, 0);
+            writeComponents(p, manifest.activities);
+            writeComponents(p, manifest.services);
+            writeComponents(p, manifest.receivers);
+            data = p.marshall();
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "pps.w: " + e.getMessage(), e);
+            }
+            return false;
+        } finally {
+            p.recycle();
+        }
+
+        byte[] path = apkPath.getBytes();
+        ByteBuffer header = ByteBuffer.allocate(4 * 8 + 8 * 2 + path.length);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(FRAMEWORK_VERSION);
+        header.putInt(Build.FINGERPRINT != null ? Build.FINGERPRINT.hashCode() : 0);
+        header.putLong(apk.length());
+        header.putLong(apk.lastModified());
+        header.putInt(path.length);
+        header.put(path);
+        header.putInt(data.length);
+        header.putInt(checksum(data));
+        header.putInt(0); // 保留
+
+        File dst = getSnapshotFile(apkPath);
+        File tmp = new File(dst.getPath() + "." + Process.myPid() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmp);
+            fos.write(header.array(), 0, header.position());
+            fos.write(data);
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmp.renameTo(dst)) {
+                FileUtils.deleteQuietly(tmp);
+                return false;
+            }
+            return true;
+        } catch (Throwable e) {
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "pps.w2: " + e.getMessage(), e);
+            }
+            FileUtils.deleteQuietly(tmp);
+            return false;
+        } finally {
+            CloseableUtils.closeQuietly(fos);
+        }
+    }
+
+    /**
+     * 读取快照。快照不存在、已过期或损坏时返回null，调用方应回退到 getPackageArchiveInfo 流程
+     *
+     * @param apkPath APK路径
+     * @return 快照，或null
+     */
+    public static PluginPackageSnapshot read(String apkPath) {
+        File f = getSnapshotFile(apkPath);
+        if (!f.exists()) {
+            return null;
+        }
+        long start = LOG ? System.currentTimeMillis() : 0;
+        RandomAccessFile raf = null;
+        Parcel p = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            File apk = new File(apkPath);
+            if (buf.getInt() != MAGIC
+                    || buf.getInt() != FORMAT_VERSION
+                    || buf.getInt() != FRAMEWORK_VERSION
+                    || buf.getInt() != (Build.FINGERPRINT != null ? Build.FINGERPRINT.hashCode() : 0)
+                    || buf.getLong() != apk.length()
+                    || buf.getLong() != apk.lastModified()) {
+                if (LOG) {
+                    LogDebug.d(TAG, "read: stale snapshot. path=" + apkPath);
+                }
+                return null;
+            }
+            byte[] path = new byte[buf.getInt()];
+            buf.get(path);
+            if (!apkPath.equals(new String(path))) {
+                return null;
+            }
+            byte[] data = new byte[buf.getInt()];
+            int sum = buf.getInt();
+            buf.getInt();
+            buf.get(data);
+            if (checksum(data) != sum) {
+                if (LOGR) {
+                    LogRelease.w(PLUGIN_TAG, "pps.r: bad checksum " + apkPath);
+                }
+                return null;
+            }
+
+            p = Parcel.obtain();
+            p.unmarshall(data, 0, data.length);
+            p.setDataPosition(0);
+            PackageInfo pi = PackageInfo.CREATOR.createFromParcel(p);
+            ManifestBean manifest = new ManifestBean();
+            manifest.activities = readComponents(p);
+            manifest.services = readComponents(p);
+            manifest.receivers = readComponents(p);
+            if (LOG) {
+                LogDebug.d(TAG, "read: ok. path=" + apkPath + " time=" + (System.currentTimeMillis() - start));
+            }
+            return new PluginPackageSnapshot(pi, manifest);
+        } catch (Throwable e) {
+            // 任何异常都视为快照不可用
+            if (LOGR) {
+                LogRelease.e(PLUGIN_TAG, "pps.r: " + e.getMessage(), e);
+            }
+            return null;
+        } finally {
+            if (p != null) {
+                p.recycle();
+            }
+            CloseableUtils.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * 删除某APK对应的快照
+     */
+    public static void delete(String apkPath) {
+        FileUtils.deleteQuietly(getSnapshotFile(apkPath));
+    }
+
+    private static void writeComponents(Parcel p, List<ComponentBean> list) {
+        if (list == null) {
+            p.writeInt(-1);
+            return;
+        }
+        p.writeInt(list.size());
+        for (ComponentBean b : list) {
+            p.writeString(b.name);
+            p.writeTypedList(b.intentFilters);
+        }
+    }
+
+    private static List<ComponentBean> readComponents(Parcel p) {
+        int n = p.readInt();
+        if (n < 0) {
+            return null;
+        }
+        List<ComponentBean> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ComponentBean b = new ComponentBean();
+            b.name = p.readString();
+            b.intentFilters = p.createTypedArrayList(IntentFilter.CREATOR);
+            list.add(b);
+        }
+        return list;
+    }
+
+    /**
+     * 简单的校验和，只用于发现截断或损坏的文件
+     */
+    private static int checksum(byte[] data) {
+        int h = 1;
+        for (byte b : data) {
+            h = 31 * h + b;
+        }
+        return h;
+    }
+}
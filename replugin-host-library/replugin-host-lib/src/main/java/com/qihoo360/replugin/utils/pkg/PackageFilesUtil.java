@@ -27,6 +27,7 @@ import com.qihoo360.mobilesafe.core.BuildConfig;
 import com.qihoo360.replugin.RePluginInternal;
 import com.qihoo360.replugin.helper.LogRelease;
 import com.qihoo360.replugin.model.PluginInfo;
+import com.qihoo360.replugin.packages.PluginPackageSnapshot;
 import com.qihoo360.replugin.utils.FileUtils;
 
 import java.io.DataInputStream;
@@ -292,6 +293,9 @@ public class PackageFilesUtil {
                 }
             }
 
+            // 删除PackageInfo快照
+            PluginPackageSnapshot.delete(apkFile.getAbsolutePath());
+
             // 删除释放后的odex
             final File dexFile = info.getDexFile();
             if (dexFile.exists()) {
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.qihoo360.mobilesafe.parser.manifest;
+
+import android.content.IntentFilter;
+
+import com.qihoo360.mobilesafe.parser.manifest.bean.ComponentBean;
+import com.qihoo360.mobilesafe.parser.manifest.bean.ManifestBean;
+import com.qihoo360.replugin.ext.parser.AbstractApkParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 对比两种解析插件 AndroidManifest 的方式（使用示例插件的二进制 Manifest）： <p>
+ * 1、原有流程：XmlTranslator 转成 XML 文本，再由 SAX + XmlHandler 解析 <p>
+ * 2、ManifestStreamer：直接由 BinaryXmlParser 的事件生成组件信息 <p>
+ * 运行：./gradlew :replugin-host-lib:testDebugUnitTest --tests '*ManifestStreamerBenchmark*' -i
+ *
+ * @author RePlugin Team
+ */
+public class ManifestStreamerBenchmark {
+
+    private static final String[] MANIFESTS = {"demo1", "demo2", "demo3", "webview"};
+
+    private static final int WARMUP = 2000;
+
+    private static final int ITERATIONS = 5000;
+
+    @Test
+    public void sameResult() throws IOException {
+        for (String name : MANIFESTS) {
+            BytesApkParser parser = new BytesApkParser(readManifest(name));
+            ManifestBean expected = ManifestParser.INS.parseManifestBean(parser.getManifestXml());
+            ManifestBean actual = ManifestParser.INS.parseManifestBean(new BytesApkParser(parser.mData));
+            assertSameComponents(name, expected.activities, actual.activities);
+            assertSameComponents(name, expected.services, actual.services);
+            assertSameComponents(name, expected.receivers, actual.receivers);
+        }
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+        byte[][] data = new byte[MANIFESTS.length][];
+        for (int i = 0; i < MANIFESTS.length; i++) {
+            data[i] = readManifest(MANIFESTS[i]);
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            runTranslator(data);
+            runStreamer(data);
+        }
+
+        long translator = 0;
+        long streamer = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS / 5; i++) {
+                runTranslator(data);
+            }
+            translator += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS / 5; i++) {
+                runStreamer(data);
+            }
+            streamer += System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("manifest: %d manifests x %d iterations, translator+sax=%.1fus streamer=%.1fus speedup=%.1fx",
+                data.length, ITERATIONS,
+                translator / 1000.0 / ITERATIONS / data.length,
+                streamer / 1000.0 / ITERATIONS / data.length,
+                (double) translator / streamer));
+    }
+
+    private static int runTranslator(byte[][] data) throws IOException {
+        int n = 0;
+        for (byte[] d : data) {
+            ManifestBean bean = ManifestParser.INS.parseManifestBean(new BytesApkParser(d).getManifestXml());
+            n += size(bean.activities) + size(bean.services) + size(bean.receivers);
+        }
+        return n;
+    }
+
+    private static int runStreamer(byte[][] data) throws IOException {
+        int n = 0;
+        for (byte[] d : data) {
+            ManifestBean bean = ManifestParser.INS.parseManifestBean(new BytesApkParser(d));
+            n += size(bean.activities) + size(bean.services) + size(bean.receivers);
+        }
+        return n;
+    }
+
+    private static void assertSameComponents(String manifest, List<ComponentBean> expected, List<ComponentBean> actual) {
+        assertEquals(manifest, size(expected), size(actual));
+        for (int i = 0; i < size(expected); i++) {
+            ComponentBean e = expected.get(i);
+            ComponentBean a = actual.get(i);
+            assertEquals(manifest, e.name, a.name);
+            assertEquals(manifest + ":" + e.name, sizeOfFilters(e.intentFilters), sizeOfFilters(a.intentFilters));
+        }
+    }
+
+    private static int size(List<ComponentBean> list) {
+        return list != null ? list.size() : 0;
+    }
+
+    private static int sizeOfFilters(List<IntentFilter> list) {
+        return list != null ? list.size() : 0;
+    }
+
+    private static byte[] readManifest(String name) throws IOException {
+        InputStream in = ManifestStreamerBenchmark.class.getResourceAsStream("/manifests/" + name + ".xml");
+        assertNotNull(name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 只提供 AndroidManifest.xml 的 APK 解析器
+     */
+    private static final class BytesApkParser extends AbstractApkParser {
+
+        final byte[] mData;
+
+        BytesApkParser(byte[] data) {
+            mData = data;
+        }
+
+        @Override
+        public byte[] getFileData(String path) {
+            return "AndroidManifest.xml".equals(path) ? mData : null;
+        }
+    }
+}
@@ -178,4 +178,7 @@ class ReClassConfig {
 
     /** 宿主launcherActivity,默认null */
     def hostAppLauncherActivity = null
+
+    /** 是否生成插件类索引，供宿主加载插件类时直接分流，默认true */
+    def generateClassIndex = true
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2005-2017 Qihoo 360 Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed To in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package com.qihoo360.replugin.gradle.plugin.inner
+
+import com.android.build.api.transform.DirectoryInput
+import com.android.build.api.transform.Format
+import com.android.build.api.transform.JarInput
+import com.android.build.api.transform.QualifiedContent
+import com.android.build.api.transform.TransformInput
+import com.android.build.api.transform.TransformOutputProvider
+
+import java.util.zip.ZipFile
+
+/**
+ * 生成插件的类索引（所有类名的 hashCode，排序后写入），作为 Java 资源打入插件 APK <p>
+ * 运行时由 PluginDexClassLoader 读取，命中的类直接到插件 Dex 中查找。
+ * 注意：索引取自混淆、Dex 化之前的 transform 输入，与最终 Dex 未必一致，故只能用于“命中”分流，
+ * 未命中时运行时仍会先查插件 Dex，不能据此判定类属于宿主。
+ * 格式须与 replugin-host-lib 中的 PluginClassIndex 保持一致
+ *
+ * @author RePlugin Team
+ */
+public class ClassIndexWriter {
+
+    /** 索引在 APK 中的路径 */
+    def static final ENTRY_NAME = 'replugin/class_index'
+
+    def static final MAGIC = 0x52504349
+
+    def static final VERSION = 1
+
+    /**
+     * 收集 inputs 中所有类的类名，并把索引写到 transform 的输出中
+     */
+    def static write(Collection<TransformInput> inputs, TransformOutputProvider outputProvider) {
+        def names = [] as Set
+        inputs.each { TransformInput input ->
+            input.directoryInputs.each { DirectoryInput dirInput ->
+                collectDir(dirInput.file, names)
+            }
+            input.jarInputs.each { JarInput jarInput ->
+                collectJar(jarInput.file, names)
+            }
+        }
+
+        int[] hashes = names.collect { it.hashCode() }.unique().sort() as int[]
+
+        File dir = outputProvider.getContentLocation('replugin_class_index',
+                [QualifiedContent.DefaultContentType.RESOURCES] as Set,
+                [QualifiedContent.Scope.PROJECT] as Set,
+                Format.DIRECTORY)
+        File file = new File(dir, ENTRY_NAME)
+        file.parentFile.mkdirs()
+        file.withDataOutputStream { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeInt(hashes.length)
+            hashes.each { out.writeInt(it) }
+        }
+        println ">>> Class index: ${names.size()} classes -> ${file.absolutePath}"
+    }
+
+    def static collectDir(File root, Set names) {
+        if (!root.exists()) {
+            return
+        }
+        def rootPath = root.absolutePath
+        root.eachFileRecurse { File f ->
+            if (f.isFile() && f.name.endsWith('.class')) {
+                addClass(f.absolutePath.substring(rootPath.length() + 1), names)
+            }
+        }
+    }
+
+    def static collectJar(File jar, Set names) {
+        if (!jar.exists()) {
+            return
+        }
+        def zip = new ZipFile(jar)
+        try {
+            zip.entries().each {
+                if (!it.directory && it.name.endsWith('.class')) {
+                    addClass(it.name, names)
+                }
+            }
+        } finally {
+            zip.close()
+        }
+    }
+
+    /**
+     * a/b/C$D.class -> a.b.C$D
+     */
+    def static addClass(String path, Set names) {
+        if (path.startsWith('META-INF') || path.endsWith('module-info.class')) {
+            return
+        }
+        names << path.substring(0, path.length() - '.class'.length()).replace('\\', '.').replace('/', '.')
+    }
+}
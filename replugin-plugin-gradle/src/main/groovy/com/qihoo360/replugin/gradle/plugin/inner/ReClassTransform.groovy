@@ -87,6 +87,11 @@ public class ReClassTransform extends Transform {
         } else {
             doTransform(inputs, outputProvider, config, injectors) // 执行 reclass
         }
+
+        /* 生成插件类索引 */
+        if (config.generateClassIndex) {
+            ClassIndexWriter.write(inputs, outputProvider)
+        }
     }
 
     /**
@@ -299,6 +304,12 @@ repluginPluginConfig {
         return TransformManager.CONTENT_CLASS
     }
 
+    @Override
+    Set<QualifiedContent.ContentType> getOutputTypes() {
+        // 除 class 外，还会输出类索引（Java 资源）
+        return [QualifiedContent.DefaultContentType.CLASSES, QualifiedContent.DefaultContentType.RESOURCES] as Set
+    }
+
     @Override
     Set<QualifiedContent.Scope> getScopes() {
         return TransformManager.SCOPE_FULL_PROJECT
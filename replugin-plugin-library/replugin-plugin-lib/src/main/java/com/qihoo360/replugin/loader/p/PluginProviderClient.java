@@ -18,22 +18,31 @@ package com.qihoo360.replugin.loader.p;
 
 import android.annotation.TargetApi;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
 
 import com.qihoo360.replugin.MethodInvoker;
 import com.qihoo360.replugin.RePluginFramework;
 import com.qihoo360.replugin.helper.LogDebug;
+import com.qihoo360.replugin.utils.ReflectUtils;
 
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 
 /**
  * 一种能够对【插件】的Provider做增加、删除、改变、查询的接口。
@@ -203,6 +212,84 @@ public class PluginProviderClient {
         return -1;
     }
 
+    /**
+     * 调用插件里的Provider，一次跨进程调用完成整批操作 <p>
+     * 与ContentResolver一样会抛出RemoteException、OperationApplicationException；宿主版本过低（不支持此方法）时直接使用ContentResolver
+     *
+     * @param authority 插件Provider的authority
+     * @see android.content.ContentResolver#applyBatch(String, ArrayList)
+     */
+    public static ContentProviderResult[] applyBatch(Context c, String authority, ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        if (c == null) {
+            return null;
+        }
+
+        if (!RePluginFramework.mHostInitialized) {
+            return c.getContentResolver().applyBatch(authority, operations);
+        }
+
+        Method m = ProxyRePluginProviderClientVar.getApplyBatch();
+        if (m == null) {
+            return c.getContentResolver().applyBatch(authority, operations);
+        }
+
+        try {
+            return (ContentProviderResult[]) ReflectUtils.invokeMethod(m, null, c, authority, operations);
+        } catch (InvocationTargetException e) {
+            // MethodInvoker会吞掉异常，这里需要把宿主抛出的异常原样交给调用方
+            Throwable t = e.getTargetException();
+            if (t instanceof OperationApplicationException) {
+                throw (OperationApplicationException) t;
+            }
+            if (t instanceof RemoteException) {
+                throw (RemoteException) t;
+            }
+            if (LogDebug.LOG) {
+                t.printStackTrace();
+            }
+        } catch (Exception e) {
+            if (LogDebug.LOG) {
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 调用插件里的Provider的call方法 <p>
+     * 宿主版本过低（不支持此方法）时直接使用ContentResolver
+     *
+     * @param uri 插件内的Uri，用于确定插件Provider
+     * @see android.content.ContentResolver#call(Uri, String, String, Bundle)
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Bundle call(Context c, Uri uri, String method, String arg, Bundle extras) {
+        if (c == null) {
+            return null;
+        }
+
+        if (!RePluginFramework.mHostInitialized) {
+            return c.getContentResolver().call(uri, method, arg, extras);
+        }
+
+        try {
+            Bundle b = (Bundle) ProxyRePluginProviderClientVar.call.call(null, c, uri, method, arg, extras);
+            if (!ProxyRePluginProviderClientVar.call.isAvailable()) {
+                // 宿主版本过低
+                return c.getContentResolver().call(uri, method, arg, extras);
+            }
+            return b;
+        } catch (Exception e) {
+            if (LogDebug.LOG) {
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
     /**
      * 调用插件里的Provider
      *
@@ -548,7 +635,36 @@ public class PluginProviderClient {
 
         private static MethodInvoker toCalledUri2;
 
+        private static ClassLoader sClassLoader;
+
+        private static Method applyBatch;
+
+        private static boolean sApplyBatchInitialized;
+
+        private static MethodInvoker call;
+
+        /**
+         * 获取宿主的applyBatch方法（不经过MethodInvoker，以便拿到它抛出的异常）
+         *
+         * @return 宿主版本过低、不支持此方法时返回null
+         */
+        static synchronized Method getApplyBatch() {
+            if (!sApplyBatchInitialized && sClassLoader != null) {
+                sApplyBatchInitialized = true;
+                try {
+                    applyBatch = ReflectUtils.getMethod(sClassLoader, "com.qihoo360.loader2.mgr.PluginProviderClient", "applyBatch", new Class<?>[]{Context.class, String.class, ArrayList.class});
+                } catch (Exception e) {
+                    // 宿主版本过低
+                    if (LogDebug.LOG) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return applyBatch;
+        }
+
         public static void initLocked(final ClassLoader classLoader) {
+            sClassLoader = classLoader;
             //
             String rePluginProviderClient = "com.qihoo360.loader2.mgr.PluginProviderClient";
             query = new MethodInvoker(classLoader, rePluginProviderClient, "query", new Class<?>[]{Context.class, Uri.class, String[].class, String.class, String[].class, String.class});
@@ -576,6 +692,7 @@ public class PluginProviderClient {
             notifyChange2 = new MethodInvoker(classLoader, rePluginProviderClient, "notifyChange", new Class<?>[]{Context.class, Uri.class, ContentObserver.class, Boolean.class});
             toCalledUri = new MethodInvoker(classLoader, rePluginProviderClient, "toCalledUri", new Class<?>[]{Context.class, Uri.class});
             toCalledUri2 = new MethodInvoker(classLoader, rePluginProviderClient, "toCalledUri", new Class<?>[]{Context.class, String.class, Uri.class, Integer.class});
+            call = new MethodInvoker(classLoader, rePluginProviderClient, "call", new Class<?>[]{Context.class, Uri.class, String.class, String.class, Bundle.class});
         }
     }
 }